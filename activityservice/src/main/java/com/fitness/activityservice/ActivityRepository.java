@@ -1,12 +1,21 @@
 package com.fitness.activityservice;
 
 import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface ActivityRepository extends MongoRepository<Activity, String> {
     List<Activity> findByUserId(String userId);
+
+    List<Activity> findByUserIdAndType(String userId, ActivityType type);
+
+    List<Activity> findByStartTimeBeforeAndArchivedAtIsNullOrderByUserIdAsc(LocalDateTime cutoff, Pageable pageable);
+
+    List<Activity> findByIdGreaterThanOrderByIdAsc(String id, Pageable pageable);
 }
@@ -0,0 +1,100 @@
+package com.fitness.activityservice.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AIMD concurrency limit driven by observed latency: the limit grows by one while
+ * requests finish close to the baseline latency and shrinks multiplicatively as soon
+ * as they take longer than {@code tolerance} times the baseline. The baseline is a
+ * long-term minimum: it drops to any faster request at once, but may only rise by
+ * {@code BASELINE_DRIFT} per sampling window towards that window's fastest request, so a
+ * sustained overload cannot redefine itself as normal and switch shedding off. Once the
+ * limit has sat at {@code minLimit} for a whole window, though, the slow requests cannot
+ * be queueing behind each other: the backend itself has become slower, and the baseline
+ * moves to that window's fastest request at once so the limit can grow again.
+ *
+ * One overload episode slows down every request in flight, so the limit is cut at most
+ * once per {@code limit} completions rather than once per slow request.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int WINDOW_SIZE = 500;
+    private static final double BASELINE_DRIFT = 0.001;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    private long baselineRttNanos = Long.MAX_VALUE;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private boolean windowAtFloor = true;
+    private int samplesSinceDecrease = Integer.MAX_VALUE / 2;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, double tolerance) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+    }
+
+    public boolean tryAcquire() {
+        int allowed = (int) limit;
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        onSample(rttNanos, current);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    synchronized long getBaselineRttNanos() {
+        return baselineRttNanos;
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtCompletion) {
+        baselineRttNanos = Math.min(baselineRttNanos, rttNanos);
+        windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+        windowAtFloor &= limit <= minLimit;
+        if (++windowSamples >= WINDOW_SIZE) {
+            long ceiling = (long) Math.ceil(baselineRttNanos * (1 + BASELINE_DRIFT));
+            baselineRttNanos = windowAtFloor ? windowMinRttNanos : Math.min(windowMinRttNanos, ceiling);
+            windowMinRttNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+            windowAtFloor = true;
+        }
+
+        samplesSinceDecrease++;
+        if (rttNanos > baselineRttNanos * tolerance) {
+            if (samplesSinceDecrease >= limit) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                samplesSinceDecrease = 0;
+            }
+        } else if (inFlightAtCompletion * 2 >= limit) {
+            // only grow while the current limit is actually being used
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.fitness.activityservice.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sheds /api/activities requests before they reach the controller once the adaptive
+ * limit is reached, instead of letting them queue in Tomcat until the client gives up.
+ *
+ * Writes, single-document reads and queries each have their own limiter, so slow
+ * aggregations or cold-segment scans back off the query limit without shrinking the
+ * one that protects writes. Queries are everything that may scan: /search, /stats and
+ * the plain listing, which merges the user's archived segments. Every request inside a
+ * class is admitted against that class's full limit; how much each class may use is
+ * set by its own {@code max-limit}.
+ */
+@Component
+@Slf4j
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private static final long SHED_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    enum RouteClass {
+        WRITE, READ, QUERY
+    }
+
+    private final Map<RouteClass, AdaptiveConcurrencyLimiter> limiters = new EnumMap<>(RouteClass.class);
+    private final Map<RouteClass, Counter> rejected = new EnumMap<>(RouteClass.class);
+    private final boolean enabled;
+    private final String retryAfterSeconds;
+
+    // shedding is logged as one summary per interval, a line per request would flood the logs under overload
+    private final AtomicLong shedSinceLog = new AtomicLong();
+    private final AtomicLong lastShedLogNanos = new AtomicLong(System.nanoTime() - SHED_LOG_INTERVAL_NANOS);
+
+    public AdmissionControlFilter(MeterRegistry meterRegistry,
+                                  @Value("${activity.admission.enabled:true}") boolean enabled,
+                                  @Value("${activity.admission.initial-limit:20}") int initialLimit,
+                                  @Value("${activity.admission.min-limit:4}") int minLimit,
+                                  @Value("${activity.admission.write.max-limit:200}") int writeMaxLimit,
+                                  @Value("${activity.admission.read.max-limit:200}") int readMaxLimit,
+                                  @Value("${activity.admission.query.max-limit:50}") int queryMaxLimit,
+                                  @Value("${activity.admission.backoff-ratio:0.9}") double backoffRatio,
+                                  @Value("${activity.admission.latency-tolerance:2.0}") double tolerance,
+                                  @Value("${activity.admission.retry-after-seconds:1}") int retryAfterSeconds) {
+        this.enabled = enabled;
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+
+        Map<RouteClass, Integer> maxLimits = Map.of(
+                RouteClass.WRITE, writeMaxLimit, RouteClass.READ, readMaxLimit, RouteClass.QUERY, queryMaxLimit);
+        for (RouteClass route : RouteClass.values()) {
+            int maxLimit = maxLimits.get(route);
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(Math.min(initialLimit, maxLimit),
+                    Math.min(minLimit, maxLimit), maxLimit, backoffRatio, tolerance);
+            String tag = route.name().toLowerCase(Locale.ROOT);
+            limiters.put(route, limiter);
+            Gauge.builder("activity.admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                    .tag("route", tag).register(meterRegistry);
+            Gauge.builder("activity.admission.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                    .tag("route", tag).register(meterRegistry);
+            rejected.put(route, Counter.builder("activity.admission.rejected").tag("route", tag).register(meterRegistry));
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith("/api/activities");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RouteClass route = routeClass(request);
+        AdaptiveConcurrencyLimiter limiter = limiters.get(route);
+
+        if (!limiter.tryAcquire()) {
+            rejected.get(route).increment();
+            logShed(route, limiter);
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    static RouteClass routeClass(HttpServletRequest request) {
+        if (!HttpMethod.GET.matches(request.getMethod())) {
+            return RouteClass.WRITE;
+        }
+        String uri = request.getRequestURI();
+        if (uri.endsWith("/")) {
+            uri = uri.substring(0, uri.length() - 1);
+        }
+        return uri.equals("/api/activities")
+                || uri.startsWith("/api/activities/search")
+                || uri.startsWith("/api/activities/stats")
+                ? RouteClass.QUERY
+                : RouteClass.READ;
+    }
+
+    private void logShed(RouteClass route, AdaptiveConcurrencyLimiter limiter) {
+        long shed = shedSinceLog.incrementAndGet();
+        long now = System.nanoTime();
+        long last = lastShedLogNanos.get();
+        if (now - last >= SHED_LOG_INTERVAL_NANOS && lastShedLogNanos.compareAndSet(last, now)) {
+            shedSinceLog.addAndGet(-shed);
+            log.warn("Shed {} /api/activities requests in the last {} s, {} limit now {}",
+                    shed, TimeUnit.NANOSECONDS.toSeconds(now - last), route, limiter.getLimit());
+        }
+    }
+}
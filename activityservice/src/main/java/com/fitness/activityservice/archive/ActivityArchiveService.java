@@ -0,0 +1,158 @@
+package com.fitness.activityservice.archive;
+
+import com.fitness.activityservice.ActivityRepository;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.service.ActivityCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Moves activities older than the horizon into cold segments in two phases. A run first
+ * writes new segments and marks their hot copies with {@code archivedAt}; only a later run,
+ * once {@code hot-retention-hours} have passed and every instance has rescanned the shared
+ * segment directory, deletes the marked hot copies. One instance at a time runs the job,
+ * guarded by an {@link ArchiveLock} lease that is renewed after every batch.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ActivityArchiveService {
+
+    private static final String JOB_LOCK = "activity-archive";
+
+    private final ActivityRepository activityRepository;
+    private final ColdActivityStore coldActivityStore;
+    private final ArchiveLock archiveLock;
+    private final ActivityCache activityCache;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${activity.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${activity.archive.horizon-days:90}")
+    private int horizonDays;
+
+    @Value("${activity.archive.batch-size:5000}")
+    private int batchSize;
+
+    @Value("${activity.archive.hot-retention-hours:24}")
+    private long hotRetentionHours;
+
+    @Value("${activity.archive.lock-ttl-minutes:30}")
+    private long lockTtlMinutes;
+
+    @Scheduled(cron = "${activity.archive.cron:0 0 3 * * *}")
+    public void archiveOldActivities() {
+        if (!enabled) {
+            return;
+        }
+
+        Duration lockTtl = Duration.ofMinutes(lockTtlMinutes);
+        String token = archiveLock.tryAcquire(JOB_LOCK, lockTtl);
+        if (token == null) {
+            log.info("Activity archiving is already running on another instance");
+            return;
+        }
+        try {
+            deleteRetainedHotCopies(token, lockTtl);
+            archiveBatches(token, lockTtl);
+        } finally {
+            archiveLock.release(JOB_LOCK, token);
+        }
+    }
+
+    private void archiveBatches(String token, Duration lockTtl) {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(horizonDays);
+        int archived = 0;
+
+        // archived documents are marked, so the first page is always the next batch
+        List<Activity> batch;
+        while (!(batch = activityRepository.findByStartTimeBeforeAndArchivedAtIsNullOrderByUserIdAsc(cutoff, PageRequest.of(0, batchSize))).isEmpty()) {
+            Map<String, List<Activity>> byUser = batch.stream()
+                    .collect(Collectors.groupingBy(Activity::getUserId));
+
+            for (Map.Entry<String, List<Activity>> entry : byUser.entrySet()) {
+                try {
+                    coldActivityStore.archive(entry.getKey(), entry.getValue());
+                } catch (IOException | RuntimeException e) {
+                    log.error("Failed to archive activities of user {}", entry.getKey(), e);
+                    return;
+                }
+                markArchived(entry.getKey(), entry.getValue());
+                coldActivityStore.compactIfNeeded(entry.getKey());
+                archived += entry.getValue().size();
+            }
+
+            if (!archiveLock.renew(JOB_LOCK, token, lockTtl)) {
+                log.warn("Lost the archive lease after {} activities, stopping", archived);
+                return;
+            }
+        }
+
+        log.info("Archived {} activities older than {}", archived, cutoff);
+    }
+
+    // only copies unchanged since they were read are marked; one that was updated meanwhile
+    // stays unmarked and is archived again next run, and one that was deleted meanwhile is
+    // taken out of the segment again
+    private void markArchived(String userId, List<Activity> activities) {
+        // a cached copy without archivedAt would clear the mark again on its next update
+        List<String> ids = activities.stream().map(Activity::getId).toList();
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Activity.class);
+        for (Activity activity : activities) {
+            operations.updateOne(Query.query(Criteria.where("_id").is(activity.getId())
+                            .and("updatedAt").is(activity.getUpdatedAt())),
+                    Update.update("archivedAt", now));
+        }
+        int matched = operations.execute().getMatchedCount();
+        activityCache.evictAll(ids);
+        if (matched == activities.size()) {
+            return;
+        }
+
+        Set<String> deleted = new HashSet<>(ids);
+        activityRepository.findAllById(deleted).forEach(activity -> deleted.remove(activity.getId()));
+        if (!deleted.isEmpty()) {
+            coldActivityStore.remove(userId, deleted);
+        }
+    }
+
+    private void deleteRetainedHotCopies(String token, Duration lockTtl) {
+        LocalDateTime threshold = LocalDateTime.now().minusHours(hotRetentionHours);
+        Query retained = Query.query(Criteria.where("archivedAt").lt(threshold)).limit(batchSize);
+        int deleted = 0;
+
+        List<Activity> removed;
+        while (!(removed = mongoTemplate.findAllAndRemove(retained, Activity.class)).isEmpty()) {
+            deleted += removed.size();
+            activityCache.evictAll(removed.stream().map(Activity::getId).toList());
+            if (!archiveLock.renew(JOB_LOCK, token, lockTtl)) {
+                log.warn("Lost the archive lease after deleting {} hot copies, stopping", deleted);
+                return;
+            }
+        }
+
+        if (deleted > 0) {
+            log.info("Deleted {} hot copies archived before {}", deleted, threshold);
+        }
+    }
+}
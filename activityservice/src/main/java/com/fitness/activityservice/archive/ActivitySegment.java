@@ -0,0 +1,238 @@
+package com.fitness.activityservice.archive;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read side of an archived segment file. A segment holds the activities of one user
+ * within one startTime range, stored column by column, each column deflated on its own:
+ *
+ * <pre>
+ * int magic, short version, short+UTF-8 userId, int rows, long minStart, long maxStart, byte columns
+ * per column: int rawLength, int compressedLength, byte[compressedLength]
+ * </pre>
+ *
+ * Version 1 stored the type column as enum ordinals; version 2 stores enum names, so the
+ * enum can be reordered or extended without corrupting old files. Both are readable.
+ *
+ * Only the header is kept in memory; it is enough for range pruning, and a column is
+ * read from the file and inflated only when the segment's activities are needed.
+ */
+public class ActivitySegment {
+
+    static final int MAGIC = 0x41435347;
+    static final short VERSION = 2;
+    private static final short VERSION_TYPE_ORDINAL = 1;
+
+    static final int COL_ID = 0;
+    static final int COL_TYPE = 1;
+    static final int COL_DURATION = 2;
+    static final int COL_CALORIES = 3;
+    static final int COL_START_TIME = 4;
+    static final int COL_CREATED_AT = 5;
+    static final int COL_UPDATED_AT = 6;
+    static final int COL_METRICS = 7;
+    static final int COLUMN_COUNT = 8;
+
+    static final int NULL_INT = Integer.MIN_VALUE;
+    static final long NULL_LONG = Long.MIN_VALUE;
+
+    private static final TypeReference<Map<String, Object>> METRICS_TYPE = new TypeReference<>() {};
+
+    @Getter
+    private final Path path;
+    @Getter
+    private final String userId;
+    @Getter
+    private final int rowCount;
+    private final short version;
+    private final long minStart;
+    private final long maxStart;
+
+    private final long[] offsets = new long[COLUMN_COUNT];
+    private final int[] rawLengths = new int[COLUMN_COUNT];
+    private final int[] compressedLengths = new int[COLUMN_COUNT];
+
+    private ActivitySegment(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+
+        ByteBuffer header = read(channel, 0, 4 + 2 + 2);
+        if (header.getInt() != MAGIC) {
+            throw new RuntimeException("Not an activity segment: " + path);
+        }
+        this.version = header.getShort();
+        if (version != VERSION && version != VERSION_TYPE_ORDINAL) {
+            throw new RuntimeException("Unsupported segment version " + version + ": " + path);
+        }
+
+        int userIdLength = Short.toUnsignedInt(header.getShort());
+        ByteBuffer fixed = read(channel, header.limit(), userIdLength + 4 + 8 + 8 + 1);
+        byte[] userIdBytes = new byte[userIdLength];
+        fixed.get(userIdBytes);
+        this.userId = new String(userIdBytes, StandardCharsets.UTF_8);
+        this.rowCount = fixed.getInt();
+        this.minStart = fixed.getLong();
+        this.maxStart = fixed.getLong();
+
+        int columns = fixed.get();
+        if (columns != COLUMN_COUNT) {
+            throw new RuntimeException("Unexpected column count " + columns + " in segment " + path);
+        }
+        long position = header.limit() + fixed.limit();
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            ByteBuffer lengths = read(channel, position, 8);
+            rawLengths[column] = lengths.getInt();
+            compressedLengths[column] = lengths.getInt();
+            offsets[column] = position + 8;
+            position = offsets[column] + compressedLengths[column];
+        }
+        if (position != channel.size()) {
+            throw new RuntimeException("Truncated segment " + path);
+        }
+    }
+
+    public static ActivitySegment open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ActivitySegment(path, channel);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open segment " + path, e);
+        }
+    }
+
+    public boolean overlaps(LocalDateTime from, LocalDateTime to) {
+        return (from == null || maxStart >= toEpochMillis(from))
+                && (to == null || minStart <= toEpochMillis(to));
+    }
+
+    // row of the activity in this segment, or -1; inflates the id column only
+    public int indexOf(String activityId) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream ids = column(channel, COL_ID);
+            for (int row = 0; row < rowCount; row++) {
+                if (ids.readUTF().equals(activityId)) {
+                    return row;
+                }
+            }
+            return -1;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read segment " + path, e);
+        }
+    }
+
+    public List<Activity> readActivities(ObjectMapper objectMapper) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream ids = column(channel, COL_ID);
+            DataInputStream types = column(channel, COL_TYPE);
+            DataInputStream durations = column(channel, COL_DURATION);
+            DataInputStream calories = column(channel, COL_CALORIES);
+            DataInputStream startTimes = column(channel, COL_START_TIME);
+            DataInputStream createdAts = column(channel, COL_CREATED_AT);
+            DataInputStream updatedAts = column(channel, COL_UPDATED_AT);
+            DataInputStream metrics = column(channel, COL_METRICS);
+
+            List<Activity> activities = new ArrayList<>(rowCount);
+            for (int row = 0; row < rowCount; row++) {
+                ActivityType type = readType(types);
+                int metricsLength = metrics.readInt();
+                Map<String, Object> additionalMetrics = null;
+                if (metricsLength >= 0) {
+                    byte[] json = new byte[metricsLength];
+                    metrics.readFully(json);
+                    additionalMetrics = objectMapper.readValue(json, METRICS_TYPE);
+                }
+
+                activities.add(Activity.builder()
+                        .id(ids.readUTF())
+                        .userId(userId)
+                        .type(type)
+                        .duration(readInt(durations))
+                        .caloriesBurned(readInt(calories))
+                        .startTime(readTime(startTimes))
+                        .createdAt(readTime(createdAts))
+                        .updatedAt(readTime(updatedAts))
+                        .additionalMetrics(additionalMetrics)
+                        .build());
+            }
+            return activities;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read segment " + path, e);
+        }
+    }
+
+    private ActivityType readType(DataInputStream types) throws IOException {
+        if (version == VERSION_TYPE_ORDINAL) {
+            byte ordinal = types.readByte();
+            return ordinal < 0 ? null : ActivityType.values()[ordinal];
+        }
+        String name = types.readUTF();
+        return name.isEmpty() ? null : ActivityType.valueOf(name);
+    }
+
+    private DataInputStream column(FileChannel channel, int column) throws IOException {
+        byte[] raw = new byte[rawLengths[column]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(read(channel, offsets[column], compressedLengths[column]));
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, raw.length - read);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != raw.length) {
+                throw new RuntimeException("Truncated column " + column + " in segment " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupt column " + column + " in segment " + path, e);
+        } finally {
+            inflater.end();
+        }
+        return new DataInputStream(new ByteArrayInputStream(raw));
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        int value = in.readInt();
+        return value == NULL_INT ? null : value;
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        long value = in.readLong();
+        return value == NULL_LONG ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(value), ZoneOffset.UTC);
+    }
+
+    static long toEpochMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
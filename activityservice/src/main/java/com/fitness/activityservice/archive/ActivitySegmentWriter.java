@@ -0,0 +1,136 @@
+package com.fitness.activityservice.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.activityservice.model.Activity;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+@Component
+@RequiredArgsConstructor
+public class ActivitySegmentWriter {
+
+    private final ObjectMapper objectMapper;
+
+    // activities must all belong to userId; the file only becomes visible once fully written,
+    // and both the file and the rename are synced to disk before this returns
+    public Path write(Path directory, String userId, List<Activity> activities) throws IOException {
+        List<Activity> sorted = activities.stream()
+                .sorted(Comparator.comparing(Activity::getStartTime, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .toList();
+
+        long minStart = Long.MAX_VALUE;
+        long maxStart = Long.MIN_VALUE;
+
+        ColumnBuffer[] columns = new ColumnBuffer[ActivitySegment.COLUMN_COUNT];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnBuffer();
+        }
+
+        for (Activity activity : sorted) {
+            columns[ActivitySegment.COL_ID].out.writeUTF(activity.getId());
+            columns[ActivitySegment.COL_TYPE].out.writeUTF(activity.getType() == null ? "" : activity.getType().name());
+            writeInt(columns[ActivitySegment.COL_DURATION], activity.getDuration());
+            writeInt(columns[ActivitySegment.COL_CALORIES], activity.getCaloriesBurned());
+            writeTime(columns[ActivitySegment.COL_START_TIME], activity.getStartTime());
+            writeTime(columns[ActivitySegment.COL_CREATED_AT], activity.getCreatedAt());
+            writeTime(columns[ActivitySegment.COL_UPDATED_AT], activity.getUpdatedAt());
+
+            if (activity.getAdditionalMetrics() == null) {
+                columns[ActivitySegment.COL_METRICS].out.writeInt(-1);
+            } else {
+                byte[] json = objectMapper.writeValueAsBytes(activity.getAdditionalMetrics());
+                columns[ActivitySegment.COL_METRICS].out.writeInt(json.length);
+                columns[ActivitySegment.COL_METRICS].out.write(json);
+            }
+
+            if (activity.getStartTime() != null) {
+                long start = ActivitySegment.toEpochMillis(activity.getStartTime());
+                minStart = Math.min(minStart, start);
+                maxStart = Math.max(maxStart, start);
+            }
+        }
+
+        Path userDirectory = directory.resolve(sanitize(userId));
+        Files.createDirectories(userDirectory);
+        Path target = userDirectory.resolve(minStart + "-" + maxStart + "-" + System.nanoTime() + ".seg");
+        Path temp = userDirectory.resolve(target.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // not closed here: closing the stream would close the channel before it is forced
+            DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+            file.writeInt(ActivitySegment.MAGIC);
+            file.writeShort(ActivitySegment.VERSION);
+            file.writeShort(userIdBytes.length);
+            file.write(userIdBytes);
+            file.writeInt(sorted.size());
+            file.writeLong(minStart);
+            file.writeLong(maxStart);
+            file.writeByte(columns.length);
+            for (ColumnBuffer column : columns) {
+                byte[] raw = column.bytes.toByteArray();
+                byte[] compressed = deflate(raw);
+                file.writeInt(raw.length);
+                file.writeInt(compressed.length);
+                file.write(compressed);
+            }
+            file.flush();
+            channel.force(true);
+        }
+
+        Path moved = Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(userDirectory);
+        return moved;
+    }
+
+    // makes the rename itself durable; directories cannot be opened this way on every
+    // platform (e.g. Windows), where the rename is left to the file system
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    private void writeInt(ColumnBuffer column, Integer value) throws IOException {
+        column.out.writeInt(value == null ? ActivitySegment.NULL_INT : value);
+    }
+
+    private void writeTime(ColumnBuffer column, LocalDateTime value) throws IOException {
+        column.out.writeLong(value == null ? ActivitySegment.NULL_LONG : ActivitySegment.toEpochMillis(value));
+    }
+
+    private byte[] deflate(byte[] raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(raw);
+        }
+        return compressed.toByteArray();
+    }
+
+    static String sanitize(String userId) {
+        return userId.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private static class ColumnBuffer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+    }
+}
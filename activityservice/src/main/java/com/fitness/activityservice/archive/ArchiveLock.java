@@ -0,0 +1,73 @@
+package com.fitness.activityservice.archive;
+
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Leases in Mongo that every activity service instance sees: one document per lock name,
+ * holding its owner and an expiry. Each acquisition gets its own owner token, so two threads
+ * of one instance exclude each other as much as two instances do; only the holder of the
+ * token can renew or release the lease. Taking a free or expired lease is a single upsert
+ * findAndModify, and a live lease makes the upsert collide on the id. An instance that dies
+ * simply lets its lease expire.
+ */
+@Component
+@RequiredArgsConstructor
+public class ArchiveLock {
+
+    private static final String COLLECTION = "archive_locks";
+    private static final Duration WAIT_STEP = Duration.ofMillis(100);
+
+    private final MongoTemplate mongoTemplate;
+
+    // the owner token to renew and release the lease with, or null when it is held
+    public String tryAcquire(String name, Duration ttl) {
+        Instant now = Instant.now();
+        String token = UUID.randomUUID().toString();
+        Query query = Query.query(Criteria.where("_id").is(name).and("expiresAt").lt(now));
+        Update update = new Update()
+                .set("owner", token)
+                .set("expiresAt", now.plus(ttl));
+        try {
+            return mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, COLLECTION) != null
+                    ? token : null;
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+
+    public String acquire(String name, Duration ttl, Duration maxWait) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        String token;
+        while ((token = tryAcquire(name, ttl)) == null) {
+            if (System.nanoTime() >= deadline) {
+                return null;
+            }
+            Thread.sleep(WAIT_STEP);
+        }
+        return token;
+    }
+
+    // false once the lease expired and someone else took it
+    public boolean renew(String name, String token, Duration ttl) {
+        Query query = Query.query(Criteria.where("_id").is(name).and("owner").is(token));
+        return mongoTemplate.updateFirst(query, Update.update("expiresAt", Instant.now().plus(ttl)), COLLECTION)
+                .getMatchedCount() > 0;
+    }
+
+    public void release(String name, String token) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(name).and("owner").is(token)), COLLECTION);
+    }
+}
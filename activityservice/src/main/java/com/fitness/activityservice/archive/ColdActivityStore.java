@@ -0,0 +1,260 @@
+package com.fitness.activityservice.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.activityservice.model.Activity;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Archived activities, one directory of segment files per user. The directory must be
+ * storage that every instance mounts (e.g. an NFS or EFS volume): each instance only keeps
+ * segment headers in memory and rescans the directory periodically to pick up segments
+ * written or rewritten by the others.
+ *
+ * Segments are immutable; updating or deleting an archived activity, and compacting a
+ * user's segments, rewrites all of that user's segments into one while holding the user's
+ * {@link ArchiveLock}. A crash mid-rewrite can leave a row in two segments, so reads keep
+ * the most recently updated copy of each id.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ColdActivityStore {
+
+    private static final Duration USER_LOCK_TTL = Duration.ofMinutes(1);
+    private static final Duration USER_LOCK_WAIT = Duration.ofSeconds(5);
+
+    private final ActivitySegmentWriter segmentWriter;
+    private final ArchiveLock archiveLock;
+    private final ObjectMapper objectMapper;
+
+    private volatile Map<String, List<ActivitySegment>> segmentsByUser = Map.of();
+
+    @Value("${activity.archive.directory:./data/activity-segments}")
+    private String directory;
+
+    @Value("${activity.archive.max-segments-per-user:8}")
+    private int maxSegmentsPerUser;
+
+    @PostConstruct
+    void loadSegments() throws IOException {
+        refresh();
+        log.info("Loaded cold segments for {} users from {}", segmentsByUser.size(), directory);
+    }
+
+    // segments already open are reused, so a rescan only reads the headers of new files
+    @Scheduled(fixedDelayString = "${activity.archive.rescan-interval-ms:60000}")
+    public synchronized void refresh() throws IOException {
+        Path root = Paths.get(directory);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        Map<Path, ActivitySegment> known = new HashMap<>();
+        segmentsByUser.values().forEach(segments -> segments.forEach(segment -> known.put(segment.getPath(), segment)));
+
+        Map<String, List<ActivitySegment>> next = new ConcurrentHashMap<>();
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            files.filter(path -> path.toString().endsWith(".seg"))
+                    .map(path -> known.containsKey(path) ? Optional.of(known.get(path)) : openIfPresent(path))
+                    .flatMap(Optional::stream)
+                    .forEach(segment -> next.computeIfAbsent(segment.getUserId(), key -> new ArrayList<>()).add(segment));
+        }
+        segmentsByUser = next;
+    }
+
+    public void archive(String userId, List<Activity> activities) throws IOException {
+        withUserLock(userId, () -> {
+            Path file = segmentWriter.write(Paths.get(directory), userId, activities);
+            register(ActivitySegment.open(file));
+        });
+    }
+
+    public boolean hasSegments(String userId) {
+        return segmentsByUser.containsKey(userId);
+    }
+
+    public List<Activity> findByUserId(String userId) {
+        return findByUserIdAndStartTimeBetween(userId, null, null);
+    }
+
+    public List<Activity> findByUserIdAndStartTimeBetween(String userId, LocalDateTime from, LocalDateTime to) {
+        Map<String, Activity> activities = new LinkedHashMap<>();
+        for (ActivitySegment segment : segmentsByUser.getOrDefault(userId, List.of())) {
+            if (segment.overlaps(from, to)) {
+                // an activity without a start time is in no range
+                segment.readActivities(objectMapper).stream()
+                        .filter(activity -> from == null || activity.getStartTime() != null && !activity.getStartTime().isBefore(from))
+                        .filter(activity -> to == null || activity.getStartTime() != null && !activity.getStartTime().isAfter(to))
+                        .forEach(activity -> activities.merge(activity.getId(), activity, ColdActivityStore::newer));
+            }
+        }
+        return new ArrayList<>(activities.values());
+    }
+
+    // only the id column is inflated for segments that do not hold the activity
+    public Optional<Activity> findById(String userId, String activityId) {
+        Activity found = null;
+        for (ActivitySegment segment : segmentsByUser.getOrDefault(userId, List.of())) {
+            int row = segment.indexOf(activityId);
+            if (row >= 0) {
+                Activity activity = segment.readActivities(objectMapper).get(row);
+                found = found == null ? activity : newer(found, activity);
+            }
+        }
+        return Optional.ofNullable(found);
+    }
+
+    public void replace(Activity activity) {
+        rewrite(activity.getUserId(), activities -> {
+            List<Activity> replaced = new ArrayList<>(activities);
+            replaced.removeIf(existing -> existing.getId().equals(activity.getId()));
+            replaced.add(activity);
+            return replaced;
+        });
+    }
+
+    public void remove(String userId, Collection<String> activityIds) {
+        Set<String> removed = Set.copyOf(activityIds);
+        rewrite(userId, activities -> activities.stream()
+                .filter(activity -> !removed.contains(activity.getId()))
+                .toList());
+    }
+
+    public void compactIfNeeded(String userId) {
+        if (segmentsByUser.getOrDefault(userId, List.of()).size() > maxSegmentsPerUser) {
+            log.info("Compacting cold segments of user {}", userId);
+            rewrite(userId, UnaryOperator.identity());
+        }
+    }
+
+    // replaces every segment of the user with one holding the transformed activities
+    private void rewrite(String userId, UnaryOperator<List<Activity>> transform) {
+        try {
+            withUserLock(userId, () -> {
+                // another instance may have written or rewritten this user's segments since the last rescan
+                refreshUser(userId);
+                List<ActivitySegment> previous = segmentsByUser.getOrDefault(userId, List.of());
+                List<Activity> activities = transform.apply(findByUserId(userId));
+
+                Path userDirectory = Paths.get(directory).resolve(ActivitySegmentWriter.sanitize(userId));
+                if (!activities.isEmpty()) {
+                    register(ActivitySegment.open(segmentWriter.write(Paths.get(directory), userId, activities)));
+                }
+                for (ActivitySegment segment : previous) {
+                    Files.deleteIfExists(segment.getPath());
+                }
+                ActivitySegmentWriter.syncDirectory(userDirectory);
+                unregister(userId, previous);
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to rewrite archived activities of user " + userId, e);
+        }
+    }
+
+    private void withUserLock(String userId, SegmentWork work) throws IOException {
+        String lock = "activity-segments:" + userId;
+        String token;
+        try {
+            token = archiveLock.acquire(lock, USER_LOCK_TTL, USER_LOCK_WAIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for the archive lock of user " + userId, e);
+        }
+        if (token == null) {
+            throw new RuntimeException("Archived activities of user " + userId + " are being rewritten, try again");
+        }
+        try {
+            work.run();
+        } finally {
+            archiveLock.release(lock, token);
+        }
+    }
+
+    private synchronized void refreshUser(String userId) throws IOException {
+        Path userDirectory = Paths.get(directory).resolve(ActivitySegmentWriter.sanitize(userId));
+        List<ActivitySegment> segments = new ArrayList<>();
+        if (Files.isDirectory(userDirectory)) {
+            try (Stream<Path> files = Files.list(userDirectory)) {
+                files.filter(path -> path.toString().endsWith(".seg"))
+                        .map(this::openIfPresent)
+                        .flatMap(Optional::stream)
+                        .filter(segment -> segment.getUserId().equals(userId))
+                        .forEach(segments::add);
+            }
+        }
+        Map<String, List<ActivitySegment>> next = new ConcurrentHashMap<>(segmentsByUser);
+        if (segments.isEmpty()) {
+            next.remove(userId);
+        } else {
+            next.put(userId, segments);
+        }
+        segmentsByUser = next;
+    }
+
+    private synchronized void register(ActivitySegment segment) {
+        Map<String, List<ActivitySegment>> next = new ConcurrentHashMap<>(segmentsByUser);
+        List<ActivitySegment> segments = new ArrayList<>(next.getOrDefault(segment.getUserId(), List.of()));
+        segments.add(segment);
+        next.put(segment.getUserId(), segments);
+        segmentsByUser = next;
+    }
+
+    private synchronized void unregister(String userId, List<ActivitySegment> removed) {
+        Map<String, List<ActivitySegment>> next = new ConcurrentHashMap<>(segmentsByUser);
+        List<ActivitySegment> segments = new ArrayList<>(next.getOrDefault(userId, List.of()));
+        segments.removeAll(removed);
+        if (segments.isEmpty()) {
+            next.remove(userId);
+        } else {
+            next.put(userId, segments);
+        }
+        segmentsByUser = next;
+    }
+
+    // a file can disappear between listing and opening when another instance rewrites it
+    private Optional<ActivitySegment> openIfPresent(Path path) {
+        try {
+            return Optional.of(ActivitySegment.open(path));
+        } catch (RuntimeException e) {
+            if (Files.exists(path)) {
+                throw e;
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static Activity newer(Activity a, Activity b) {
+        Comparator<Activity> byUpdate = Comparator.comparing(Activity::getUpdatedAt,
+                Comparator.nullsFirst(Comparator.naturalOrder()));
+        return byUpdate.compare(a, b) >= 0 ? a : b;
+    }
+
+    @FunctionalInterface
+    private interface SegmentWork {
+        void run() throws IOException;
+    }
+}
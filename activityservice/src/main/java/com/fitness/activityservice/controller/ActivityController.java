@@ -1,8 +1,15 @@
 package com.fitness.activityservice.controller;
 
+import com.fitness.activityservice.dto.ActivityPage;
+import com.fitness.activityservice.dto.ActivityQuery;
 import com.fitness.activityservice.dto.ActivityRequest;
 import com.fitness.activityservice.dto.ActivityResponse;
+import com.fitness.activityservice.dto.ActivityStatsBucket;
+import com.fitness.activityservice.dto.ActivityStatsGrouping;
+import com.fitness.activityservice.model.PersonalRecord;
+import com.fitness.activityservice.service.ActivityQueryService;
 import com.fitness.activityservice.service.ActivityService;
+import com.fitness.activityservice.service.PersonalRecordService;
 import lombok.AllArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -15,6 +22,8 @@ import java.util.List;
 public class ActivityController {
 
     private ActivityService activityService;
+    private PersonalRecordService personalRecordService;
+    private ActivityQueryService activityQueryService;
 
     @PostMapping
     public ResponseEntity<ActivityResponse> trackActivity(@RequestBody ActivityRequest request, @RequestHeader("X-User-ID") String userId) {
@@ -28,6 +37,27 @@ public class ActivityController {
         return ResponseEntity.ok(activityService.getUserActivities(userId));
     }
 
+    // pass nextCursor back as cursor for the following page
+    @GetMapping("/search")
+    public ResponseEntity<ActivityPage> searchActivities(
+            @ModelAttribute ActivityQuery query,
+            @RequestHeader("X-User-ID") String userId) {
+        return ResponseEntity.ok(activityService.searchActivities(userId, query));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<List<ActivityStatsBucket>> getActivityStats(
+            @ModelAttribute ActivityQuery query,
+            @RequestParam(defaultValue = "TYPE") ActivityStatsGrouping groupBy,
+            @RequestHeader("X-User-ID") String userId) {
+        return ResponseEntity.ok(activityQueryService.stats(userId, query, groupBy));
+    }
+
+    @GetMapping("/records")
+    public ResponseEntity<List<PersonalRecord>> getPersonalRecords(@RequestHeader("X-User-ID") String userId) {
+        return ResponseEntity.ok(personalRecordService.getUserRecords(userId));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<ActivityResponse> getActivityById(
             @PathVariable String id,
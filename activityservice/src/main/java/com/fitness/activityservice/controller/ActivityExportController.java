@@ -0,0 +1,35 @@
+package com.fitness.activityservice.controller;
+
+import com.fitness.activityservice.dto.ActivityResponse;
+import com.fitness.activityservice.service.ActivityService;
+import lombok.AllArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+// service-to-service endpoints; the gateway only routes /api/**, so these are not public
+@RestController
+@RequestMapping("/internal/activities")
+@AllArgsConstructor
+public class ActivityExportController {
+
+    private ActivityService activityService;
+
+    @GetMapping
+    public ResponseEntity<List<ActivityResponse>> exportActivities(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "500") int limit) {
+        return ResponseEntity.ok(activityService.exportActivities(after, limit));
+    }
+
+    @GetMapping("/count")
+    public ResponseEntity<Long> countActivities() {
+        return ResponseEntity.ok(activityService.countActivities());
+    }
+
+    @GetMapping("/{id}/exists")
+    public ResponseEntity<Boolean> activityExists(@PathVariable String id) {
+        return ResponseEntity.ok(activityService.activityExists(id));
+    }
+}
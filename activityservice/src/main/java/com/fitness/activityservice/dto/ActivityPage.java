@@ -0,0 +1,16 @@
+package com.fitness.activityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// nextCursor is null on the last page
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ActivityPage {
+    private List<ActivityResponse> activities;
+    private String nextCursor;
+}
@@ -0,0 +1,25 @@
+package com.fitness.activityservice.dto;
+
+import com.fitness.activityservice.model.ActivityType;
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+public class ActivityQuery {
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime from;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime to;
+
+    private List<ActivityType> types;
+    private Integer minDuration;
+    private Integer maxDuration;
+
+    // search only: page size, and the nextCursor of the previous page
+    private Integer limit;
+    private String cursor;
+}
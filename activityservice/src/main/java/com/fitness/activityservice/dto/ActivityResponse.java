@@ -20,4 +20,5 @@ public class ActivityResponse {
     private Map<String, Object> additionalMetrics;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
+    private boolean personalRecord;
 }
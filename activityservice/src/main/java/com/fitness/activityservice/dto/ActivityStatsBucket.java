@@ -0,0 +1,17 @@
+package com.fitness.activityservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ActivityStatsBucket {
+    private String key;
+    private long count;
+    private long totalDuration;
+    private double avgDuration;
+    private long totalCalories;
+    private double avgCalories;
+}
@@ -0,0 +1,7 @@
+package com.fitness.activityservice.dto;
+
+public enum ActivityStatsGrouping {
+    TYPE,
+    HOUR_OF_DAY,
+    WEEKDAY
+}
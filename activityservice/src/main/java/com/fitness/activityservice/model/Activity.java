@@ -6,6 +6,9 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -13,8 +16,13 @@ import java.time.LocalDateTime;
 import java.util.Map;
 
 @Document(collection = "activities")
+@CompoundIndexes({
+        // _id breaks startTime ties so search pages come straight off the index
+        @CompoundIndex(name = "user_start_id_idx", def = "{'userId': 1, 'startTime': -1, '_id': -1}"),
+        @CompoundIndex(name = "user_type_start_id_idx", def = "{'userId': 1, 'type': 1, 'startTime': -1, '_id': -1}")
+})
 @Data
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
 @NoArgsConstructor
 public class Activity {
@@ -23,6 +31,7 @@ public class Activity {
     private ActivityType type;
     private Integer duration;
     private Integer caloriesBurned;
+    @Indexed
     private LocalDateTime startTime;
 
     @Field("metrics")
@@ -33,4 +42,9 @@ public class Activity {
 
     @LastModifiedDate
     private LocalDateTime updatedAt;
+
+    // set once the activity is in a cold segment; the hot copy is kept for a retention
+    // period so every instance has picked the segment up before it is deleted
+    @Indexed(sparse = true)
+    private LocalDateTime archivedAt;
 }
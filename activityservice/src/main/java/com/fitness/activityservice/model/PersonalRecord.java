@@ -0,0 +1,48 @@
+package com.fitness.activityservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Document(collection = "personal_records")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class PersonalRecord {
+    // one document per user and activity type: "<userId>:<type>"
+    @Id
+    private String id;
+    @Indexed
+    private String userId;
+    private ActivityType type;
+
+    private String longestDurationActivityId;
+    private Integer longestDuration;
+
+    private String mostCaloriesActivityId;
+    private Integer mostCalories;
+
+    // minutes per unit of the "distance" metric, lower is better
+    private String bestPaceActivityId;
+    private Double bestPace;
+
+    @LastModifiedDate
+    private LocalDateTime updatedAt;
+
+    // bumped by every write; a recomputation only replaces the version it started from
+    private Long version;
+
+    public boolean isHeldBy(String activityId) {
+        return activityId != null && (activityId.equals(longestDurationActivityId)
+                || activityId.equals(mostCaloriesActivityId)
+                || activityId.equals(bestPaceActivityId));
+    }
+}
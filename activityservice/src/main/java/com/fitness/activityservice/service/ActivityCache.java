@@ -0,0 +1,116 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.model.Activity;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+@Component
+@Slf4j
+public class ActivityCache {
+
+    private static final String ORIGIN_HEADER = "cache-origin";
+
+    private final Cache<String, Activity> cache;
+    private final KafkaTemplate<String, Activity> kafkaTemplate;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    @Value("${kafka.topic.cache-invalidation-name}")
+    private String invalidationTopic;
+
+    public ActivityCache(KafkaTemplate<String, Activity> kafkaTemplate,
+                         MeterRegistry meterRegistry,
+                         @Value("${activity.cache.max-weight-bytes:67108864}") long maxWeightBytes,
+                         @Value("${activity.cache.ttl-seconds:600}") long ttlSeconds) {
+        this.kafkaTemplate = kafkaTemplate;
+        // Caffeine's size eviction is W-TinyLFU: a new entry is only admitted if it is
+        // estimated to be used more often than the one it would evict
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String id, Activity activity) -> estimateSize(activity))
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "activities");
+    }
+
+    public Optional<Activity> get(String activityId, Function<String, Optional<Activity>> loader) {
+        Activity activity = cache.get(activityId, id -> loader.apply(id).orElse(null));
+        return Optional.ofNullable(activity).map(this::copy);
+    }
+
+    // a newly created activity cannot be cached on any other instance yet
+    public void putNew(Activity activity) {
+        cache.put(activity.getId(), copy(activity));
+    }
+
+    public void put(Activity activity) {
+        cache.put(activity.getId(), copy(activity));
+        broadcastInvalidation(activity.getId());
+    }
+
+    public void evict(String activityId) {
+        cache.invalidate(activityId);
+        broadcastInvalidation(activityId);
+    }
+
+    public void evictAll(Collection<String> activityIds) {
+        cache.invalidateAll(activityIds);
+        activityIds.forEach(this::broadcastInvalidation);
+    }
+
+    // every instance consumes with its own group, so each one sees every invalidation; the
+    // group is named after the instance so a restart rejoins it instead of leaving one behind
+    @KafkaListener(topics = "${kafka.topic.cache-invalidation-name}",
+            groupId = "activity-cache-${activity.cache.instance-name:${HOSTNAME:local}-${server.port:8082}}",
+            properties = "auto.offset.reset=latest")
+    public void onInvalidation(ConsumerRecord<String, String> record) {
+        Header origin = record.headers().lastHeader(ORIGIN_HEADER);
+        if (origin != null && instanceId.equals(new String(origin.value(), StandardCharsets.UTF_8))) {
+            return;
+        }
+        cache.invalidate(record.key());
+    }
+
+    private void broadcastInvalidation(String activityId) {
+        try {
+            ProducerRecord<String, Activity> record = new ProducerRecord<>(invalidationTopic, activityId, null);
+            record.headers().add(ORIGIN_HEADER, instanceId.getBytes(StandardCharsets.UTF_8));
+            kafkaTemplate.send(record);
+        } catch (Exception e) {
+            log.warn("Failed to broadcast cache invalidation for activity {}", activityId, e);
+        }
+    }
+
+    private Activity copy(Activity activity) {
+        return activity.toBuilder().build();
+    }
+
+    private static int estimateSize(Activity activity) {
+        int size = 256;
+        Map<String, Object> metrics = activity.getAdditionalMetrics();
+        if (metrics != null) {
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                size += 64 + 2 * entry.getKey().length() + 2 * String.valueOf(entry.getValue()).length();
+            }
+        }
+        return size;
+    }
+}
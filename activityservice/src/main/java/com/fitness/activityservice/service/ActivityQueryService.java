@@ -0,0 +1,234 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.archive.ColdActivityStore;
+import com.fitness.activityservice.dto.ActivityQuery;
+import com.fitness.activityservice.dto.ActivityStatsBucket;
+import com.fitness.activityservice.dto.ActivityStatsGrouping;
+import com.fitness.activityservice.model.Activity;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Service
+@RequiredArgsConstructor
+public class ActivityQueryService {
+
+    private static final String UNKNOWN = "UNKNOWN";
+    static final int DEFAULT_LIMIT = 50;
+    static final int MAX_LIMIT = 200;
+    // newest first, as Mongo sorts startTime descending: activities without one come last
+    private static final Comparator<Activity> NEWEST_FIRST = Comparator
+            .comparing(Activity::getStartTime, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder()))
+            .thenComparing(Activity::getId)
+            .reversed();
+    private static final DateOperators.Timezone ZONE = DateOperators.Timezone.valueOf(ZoneId.systemDefault().getId());
+
+    private final MongoTemplate mongoTemplate;
+    private final ColdActivityStore coldActivityStore;
+
+    // one page newest first, keyed on (startTime, id) after query.cursor. Returns up to
+    // limitOf(query) + 1 activities; the extra one only tells the caller another page exists
+    public List<Activity> search(String userId, ActivityQuery query) {
+        int fetch = limitOf(query) + 1;
+        Activity cursor = query.getCursor() == null || query.getCursor().isBlank() ? null : parseCursor(query.getCursor());
+
+        Criteria criteria = toCriteria(userId, query);
+        if (cursor != null) {
+            criteria = new Criteria().andOperator(criteria, after(cursor));
+        }
+        // only what the response shows; userId is the caller's own
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.sort(Sort.by(Sort.Direction.DESC, "startTime", "id")),
+                Aggregation.limit(fetch),
+                Aggregation.project("type", "duration", "caloriesBurned", "startTime",
+                        "additionalMetrics", "createdAt", "updatedAt")
+        );
+        List<Activity> hot = mongoTemplate.aggregate(aggregation, Activity.class, Activity.class).getMappedResults();
+
+        List<Activity> cold = coldActivityStore.findByUserIdAndStartTimeBetween(userId, query.getFrom(), query.getTo())
+                .stream()
+                .filter(activity -> matches(query, activity))
+                .filter(activity -> cursor == null || NEWEST_FIRST.compare(activity, cursor) > 0)
+                .sorted(NEWEST_FIRST)
+                .limit(fetch)
+                .toList();
+
+        // an activity being archived can be in both tiers; the hot copy wins
+        Map<String, Activity> merged = new LinkedHashMap<>();
+        for (Activity activity : hot) {
+            activity.setUserId(userId);
+            merged.put(activity.getId(), activity);
+        }
+        cold.forEach(activity -> merged.putIfAbsent(activity.getId(), activity));
+        return merged.values().stream().sorted(NEWEST_FIRST).limit(fetch).toList();
+    }
+
+    static int limitOf(ActivityQuery query) {
+        return query.getLimit() == null ? DEFAULT_LIMIT : Math.max(1, Math.min(MAX_LIMIT, query.getLimit()));
+    }
+
+    static String cursorOf(Activity activity) {
+        String key = (activity.getStartTime() == null ? "" : activity.getStartTime().toString()) + "_" + activity.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Activity parseCursor(String cursor) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = key.lastIndexOf('_');
+            String startTime = key.substring(0, separator);
+            return Activity.builder()
+                    .startTime(startTime.isEmpty() ? null : LocalDateTime.parse(startTime))
+                    .id(key.substring(separator + 1))
+                    .build();
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new RuntimeException("Invalid cursor: " + cursor);
+        }
+    }
+
+    // strictly after the cursor in NEWEST_FIRST order
+    private static Criteria after(Activity cursor) {
+        if (cursor.getStartTime() == null) {
+            return Criteria.where("startTime").is(null).and("id").lt(cursor.getId());
+        }
+        return new Criteria().orOperator(
+                Criteria.where("startTime").lt(cursor.getStartTime()),
+                Criteria.where("startTime").is(cursor.getStartTime()).and("id").lt(cursor.getId()),
+                Criteria.where("startTime").is(null));
+    }
+
+    public List<ActivityStatsBucket> stats(String userId, ActivityQuery query, ActivityStatsGrouping groupBy) {
+        // archived activities are counted from their segments only, even while a hot copy is retained
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(toCriteria(userId, query).and("archivedAt").is(null)),
+                Aggregation.project("type", "duration", "caloriesBurned")
+                        .and(DateOperators.Hour.hourOf("startTime").withTimezone(ZONE)).as("hourOfDay")
+                        .and(DateOperators.DayOfWeek.dayOfWeek("startTime").withTimezone(ZONE)).as("weekday"),
+                Aggregation.group(groupField(groupBy))
+                        .count().as("count")
+                        .sum("duration").as("totalDuration")
+                        .sum("caloriesBurned").as("totalCalories")
+        );
+
+        Map<String, long[]> totals = new TreeMap<>(bucketOrder(groupBy));
+        for (Document row : mongoTemplate.aggregate(aggregation, Activity.class, Document.class)) {
+            long[] bucket = totals.computeIfAbsent(hotKey(groupBy, row.get("_id")), key -> new long[3]);
+            bucket[0] += ((Number) row.get("count")).longValue();
+            bucket[1] += ((Number) row.get("totalDuration")).longValue();
+            bucket[2] += ((Number) row.get("totalCalories")).longValue();
+        }
+
+        coldActivityStore.findByUserIdAndStartTimeBetween(userId, query.getFrom(), query.getTo()).stream()
+                .filter(activity -> matches(query, activity))
+                .forEach(activity -> {
+                    long[] bucket = totals.computeIfAbsent(coldKey(groupBy, activity), key -> new long[3]);
+                    bucket[0]++;
+                    bucket[1] += activity.getDuration() == null ? 0 : activity.getDuration();
+                    bucket[2] += activity.getCaloriesBurned() == null ? 0 : activity.getCaloriesBurned();
+                });
+
+        return totals.entrySet().stream()
+                .map(entry -> {
+                    long[] bucket = entry.getValue();
+                    return new ActivityStatsBucket(entry.getKey(), bucket[0],
+                            bucket[1], (double) bucket[1] / bucket[0],
+                            bucket[2], (double) bucket[2] / bucket[0]);
+                })
+                .toList();
+    }
+
+    private Criteria toCriteria(String userId, ActivityQuery query) {
+        Criteria criteria = Criteria.where("userId").is(userId);
+
+        if (query.getFrom() != null || query.getTo() != null) {
+            Criteria startTime = criteria.and("startTime");
+            if (query.getFrom() != null) {
+                startTime.gte(query.getFrom());
+            }
+            if (query.getTo() != null) {
+                startTime.lte(query.getTo());
+            }
+        }
+
+        if (query.getTypes() != null && !query.getTypes().isEmpty()) {
+            criteria.and("type").in(query.getTypes());
+        }
+
+        if (query.getMinDuration() != null || query.getMaxDuration() != null) {
+            Criteria duration = criteria.and("duration");
+            if (query.getMinDuration() != null) {
+                duration.gte(query.getMinDuration());
+            }
+            if (query.getMaxDuration() != null) {
+                duration.lte(query.getMaxDuration());
+            }
+        }
+
+        return criteria;
+    }
+
+    private boolean matches(ActivityQuery query, Activity activity) {
+        if (query.getTypes() != null && !query.getTypes().isEmpty() && !query.getTypes().contains(activity.getType())) {
+            return false;
+        }
+
+        Integer duration = activity.getDuration();
+        if (query.getMinDuration() != null && (duration == null || duration < query.getMinDuration())) {
+            return false;
+        }
+        return query.getMaxDuration() == null || (duration != null && duration <= query.getMaxDuration());
+    }
+
+    private String groupField(ActivityStatsGrouping groupBy) {
+        return switch (groupBy) {
+            case TYPE -> "type";
+            case HOUR_OF_DAY -> "hourOfDay";
+            case WEEKDAY -> "weekday";
+        };
+    }
+
+    private Comparator<String> bucketOrder(ActivityStatsGrouping groupBy) {
+        return switch (groupBy) {
+            case TYPE -> Comparator.naturalOrder();
+            case HOUR_OF_DAY -> Comparator.<String>comparingInt(key -> key.equals(UNKNOWN) ? 24 : Integer.parseInt(key));
+            case WEEKDAY -> Comparator.<String>comparingInt(key -> key.equals(UNKNOWN) ? 8 : DayOfWeek.valueOf(key).getValue());
+        };
+    }
+
+    private String hotKey(ActivityStatsGrouping groupBy, Object id) {
+        if (id == null) {
+            return UNKNOWN;
+        }
+        if (groupBy == ActivityStatsGrouping.WEEKDAY) {
+            // $dayOfWeek counts from 1 = Sunday
+            return DayOfWeek.of((((Number) id).intValue() + 5) % 7 + 1).name();
+        }
+        return id.toString();
+    }
+
+    private String coldKey(ActivityStatsGrouping groupBy, Activity activity) {
+        return switch (groupBy) {
+            case TYPE -> activity.getType() == null ? UNKNOWN : activity.getType().name();
+            case HOUR_OF_DAY -> String.valueOf(activity.getStartTime().getHour());
+            case WEEKDAY -> activity.getStartTime().getDayOfWeek().name();
+        };
+    }
+}
@@ -1,15 +1,28 @@
 package com.fitness.activityservice.service;
 
 import com.fitness.activityservice.ActivityRepository;
+import com.fitness.activityservice.archive.ColdActivityStore;
+import com.fitness.activityservice.dto.ActivityDeletedEvent;
+import com.fitness.activityservice.dto.ActivityPage;
+import com.fitness.activityservice.dto.ActivityQuery;
 import com.fitness.activityservice.dto.ActivityRequest;
 import com.fitness.activityservice.dto.ActivityResponse;
 import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -18,7 +31,15 @@ public class ActivityService {
 
     private final ActivityRepository activityRepository;
     private final UserValidationService userValidationService;
-    private final KafkaTemplate<String, Activity> kafkaTemplate;
+    private final PersonalRecordService personalRecordService;
+    private final ColdActivityStore coldActivityStore;
+    private final ActivityQueryService activityQueryService;
+    private final ActivityCache activityCache;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    private static final String SAVED_AT_HEADER = "activity-saved-at";
+    private static final String FIRST_ID = "000000000000000000000000";
+    private static final int MAX_EXPORT_PAGE = 1000;
 
     @Value("${kafka.topic.name}")
     private String topicName;
@@ -44,15 +65,33 @@ public class ActivityService {
                 .build();
 
         Activity savedActivity = activityRepository.save(activity);
+        activityCache.putNew(savedActivity);
+        boolean personalRecord = personalRecordService.recordActivity(savedActivity);
 
         try {
-            kafkaTemplate.send(topicName, savedActivity.getUserId(), savedActivity);
+            publishActivity(savedActivity);
         } catch (Exception e) {
             e.printStackTrace();
         }
 
+        ActivityResponse response = mapToResponse(savedActivity);
+        response.setPersonalRecord(personalRecord);
+        return response;
+    }
+
+    // the save time lets consumers measure end-to-end latency independently of when the send happened
+    private void publishActivity(Activity activity) {
+        ProducerRecord<String, Object> record = new ProducerRecord<>(topicName, activity.getUserId(), activity);
+        record.headers().add(SAVED_AT_HEADER, String.valueOf(savedAtMillis(activity)).getBytes(StandardCharsets.UTF_8));
+        kafkaTemplate.send(record);
+    }
 
-        return mapToResponse(savedActivity);
+    // updatedAt is stamped on every save, creation included; auditing uses the system zone
+    private static long savedAtMillis(Activity activity) {
+        LocalDateTime savedAt = activity.getUpdatedAt() != null ? activity.getUpdatedAt() : activity.getCreatedAt();
+        return savedAt == null
+                ? System.currentTimeMillis()
+                : savedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 
     private ActivityResponse mapToResponse(Activity activity) {
@@ -72,14 +111,58 @@ public class ActivityService {
 
 
     public List<ActivityResponse> getUserActivities(String userId) {
-        List<Activity> activityList = activityRepository.findByUserId(userId);
+        List<Activity> activityList = mergeWithCold(activityRepository.findByUserId(userId),
+                coldActivityStore.findByUserId(userId));
+        Set<String> recordHolders = personalRecordService.getRecordHolderIds(userId);
         return activityList.stream()
+                .map(activity -> {
+                    ActivityResponse response = mapToResponse(activity);
+                    response.setPersonalRecord(recordHolders.contains(activity.getId()));
+                    return response;
+                })
+                .collect(Collectors.toList());
+    }
+
+    // keyset pages over the hot collection in id order, for bulk consumers such as the
+    // recommendation backfill; archived activities are not included
+    public List<ActivityResponse> exportActivities(String afterId, int limit) {
+        String after = afterId == null || afterId.isBlank() ? FIRST_ID : afterId;
+        return activityRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, Math.min(limit, MAX_EXPORT_PAGE)))
+                .stream()
                 .map(this::mapToResponse)
                 .collect(Collectors.toList());
     }
 
+    public long countActivities() {
+        return activityRepository.count();
+    }
+
+    // hot collection only, like the export
+    public boolean activityExists(String activityId) {
+        return activityRepository.existsById(activityId);
+    }
+
+    public ActivityPage searchActivities(String userId, ActivityQuery query) {
+        int limit = ActivityQueryService.limitOf(query);
+        List<Activity> found = activityQueryService.search(userId, query);
+        List<Activity> page = found.size() > limit ? found.subList(0, limit) : found;
+        String nextCursor = found.size() > limit ? ActivityQueryService.cursorOf(page.get(page.size() - 1)) : null;
+
+        Set<String> recordHolders = personalRecordService.getRecordHolderIds(userId);
+        List<ActivityResponse> responses = page.stream()
+                .map(activity -> {
+                    ActivityResponse response = mapToResponse(activity);
+                    response.setPersonalRecord(recordHolders.contains(activity.getId()));
+                    return response;
+                })
+                .collect(Collectors.toList());
+        return new ActivityPage(responses, nextCursor);
+    }
+
     public void deleteActivity(String activityId, String userId) {
-        Activity activity = activityRepository.findById(activityId)
+        Optional<Activity> hot = activityCache.get(activityId, activityRepository::findById);
+        Activity activity = hot
+                .or(() -> coldActivityStore.findById(userId, activityId))
                 .orElseThrow(() -> new RuntimeException("Activity not found: " + activityId));
 
         // simple ownership check
@@ -87,12 +170,20 @@ public class ActivityService {
             throw new RuntimeException("You are not allowed to delete this activity");
         }
 
-        // 1) delete from activity DB
-        activityRepository.delete(activity);
+        // 1) delete from activity DB, and from the segments if it has been archived
+        if (hot.isEmpty() || activity.getArchivedAt() != null) {
+            coldActivityStore.remove(userId, List.of(activityId));
+        }
+        if (hot.isPresent()) {
+            activityRepository.delete(activity);
+            activityCache.evict(activityId);
+        }
+        personalRecordService.onActivityDeleted(activity);
 
         // 2) send delete-event to Kafka (AI service will clean up recommendation)
         try {
-            kafkaTemplate.send(deleteTopicName, activity.getId(), activity);
+            kafkaTemplate.send(deleteTopicName, activity.getId(),
+                    new ActivityDeletedEvent(activity.getId(), activity.getUserId(), activity.getType()));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -100,13 +191,17 @@ public class ActivityService {
 
 
     public ActivityResponse updateActivity(String activityId, ActivityRequest request) {
-        Activity existing = activityRepository.findById(activityId)
+        Optional<Activity> hot = activityCache.get(activityId, activityRepository::findById);
+        Activity existing = hot
+                .or(() -> coldActivityStore.findById(request.getUserId(), activityId))
                 .orElseThrow(() -> new RuntimeException("Activity not found"));
 
         if (!existing.getUserId().equals(request.getUserId())) {
             throw new RuntimeException("You cannot modify this activity");
         }
 
+        ActivityType previousType = existing.getType();
+
         // Update mutable fields
         existing.setType(request.getType());
         existing.setDuration(request.getDuration());
@@ -114,15 +209,30 @@ public class ActivityService {
         existing.setStartTime(request.getStartTime());
         existing.setAdditionalMetrics(request.getAdditionalMetrics());
 
-        Activity updated = activityRepository.save(existing);
+        Activity updated;
+        if (hot.isPresent()) {
+            updated = activityRepository.save(existing);
+            activityCache.put(updated);
+        } else {
+            existing.setUpdatedAt(LocalDateTime.now());
+            updated = existing;
+        }
+        // an archived activity's segment copy must not fall behind, it outlives the hot one
+        if (hot.isEmpty() || updated.getArchivedAt() != null) {
+            coldActivityStore.replace(updated);
+        }
+        boolean personalRecord = personalRecordService.onActivityUpdated(previousType, updated);
 
-        kafkaTemplate.send(topicName, updated.getUserId(), updated);
+        publishActivity(updated);
 
-        return mapToResponse(updated);
+        ActivityResponse response = mapToResponse(updated);
+        response.setPersonalRecord(personalRecord);
+        return response;
     }
 
     public ActivityResponse getActivityById(String activityId, String userId) {
-        Activity activity = activityRepository.findById(activityId)
+        Activity activity = activityCache.get(activityId, activityRepository::findById)
+                .or(() -> coldActivityStore.findById(userId, activityId))
                 .orElseThrow(() -> new RuntimeException("Activity not found: " + activityId));
 
         // Optional but recommended: ensure this activity belongs to the logged-in user
@@ -130,8 +240,22 @@ public class ActivityService {
             throw new RuntimeException("You are not allowed to view this activity");
         }
 
-        return mapToResponse(activity);
+        ActivityResponse response = mapToResponse(activity);
+        response.setPersonalRecord(personalRecordService.isRecordHolder(activity));
+        return response;
     }
 
+    // an activity can briefly exist in both tiers while it is being archived
+    static List<Activity> mergeWithCold(List<Activity> hot, List<Activity> cold) {
+        if (cold.isEmpty()) {
+            return hot;
+        }
 
+        Set<String> hotIds = hot.stream().map(Activity::getId).collect(Collectors.toSet());
+        List<Activity> merged = new ArrayList<>(hot);
+        cold.stream()
+                .filter(activity -> !hotIds.contains(activity.getId()))
+                .forEach(merged::add);
+        return merged;
+    }
 }
@@ -0,0 +1,249 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.ActivityRepository;
+import com.fitness.activityservice.PersonalRecordRepository;
+import com.fitness.activityservice.archive.ColdActivityStore;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import com.fitness.activityservice.model.PersonalRecord;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PersonalRecordService {
+
+    private static final int MAX_RECOMPUTE_ATTEMPTS = 5;
+
+    private final PersonalRecordRepository personalRecordRepository;
+    private final ActivityRepository activityRepository;
+    private final ColdActivityStore coldActivityStore;
+    private final MongoTemplate mongoTemplate;
+
+    public List<PersonalRecord> getUserRecords(String userId) {
+        return personalRecordRepository.findByUserId(userId);
+    }
+
+    // one round trip, independent of the user's history size. Each metric is a conditional
+    // update on the record document, so concurrent activities of the same user and type
+    // cannot overwrite each other's improvements.
+    public boolean recordActivity(Activity activity) {
+        if (activity.getType() == null) {
+            return false;
+        }
+
+        String id = recordId(activity.getUserId(), activity.getType());
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, PersonalRecord.class);
+        operations.upsert(Query.query(Criteria.where("_id").is(id)), new Update()
+                .setOnInsert("userId", activity.getUserId())
+                .setOnInsert("type", activity.getType())
+                .setOnInsert("version", 0L));
+
+        boolean candidate = false;
+        Integer duration = activity.getDuration();
+        if (duration != null) {
+            operations.updateOne(improves(id, "longestDuration", "lt", duration),
+                    improvement("longestDuration", duration, "longestDurationActivityId", activity.getId()));
+            candidate = true;
+        }
+        Integer calories = activity.getCaloriesBurned();
+        if (calories != null) {
+            operations.updateOne(improves(id, "mostCalories", "lt", calories),
+                    improvement("mostCalories", calories, "mostCaloriesActivityId", activity.getId()));
+            candidate = true;
+        }
+        Double pace = paceOf(activity);
+        if (pace != null) {
+            operations.updateOne(improves(id, "bestPace", "gt", pace),
+                    improvement("bestPace", pace, "bestPaceActivityId", activity.getId()));
+            candidate = true;
+        }
+
+        if (!candidate) {
+            return false;
+        }
+        return operations.execute().getModifiedCount() > 0;
+    }
+
+    // a record holder may have been edited downwards or moved to another type,
+    // so only that case falls back to a recomputation
+    public boolean onActivityUpdated(ActivityType previousType, Activity updated) {
+        if (previousType != null) {
+            Optional<PersonalRecord> previous = personalRecordRepository.findById(recordId(updated.getUserId(), previousType));
+            if (previous.isPresent() && previous.get().isHeldBy(updated.getId())) {
+                PersonalRecord recomputed = recompute(updated.getUserId(), previousType);
+                if (previousType == updated.getType()) {
+                    return recomputed != null && recomputed.isHeldBy(updated.getId());
+                }
+            }
+        }
+        return recordActivity(updated);
+    }
+
+    public void onActivityDeleted(Activity activity) {
+        if (activity.getType() == null) {
+            return;
+        }
+
+        personalRecordRepository.findById(recordId(activity.getUserId(), activity.getType()))
+                .filter(record -> record.isHeldBy(activity.getId()))
+                .ifPresent(record -> recompute(activity.getUserId(), activity.getType()));
+    }
+
+    public boolean isRecordHolder(Activity activity) {
+        if (activity.getType() == null) {
+            return false;
+        }
+
+        return personalRecordRepository.findById(recordId(activity.getUserId(), activity.getType()))
+                .map(record -> record.isHeldBy(activity.getId()))
+                .orElse(false);
+    }
+
+    public Set<String> getRecordHolderIds(String userId) {
+        Set<String> holders = new HashSet<>();
+        for (PersonalRecord record : personalRecordRepository.findByUserId(userId)) {
+            addIfPresent(holders, record.getLongestDurationActivityId());
+            addIfPresent(holders, record.getMostCaloriesActivityId());
+            addIfPresent(holders, record.getBestPaceActivityId());
+        }
+        return holders;
+    }
+
+    // the history is read after the version, so a conditional update that lands during the
+    // scan bumps the version and the recomputation starts over instead of overwriting it
+    private PersonalRecord recompute(String userId, ActivityType type) {
+        String id = recordId(userId, type);
+        for (int attempt = 1; ; attempt++) {
+            PersonalRecord current = personalRecordRepository.findById(id).orElse(null);
+            log.info("Recomputing {} personal records for user {}", type, userId);
+            List<Activity> activities = ActivityService.mergeWithCold(
+                    activityRepository.findByUserIdAndType(userId, type),
+                    coldActivityStore.findByUserId(userId).stream()
+                            .filter(activity -> activity.getType() == type)
+                            .toList());
+
+            PersonalRecord record = null;
+            if (!activities.isEmpty()) {
+                record = PersonalRecord.builder().id(id).userId(userId).type(type).build();
+                for (Activity activity : activities) {
+                    apply(record, activity);
+                }
+            }
+            if (replace(current, record)) {
+                return record;
+            }
+            if (attempt >= MAX_RECOMPUTE_ATTEMPTS) {
+                log.warn("{} personal records for user {} kept changing, left as they are", type, userId);
+                return personalRecordRepository.findById(id).orElse(null);
+            }
+        }
+    }
+
+    // false when the stored record is no longer the one the recomputation started from
+    private boolean replace(PersonalRecord current, PersonalRecord record) {
+        if (current == null) {
+            if (record == null) {
+                return true;
+            }
+            try {
+                record.setVersion(0L);
+                record.setUpdatedAt(LocalDateTime.now());
+                mongoTemplate.insert(record);
+                return true;
+            } catch (DuplicateKeyException e) {
+                return false;
+            }
+        }
+
+        Query unchanged = Query.query(Criteria.where("_id").is(current.getId()).and("version").is(current.getVersion()));
+        if (record == null) {
+            return mongoTemplate.remove(unchanged, PersonalRecord.class).getDeletedCount() > 0;
+        }
+        long version = current.getVersion() == null ? 1 : current.getVersion() + 1;
+        record.setVersion(version);
+        record.setUpdatedAt(LocalDateTime.now());
+        Update replacement = new Update()
+                .set("longestDuration", record.getLongestDuration())
+                .set("longestDurationActivityId", record.getLongestDurationActivityId())
+                .set("mostCalories", record.getMostCalories())
+                .set("mostCaloriesActivityId", record.getMostCaloriesActivityId())
+                .set("bestPace", record.getBestPace())
+                .set("bestPaceActivityId", record.getBestPaceActivityId())
+                .set("updatedAt", record.getUpdatedAt())
+                .set("version", version);
+        return mongoTemplate.updateFirst(unchanged, replacement, PersonalRecord.class).getMatchedCount() > 0;
+    }
+
+    // matches the record only while the stored value is missing or worse than the new one
+    private Query improves(String id, String field, String comparison, Object value) {
+        Criteria worse = "lt".equals(comparison) ? Criteria.where(field).lt(value) : Criteria.where(field).gt(value);
+        return Query.query(Criteria.where("_id").is(id)
+                .orOperator(Criteria.where(field).is(null), worse));
+    }
+
+    private Update improvement(String field, Object value, String holderField, String activityId) {
+        return new Update()
+                .set(field, value)
+                .set(holderField, activityId)
+                .set("updatedAt", LocalDateTime.now())
+                .inc("version", 1);
+    }
+
+    private void apply(PersonalRecord record, Activity activity) {
+        Integer duration = activity.getDuration();
+        if (duration != null && (record.getLongestDuration() == null || duration > record.getLongestDuration())) {
+            record.setLongestDuration(duration);
+            record.setLongestDurationActivityId(activity.getId());
+        }
+
+        Integer calories = activity.getCaloriesBurned();
+        if (calories != null && (record.getMostCalories() == null || calories > record.getMostCalories())) {
+            record.setMostCalories(calories);
+            record.setMostCaloriesActivityId(activity.getId());
+        }
+
+        Double pace = paceOf(activity);
+        if (pace != null && (record.getBestPace() == null || pace < record.getBestPace())) {
+            record.setBestPace(pace);
+            record.setBestPaceActivityId(activity.getId());
+        }
+    }
+
+    private Double paceOf(Activity activity) {
+        Map<String, Object> metrics = activity.getAdditionalMetrics();
+        if (metrics == null || activity.getDuration() == null || activity.getDuration() <= 0) {
+            return null;
+        }
+
+        if (!(metrics.get("distance") instanceof Number distance) || distance.doubleValue() <= 0) {
+            return null;
+        }
+        return activity.getDuration() / distance.doubleValue();
+    }
+
+    private void addIfPresent(Set<String> holders, String activityId) {
+        if (activityId != null) {
+            holders.add(activityId);
+        }
+    }
+
+    private String recordId(String userId, ActivityType type) {
+        return userId + ":" + type;
+    }
+}
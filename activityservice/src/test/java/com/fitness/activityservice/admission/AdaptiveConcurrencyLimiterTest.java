@@ -0,0 +1,167 @@
+package com.fitness.activityservice.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.PriorityQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void growsWhileLatencyStaysNearTheBaseline() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 50, 0.9, 2.0);
+
+        for (int i = 0; i < 100; i++) {
+            int limit = limiter.getLimit();
+            fill(limiter, limit);
+            drain(limiter, limit, 10 * MS);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(50);
+    }
+
+    @Test
+    void backsOffOncePerLimitOfSlowCompletions() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 2, 50, 0.5, 2.0);
+        acquireAndRelease(limiter, 10 * MS);
+
+        acquireAndRelease(limiter, 25 * MS);
+        assertThat(limiter.getLimit()).isEqualTo(20);
+        // the rest of the same overload episode
+        for (int i = 0; i < 19; i++) {
+            acquireAndRelease(limiter, 25 * MS);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(20);
+        acquireAndRelease(limiter, 25 * MS);
+        assertThat(limiter.getLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void admitsUpToTheFullLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 50, 0.9, 2.0);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+        assertThat(limiter.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void sustainedOverloadDoesNotBecomeTheBaseline() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 2, 50, 0.9, 2.0);
+
+        // the backend queues beyond ten requests in flight, five times slower than the baseline
+        for (int i = 0; i < 500; i++) {
+            int limit = limiter.getLimit();
+            fill(limiter, limit);
+            drain(limiter, limit, limit > 10 ? 50 * MS : 10 * MS);
+        }
+
+        assertThat(limiter.getBaselineRttNanos()).isEqualTo(10 * MS);
+        assertThat(limiter.getLimit()).isBetween(9, 12);
+    }
+
+    @Test
+    void aSlowdownThatPersistsAtTheMinimumLimitBecomesTheBaseline() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, 2, 50, 0.9, 2.0);
+        acquireAndRelease(limiter, 10 * MS);
+
+        // the backend is now five times slower however little it is sent
+        for (int i = 0; i < 2_000; i++) {
+            acquireAndRelease(limiter, 50 * MS);
+        }
+        assertThat(limiter.getBaselineRttNanos()).isEqualTo(50 * MS);
+
+        for (int i = 0; i < 100; i++) {
+            int limit = limiter.getLimit();
+            fill(limiter, limit);
+            drain(limiter, limit, 50 * MS);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(50);
+    }
+
+    @Test
+    void baselineDropsToAFasterRequestImmediately() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 2, 50, 0.9, 2.0);
+        acquireAndRelease(limiter, 10 * MS);
+
+        acquireAndRelease(limiter, 4 * MS);
+
+        assertThat(limiter.getBaselineRttNanos()).isEqualTo(4 * MS);
+    }
+
+    /**
+     * Simulated backend that shares its capacity equally between requests in flight, like a
+     * saturated Mongo: a request needs {@code work} units, and {@code CAPACITY} units per tick
+     * are split across everything in flight. Half way through, Mongo latency doubles.
+     * Arrivals stay at 1.2 times the initial throughput; clients give up after TIMEOUT ticks,
+     * and goodput counts only requests that finish before that.
+     */
+    @Test
+    void goodputStaysFlatWhenMongoSlowsDown() {
+        double unlimited = simulateGoodput(null);
+        double limited = simulateGoodput(new AdaptiveConcurrencyLimiter(20, 4, 200, 0.9, 2.0));
+
+        // after the slowdown the backend can complete 1 request per tick
+        assertThat(limited).isGreaterThan(0.8);
+        assertThat(unlimited).isLessThan(0.1);
+    }
+
+    private static final double CAPACITY = 20;
+    private static final int TIMEOUT = 100;
+    private static final int PHASE_TICKS = 20_000;
+
+    private double simulateGoodput(AdaptiveConcurrencyLimiter limiter) {
+        // in-flight requests ordered by the attained service at which they finish
+        PriorityQueue<double[]> inFlight = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        double attained = 0;
+        double arrivals = 0;
+        long goodInMeasurement = 0;
+
+        for (int tick = 0; tick < 2 * PHASE_TICKS; tick++) {
+            double work = tick < PHASE_TICKS ? 10 : 20;
+            arrivals += 1.2 * CAPACITY / 10;
+            for (; arrivals >= 1; arrivals--) {
+                if (limiter == null || limiter.tryAcquire()) {
+                    inFlight.add(new double[]{attained + work, tick});
+                }
+            }
+
+            // every request in flight gets the same share of this tick's capacity
+            if (!inFlight.isEmpty()) {
+                attained += Math.min(1.0, CAPACITY / inFlight.size());
+            }
+            while (!inFlight.isEmpty() && inFlight.peek()[0] <= attained) {
+                double[] done = inFlight.poll();
+                long latency = tick + 1 - (long) done[1];
+                if (limiter != null) {
+                    limiter.release(latency * MS);
+                }
+                if (latency <= TIMEOUT && tick >= PHASE_TICKS + PHASE_TICKS / 2) {
+                    goodInMeasurement++;
+                }
+            }
+        }
+        return goodInMeasurement / (PHASE_TICKS / 2.0);
+    }
+
+    private void acquireAndRelease(AdaptiveConcurrencyLimiter limiter, long rttNanos) {
+        assertThat(limiter.tryAcquire()).isTrue();
+        limiter.release(rttNanos);
+    }
+
+    private void fill(AdaptiveConcurrencyLimiter limiter, int count) {
+        for (int i = 0; i < count; i++) {
+            limiter.tryAcquire();
+        }
+    }
+
+    private void drain(AdaptiveConcurrencyLimiter limiter, int count, long rttNanos) {
+        for (int i = 0; i < count; i++) {
+            limiter.release(rttNanos);
+        }
+    }
+}
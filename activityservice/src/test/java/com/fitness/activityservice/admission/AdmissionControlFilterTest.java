@@ -0,0 +1,62 @@
+package com.fitness.activityservice.admission;
+
+import com.fitness.activityservice.admission.AdmissionControlFilter.RouteClass;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControlFilterTest {
+
+    @Test
+    void separatesWritesReadsAndQueries() {
+        assertThat(routeOf("POST", "/api/activities")).isEqualTo(RouteClass.WRITE);
+        assertThat(routeOf("PUT", "/api/activities/a1")).isEqualTo(RouteClass.WRITE);
+        assertThat(routeOf("DELETE", "/api/activities/a1")).isEqualTo(RouteClass.WRITE);
+        assertThat(routeOf("GET", "/api/activities/a1")).isEqualTo(RouteClass.READ);
+        assertThat(routeOf("GET", "/api/activities/records")).isEqualTo(RouteClass.READ);
+        assertThat(routeOf("GET", "/api/activities")).isEqualTo(RouteClass.QUERY);
+        assertThat(routeOf("GET", "/api/activities/")).isEqualTo(RouteClass.QUERY);
+        assertThat(routeOf("GET", "/api/activities/search")).isEqualTo(RouteClass.QUERY);
+        assertThat(routeOf("GET", "/api/activities/stats")).isEqualTo(RouteClass.QUERY);
+    }
+
+    @Test
+    void writesCanUseTheirWholeLimit() throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(new SimpleMeterRegistry(), true,
+                4, 4, 4, 200, 200, 0.9, 2.0, 1);
+        List<MockHttpServletResponse> responses = new ArrayList<>();
+
+        // each admitted write issues the next one while it is still in flight
+        FilterChain chain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+                    throws IOException, ServletException {
+                MockHttpServletResponse next = new MockHttpServletResponse();
+                responses.add(next);
+                filter.doFilter(new MockHttpServletRequest("POST", "/api/activities"), next, this);
+            }
+        };
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        responses.add(first);
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/activities"), first, chain);
+
+        assertThat(responses).hasSize(5);
+        assertThat(responses.subList(0, 4)).allSatisfy(response -> assertThat(response.getStatus()).isEqualTo(200));
+        assertThat(responses.get(4).getStatus()).isEqualTo(503);
+    }
+
+    private RouteClass routeOf(String method, String uri) {
+        return AdmissionControlFilter.routeClass(new MockHttpServletRequest(method, uri));
+    }
+}
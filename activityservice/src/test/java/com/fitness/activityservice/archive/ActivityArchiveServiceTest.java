@@ -0,0 +1,105 @@
+package com.fitness.activityservice.archive;
+
+import com.fitness.activityservice.ActivityRepository;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import com.fitness.activityservice.service.ActivityCache;
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// a cached hot copy without archivedAt would clear the mark on its next update, so every
+// document the job marks or deletes has to leave the cache
+class ActivityArchiveServiceTest {
+
+    private final ActivityRepository activityRepository = mock(ActivityRepository.class);
+    private final ColdActivityStore coldActivityStore = mock(ColdActivityStore.class);
+    private final ArchiveLock archiveLock = mock(ArchiveLock.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ActivityCache activityCache = new ActivityCache(mock(KafkaTemplate.class), new SimpleMeterRegistry(),
+            64 * 1024 * 1024, 600);
+    private final ActivityArchiveService service = new ActivityArchiveService(activityRepository, coldActivityStore,
+            archiveLock, activityCache, mongoTemplate);
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<String, Optional<Activity>> database = id -> {
+        loads.incrementAndGet();
+        return Optional.of(activity(id));
+    };
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "horizonDays", 90);
+        ReflectionTestUtils.setField(service, "batchSize", 100);
+        ReflectionTestUtils.setField(service, "hotRetentionHours", 24L);
+        ReflectionTestUtils.setField(service, "lockTtlMinutes", 30L);
+        ReflectionTestUtils.setField(activityCache, "invalidationTopic", "activity-cache-invalidation");
+        when(archiveLock.tryAcquire(anyString(), any(Duration.class))).thenReturn("token");
+        when(archiveLock.renew(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(mongoTemplate.findAllAndRemove(any(Query.class), eq(Activity.class))).thenReturn(List.of());
+        when(activityRepository.findByStartTimeBeforeAndArchivedAtIsNullOrderByUserIdAsc(any(LocalDateTime.class), any(Pageable.class)))
+                .thenReturn(List.of());
+    }
+
+    @Test
+    void markingActivitiesArchivedEvictsTheirCachedCopies() {
+        activityCache.get("a1", database);
+        activityCache.get("a2", database);
+        when(activityRepository.findByStartTimeBeforeAndArchivedAtIsNullOrderByUserIdAsc(any(LocalDateTime.class), any(Pageable.class)))
+                .thenReturn(List.of(activity("a1"), activity("a2")), List.of());
+        BulkOperations operations = mock(BulkOperations.class);
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Activity.class)).thenReturn(operations);
+        when(operations.execute()).thenReturn(result);
+        when(result.getMatchedCount()).thenReturn(2);
+
+        service.archiveOldActivities();
+        activityCache.get("a1", database);
+        activityCache.get("a2", database);
+
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void deletingRetainedHotCopiesEvictsThem() {
+        activityCache.get("a1", database);
+        when(mongoTemplate.findAllAndRemove(any(Query.class), eq(Activity.class)))
+                .thenReturn(List.of(activity("a1")), List.of());
+
+        service.archiveOldActivities();
+        activityCache.get("a1", database);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    private static Activity activity(String id) {
+        return Activity.builder()
+                .id(id).userId("user-1").type(ActivityType.RUNNING)
+                .startTime(LocalDateTime.of(2023, 1, 1, 7, 30))
+                .updatedAt(LocalDateTime.of(2023, 1, 1, 8, 0))
+                .build();
+    }
+}
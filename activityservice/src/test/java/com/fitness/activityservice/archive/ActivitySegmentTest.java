@@ -0,0 +1,83 @@
+package com.fitness.activityservice.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ActivitySegmentTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ActivitySegmentWriter writer = new ActivitySegmentWriter(objectMapper);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsEveryColumn() throws IOException {
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 7, 30);
+        Activity run = Activity.builder()
+                .id("a1").userId("user-1").type(ActivityType.RUNNING)
+                .duration(42).caloriesBurned(510)
+                .startTime(start).createdAt(start.plusHours(1)).updatedAt(start.plusHours(2))
+                .additionalMetrics(Map.of("distance", 8.2))
+                .build();
+        Activity untyped = Activity.builder()
+                .id("a2").userId("user-1")
+                .startTime(start.minusDays(3))
+                .build();
+
+        Path file = writer.write(directory, "user-1", List.of(run, untyped));
+        ActivitySegment segment = ActivitySegment.open(file);
+
+        assertThat(segment.getUserId()).isEqualTo("user-1");
+        assertThat(segment.getRowCount()).isEqualTo(2);
+        // sorted by startTime on write
+        assertThat(segment.readActivities(objectMapper)).containsExactly(untyped, run);
+    }
+
+    @Test
+    void prunesByStartTimeRange() throws IOException {
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 7, 30);
+        Activity activity = Activity.builder().id("a1").userId("user-1").startTime(start).build();
+
+        ActivitySegment segment = ActivitySegment.open(writer.write(directory, "user-1", List.of(activity)));
+
+        assertThat(segment.overlaps(start.minusDays(1), start.plusDays(1))).isTrue();
+        assertThat(segment.overlaps(start.plusMinutes(1), null)).isFalse();
+        assertThat(segment.overlaps(null, start.minusMinutes(1))).isFalse();
+    }
+
+    @Test
+    void findsTheRowOfAnId() throws IOException {
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 7, 30);
+        ActivitySegment segment = ActivitySegment.open(writer.write(directory, "user-1", List.of(
+                Activity.builder().id("a1").userId("user-1").startTime(start).build(),
+                Activity.builder().id("a2").userId("user-1").startTime(start.minusDays(1)).build())));
+
+        assertThat(segment.indexOf("a1")).isEqualTo(1);
+        assertThat(segment.readActivities(objectMapper).get(segment.indexOf("a2")).getId()).isEqualTo("a2");
+        assertThat(segment.indexOf("missing")).isEqualTo(-1);
+    }
+
+    @Test
+    void leavesNoTemporaryFileBehind() throws IOException {
+        Activity activity = Activity.builder().id("a1").userId("user/1").startTime(LocalDateTime.now()).build();
+
+        Path file = writer.write(directory, "user/1", List.of(activity));
+
+        try (var files = Files.list(file.getParent())) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+}
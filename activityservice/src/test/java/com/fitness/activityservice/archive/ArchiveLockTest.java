@@ -0,0 +1,65 @@
+package com.fitness.activityservice.archive;
+
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ArchiveLockTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ArchiveLock lock = new ArchiveLock(mongoTemplate);
+
+    @Test
+    void everyAcquisitionHasItsOwnToken() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Document.class), anyString())).thenReturn(new Document());
+
+        String first = lock.tryAcquire("user-1", Duration.ofMinutes(1));
+        String second = lock.tryAcquire("user-1", Duration.ofMinutes(1));
+
+        assertThat(first).isNotNull().isNotEqualTo(second);
+    }
+
+    @Test
+    void aLiveLeaseIsNotTakenByTheSameInstance() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Document.class), anyString())).thenThrow(new DuplicateKeyException("held"));
+
+        assertThat(lock.tryAcquire("user-1", Duration.ofMinutes(1))).isNull();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndModify(query.capture(), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Document.class), anyString());
+        // only an expired lease can be taken over, whoever held it
+        assertThat(query.getValue().getQueryObject()).doesNotContainKey("owner").containsKey("expiresAt");
+    }
+
+    @Test
+    void renewAndReleaseOnlyTouchTheHoldersLease() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), anyString()))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertThat(lock.renew("user-1", "other-token", Duration.ofMinutes(1))).isFalse();
+        lock.release("user-1", "my-token");
+
+        ArgumentCaptor<Query> released = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(released.capture(), eq("archive_locks"));
+        assertThat(released.getValue().getQueryObject().get("owner")).isEqualTo("my-token");
+    }
+}
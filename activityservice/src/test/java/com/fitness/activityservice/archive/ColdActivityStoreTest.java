@@ -0,0 +1,125 @@
+package com.fitness.activityservice.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.activityservice.model.Activity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class ColdActivityStoreTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 3, 1, 7, 30);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ColdActivityStore store;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void emptyStore() {
+        store = new ColdActivityStore(new ActivitySegmentWriter(objectMapper), new InMemoryLock(), objectMapper);
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "maxSegmentsPerUser", 8);
+    }
+
+    @Test
+    void concurrentRewritesOfOneUserOnOneInstanceKeepEveryChange() throws Exception {
+        store.archive("user-1", List.of(activity("a1", START, 10), activity("a2", START.plusDays(1), 10)));
+
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?> first = threads.submit(() -> {
+                start.await();
+                store.replace(activity("a1", START, 20));
+                return null;
+            });
+            Future<?> second = threads.submit(() -> {
+                start.await();
+                store.replace(activity("a2", START.plusDays(1), 30));
+                return null;
+            });
+            start.countDown();
+            first.get();
+            second.get();
+        } finally {
+            threads.shutdownNow();
+        }
+
+        assertThat(store.findByUserId("user-1"))
+                .extracting(Activity::getId, Activity::getDuration)
+                .containsExactlyInAnyOrder(tuple("a1", 20), tuple("a2", 30));
+    }
+
+    @Test
+    void aRangeQuerySkipsActivitiesWithoutAStartTime() throws IOException {
+        store.archive("user-1", List.of(activity("a1", START, 10), activity("a2", null, 10)));
+
+        assertThat(store.findByUserIdAndStartTimeBetween("user-1", START.minusDays(1), START.plusDays(1)))
+                .extracting(Activity::getId)
+                .containsExactly("a1");
+        assertThat(store.findByUserId("user-1")).hasSize(2);
+    }
+
+    @Test
+    void findByIdPicksTheNewestCopyAcrossSegments() throws IOException {
+        store.archive("user-1", List.of(activity("a1", START, 10)));
+        Activity updated = activity("a1", START, 20);
+        updated.setUpdatedAt(START.plusDays(2));
+        store.archive("user-1", List.of(updated, activity("a2", START, 10)));
+
+        assertThat(store.findById("user-1", "a1")).get().extracting(Activity::getDuration).isEqualTo(20);
+        assertThat(store.findById("user-1", "missing")).isEmpty();
+    }
+
+    private static Activity activity(String id, LocalDateTime startTime, int duration) {
+        return Activity.builder()
+                .id(id).userId("user-1").duration(duration)
+                .startTime(startTime).updatedAt(START)
+                .build();
+    }
+
+    // token semantics of the Mongo lease, held in memory
+    private static class InMemoryLock extends ArchiveLock {
+
+        private final Map<String, String> held = new ConcurrentHashMap<>();
+
+        InMemoryLock() {
+            super(null);
+        }
+
+        @Override
+        public String tryAcquire(String name, Duration ttl) {
+            String token = UUID.randomUUID().toString();
+            return held.putIfAbsent(name, token) == null ? token : null;
+        }
+
+        @Override
+        public boolean renew(String name, String token, Duration ttl) {
+            return token.equals(held.get(name));
+        }
+
+        @Override
+        public void release(String name, String token) {
+            held.remove(name, token);
+        }
+    }
+}
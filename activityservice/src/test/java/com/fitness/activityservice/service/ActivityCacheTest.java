@@ -0,0 +1,161 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ActivityCacheTest {
+
+    private static final String TOPIC = "activity-cache-invalidation";
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Activity> kafkaTemplate = mock(KafkaTemplate.class);
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<String, Optional<Activity>> database = id -> {
+        loads.incrementAndGet();
+        return id.startsWith("missing") ? Optional.empty() : Optional.of(activity(id, 30));
+    };
+
+    private ActivityCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ActivityCache(kafkaTemplate, new SimpleMeterRegistry(), 64 * 1024 * 1024, 600);
+        ReflectionTestUtils.setField(cache, "invalidationTopic", TOPIC);
+    }
+
+    @Test
+    void aMissLoadsOnceAndLaterReadsHit() {
+        assertThat(cache.get("a1", database)).map(Activity::getDuration).contains(30);
+        assertThat(cache.get("a1", database)).map(Activity::getDuration).contains(30);
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void anUnknownActivityIsNotCached() {
+        assertThat(cache.get("missing-1", database)).isEmpty();
+        assertThat(cache.get("missing-1", database)).isEmpty();
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void callersGetCopiesTheyCannotUseToChangeTheCache() {
+        cache.get("a1", database).orElseThrow().setDuration(90);
+
+        assertThat(cache.get("a1", database)).map(Activity::getDuration).contains(30);
+    }
+
+    @Test
+    void aNewActivityIsCachedWithoutBroadcasting() {
+        cache.putNew(activity("a1", 45));
+
+        assertThat(cache.get("a1", database)).map(Activity::getDuration).contains(45);
+        assertThat(loads).hasValue(0);
+        verify(kafkaTemplate, never()).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    void anUpdateIsCachedAndBroadcastToTheOtherInstances() {
+        cache.put(activity("a1", 45));
+
+        assertThat(cache.get("a1", database)).map(Activity::getDuration).contains(45);
+        ProducerRecord<String, Activity> sent = sent().get(0);
+        assertThat(sent.topic()).isEqualTo(TOPIC);
+        assertThat(sent.key()).isEqualTo("a1");
+        assertThat(sent.value()).isNull();
+    }
+
+    @Test
+    void anInvalidationFromAnotherInstanceDropsTheEntry() {
+        cache.get("a1", database);
+
+        cache.onInvalidation(invalidation("a1", "other-instance"));
+        cache.get("a1", database);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void anInstanceIgnoresItsOwnInvalidations() {
+        cache.put(activity("a1", 45));
+        String origin = new String(sent().get(0).headers().lastHeader("cache-origin").value(), StandardCharsets.UTF_8);
+
+        cache.onInvalidation(invalidation("a1", origin));
+
+        assertThat(cache.get("a1", database)).map(Activity::getDuration).contains(45);
+        assertThat(loads).hasValue(0);
+    }
+
+    @Test
+    void evictingSeveralActivitiesDropsAndBroadcastsEachOne() {
+        cache.get("a1", database);
+        cache.get("a2", database);
+
+        cache.evictAll(List.of("a1", "a2"));
+        cache.get("a1", database);
+        cache.get("a2", database);
+
+        assertThat(loads).hasValue(4);
+        assertThat(sent()).extracting(ProducerRecord::key).containsExactly("a1", "a2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void aFailedBroadcastStillEvictsLocally() {
+        KafkaTemplate<String, Activity> failing = mock(KafkaTemplate.class, invocation -> {
+            throw new IllegalStateException("broker down");
+        });
+        ActivityCache cache = new ActivityCache(failing, new SimpleMeterRegistry(), 64 * 1024 * 1024, 600);
+        ReflectionTestUtils.setField(cache, "invalidationTopic", TOPIC);
+        cache.get("a1", database);
+
+        cache.evict("a1");
+        cache.get("a1", database);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ProducerRecord<String, Activity>> sent() {
+        ArgumentCaptor<ProducerRecord<String, Activity>> record = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate, atLeastOnce()).send(record.capture());
+        return record.getAllValues();
+    }
+
+    private static ConsumerRecord<String, String> invalidation(String activityId, String origin) {
+        ConsumerRecord<String, String> record = new ConsumerRecord<>(TOPIC, 0, 0L, activityId, null);
+        record.headers().add("cache-origin", origin.getBytes(StandardCharsets.UTF_8));
+        return record;
+    }
+
+    private static Activity activity(String id, Integer duration) {
+        return Activity.builder()
+                .id(id).userId("user-1").type(ActivityType.RUNNING)
+                .duration(duration)
+                .additionalMetrics(Map.of("distanceKm", 5.2))
+                .build();
+    }
+}
@@ -0,0 +1,193 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.archive.ColdActivityStore;
+import com.fitness.activityservice.dto.ActivityQuery;
+import com.fitness.activityservice.dto.ActivityStatsBucket;
+import com.fitness.activityservice.dto.ActivityStatsGrouping;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// the pipelines are checked against the declared indexes here; the explain plans themselves need a live Mongo
+class ActivityQueryServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ColdActivityStore coldActivityStore = mock(ColdActivityStore.class);
+    private final ActivityQueryService service = new ActivityQueryService(mongoTemplate, coldActivityStore);
+
+    @Test
+    void activitiesDeclareTheCompoundIndexesTheQueriesUse() {
+        Map<String, Document> indexes = activityIndexes();
+
+        assertThat(indexes.get("user_start_id_idx"))
+                .isEqualTo(new Document("userId", 1).append("startTime", -1).append("_id", -1));
+        assertThat(indexes.get("user_type_start_id_idx"))
+                .isEqualTo(new Document("userId", 1).append("type", 1).append("startTime", -1).append("_id", -1));
+    }
+
+    @Test
+    void searchMatchesOnTheIndexPrefixBeforeSorting() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Activity.class), eq(Activity.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        ActivityQuery query = new ActivityQuery();
+        query.setFrom(LocalDateTime.of(2024, 1, 1, 0, 0));
+        query.setTypes(List.of(ActivityType.RUNNING));
+        service.search("user-1", query);
+
+        List<Document> pipeline = capturePipeline(Activity.class);
+        Document match = pipeline.get(0).get("$match", Document.class);
+        assertThat(match).containsKeys("userId", "type", "startTime");
+        assertThat(match.get("userId")).isEqualTo("user-1");
+        // sorting on the index's last keys after an equality match on its prefix needs no in-memory sort
+        assertThat(pipeline.get(1)).isEqualTo(new Document("$sort", new Document("startTime", -1).append("_id", -1)));
+        assertThat(pipeline.get(2)).isEqualTo(new Document("$limit", (long) ActivityQueryService.DEFAULT_LIMIT + 1));
+        assertThat(pipeline.get(3).get("$project", Document.class))
+                .doesNotContainKeys("userId", "archivedAt")
+                .containsKeys("type", "duration", "caloriesBurned", "startTime", "metrics", "createdAt", "updatedAt");
+    }
+
+    @Test
+    void theLimitIsBounded() {
+        ActivityQuery query = new ActivityQuery();
+        assertThat(ActivityQueryService.limitOf(query)).isEqualTo(ActivityQueryService.DEFAULT_LIMIT);
+        query.setLimit(100_000);
+        assertThat(ActivityQueryService.limitOf(query)).isEqualTo(ActivityQueryService.MAX_LIMIT);
+        query.setLimit(0);
+        assertThat(ActivityQueryService.limitOf(query)).isEqualTo(1);
+    }
+
+    @Test
+    void aCursorContinuesStrictlyAfterTheLastActivityOfThePage() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Activity.class), eq(Activity.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        LocalDateTime last = LocalDateTime.of(2024, 3, 1, 7, 30);
+        ActivityQuery query = new ActivityQuery();
+        query.setCursor(ActivityQueryService.cursorOf(Activity.builder().id("65f000000000000000000002").startTime(last).build()));
+
+        service.search("user-1", query);
+
+        Document match = capturePipeline(Activity.class).get(0).get("$match", Document.class);
+        List<?> and = match.get("$and", List.class);
+        assertThat(((Document) and.get(0)).get("userId")).isEqualTo("user-1");
+        assertThat(((Document) and.get(1)).get("$or", List.class)).hasSize(3);
+    }
+
+    @Test
+    void hotAndArchivedActivitiesMergeIntoOneNewestFirstPage() {
+        Activity hotNewest = Activity.builder().id("a4").startTime(LocalDateTime.of(2024, 3, 4, 7, 0)).build();
+        Activity hotCopy = Activity.builder().id("a2").type(ActivityType.RUNNING).startTime(LocalDateTime.of(2024, 3, 2, 7, 0)).build();
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Activity.class), eq(Activity.class)))
+                .thenReturn(new AggregationResults<>(List.of(hotNewest, hotCopy), new Document()));
+        when(coldActivityStore.findByUserIdAndStartTimeBetween("user-1", null, null)).thenReturn(List.of(
+                Activity.builder().id("a1").startTime(LocalDateTime.of(2024, 3, 1, 7, 0)).build(),
+                Activity.builder().id("a2").startTime(LocalDateTime.of(2024, 3, 2, 7, 0)).build(),
+                Activity.builder().id("a3").startTime(LocalDateTime.of(2024, 3, 3, 7, 0)).build(),
+                Activity.builder().id("a0").build()));
+        ActivityQuery query = new ActivityQuery();
+        query.setLimit(3);
+
+        List<Activity> page = service.search("user-1", query);
+
+        // limit + 1, the last one only signals that there is a next page
+        assertThat(page).extracting(Activity::getId).containsExactly("a4", "a3", "a2", "a1");
+        assertThat(page.get(2).getType()).isEqualTo(ActivityType.RUNNING);
+        assertThat(page.get(0).getUserId()).isEqualTo("user-1");
+    }
+
+    @Test
+    void archivedActivitiesBeforeTheCursorAreSkipped() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Activity.class), eq(Activity.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        LocalDateTime sameTime = LocalDateTime.of(2024, 3, 2, 7, 0);
+        when(coldActivityStore.findByUserIdAndStartTimeBetween("user-1", null, null)).thenReturn(List.of(
+                Activity.builder().id("a1").startTime(LocalDateTime.of(2024, 3, 1, 7, 0)).build(),
+                Activity.builder().id("a2").startTime(sameTime).build(),
+                Activity.builder().id("a3").startTime(sameTime).build(),
+                Activity.builder().id("a0").build()));
+        ActivityQuery query = new ActivityQuery();
+        query.setCursor(ActivityQueryService.cursorOf(Activity.builder().id("a3").startTime(sameTime).build()));
+
+        assertThat(service.search("user-1", query)).extracting(Activity::getId).containsExactly("a2", "a1", "a0");
+    }
+
+    @Test
+    void aMalformedCursorIsRejected() {
+        ActivityQuery query = new ActivityQuery();
+        query.setCursor("not a cursor");
+
+        assertThatThrownBy(() -> service.search("user-1", query)).hasMessageContaining("Invalid cursor");
+    }
+
+    @Test
+    void statsMergeHotBucketsWithArchivedActivities() {
+        Document runningRow = new Document("_id", "RUNNING").append("count", 2)
+                .append("totalDuration", 60L).append("totalCalories", 600L);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Activity.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(runningRow), new Document()));
+        when(coldActivityStore.findByUserIdAndStartTimeBetween("user-1", null, null)).thenReturn(List.of(
+                Activity.builder().id("c1").type(ActivityType.RUNNING).duration(30).caloriesBurned(300)
+                        .startTime(LocalDateTime.of(2023, 1, 1, 7, 0)).build(),
+                Activity.builder().id("c2").type(ActivityType.YOGA).duration(45)
+                        .startTime(LocalDateTime.of(2023, 1, 2, 7, 0)).build()));
+
+        List<ActivityStatsBucket> buckets = service.stats("user-1", new ActivityQuery(), ActivityStatsGrouping.TYPE);
+
+        assertThat(buckets).containsExactly(
+                new ActivityStatsBucket("RUNNING", 3, 90, 30.0, 900, 300.0),
+                new ActivityStatsBucket("YOGA", 1, 45, 45.0, 0, 0.0));
+        Document match = capturePipeline(Document.class).get(0).get("$match", Document.class);
+        assertThat(match).containsEntry("archivedAt", null);
+    }
+
+    @Test
+    void statsMapMongoWeekdaysToDayOfWeek() {
+        // $dayOfWeek is 1 for Sunday and 2 for Monday
+        Document sunday = new Document("_id", 1).append("count", 1).append("totalDuration", 10L).append("totalCalories", 0L);
+        Document monday = new Document("_id", 2).append("count", 1).append("totalDuration", 20L).append("totalCalories", 0L);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Activity.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(sunday, monday), new Document()));
+
+        List<ActivityStatsBucket> buckets = service.stats("user-1", new ActivityQuery(), ActivityStatsGrouping.WEEKDAY);
+
+        assertThat(buckets).extracting(ActivityStatsBucket::getKey).containsExactly("MONDAY", "SUNDAY");
+    }
+
+    private List<Document> capturePipeline(Class<?> outputType) {
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(aggregation.capture(), eq(Activity.class), eq(outputType));
+        return aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+    }
+
+    private Map<String, Document> activityIndexes() {
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setAutoIndexCreation(true);
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        return StreamSupport.stream(resolver.resolveIndexFor(Activity.class).spliterator(), false)
+                .map(holder -> (IndexDefinition) holder)
+                .filter(index -> index.getIndexOptions().containsKey("name"))
+                .collect(Collectors.toMap(index -> index.getIndexOptions().getString("name"), IndexDefinition::getIndexKeys));
+    }
+}
@@ -0,0 +1,95 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.ActivityRepository;
+import com.fitness.activityservice.archive.ColdActivityStore;
+import com.fitness.activityservice.dto.ActivityPage;
+import com.fitness.activityservice.dto.ActivityQuery;
+import com.fitness.activityservice.dto.ActivityRequest;
+import com.fitness.activityservice.dto.ActivityResponse;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ActivityServiceTest {
+
+    private final ActivityRepository activityRepository = mock(ActivityRepository.class);
+    private final UserValidationService userValidationService = mock(UserValidationService.class);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = mock(KafkaTemplate.class);
+    private final PersonalRecordService personalRecordService = mock(PersonalRecordService.class);
+    private final ActivityQueryService activityQueryService = mock(ActivityQueryService.class);
+    private final ActivityService service = new ActivityService(activityRepository, userValidationService,
+            personalRecordService, mock(ColdActivityStore.class), activityQueryService,
+            mock(ActivityCache.class), kafkaTemplate);
+
+    @Test
+    void aFullPageCarriesTheCursorOfItsLastActivity() {
+        ActivityQuery query = new ActivityQuery();
+        query.setLimit(2);
+        Activity second = Activity.builder().id("a2").startTime(LocalDateTime.of(2024, 3, 2, 7, 0)).build();
+        when(activityQueryService.search("user-1", query)).thenReturn(List.of(
+                Activity.builder().id("a3").startTime(LocalDateTime.of(2024, 3, 3, 7, 0)).build(),
+                second,
+                Activity.builder().id("a1").startTime(LocalDateTime.of(2024, 3, 1, 7, 0)).build()));
+        when(personalRecordService.getRecordHolderIds("user-1")).thenReturn(Set.of("a2"));
+
+        ActivityPage page = service.searchActivities("user-1", query);
+
+        assertThat(page.getActivities()).extracting(ActivityResponse::getId).containsExactly("a3", "a2");
+        assertThat(page.getActivities().get(1).isPersonalRecord()).isTrue();
+        assertThat(page.getNextCursor()).isEqualTo(ActivityQueryService.cursorOf(second));
+    }
+
+    @Test
+    void theLastPageHasNoCursor() {
+        ActivityQuery query = new ActivityQuery();
+        query.setLimit(2);
+        when(activityQueryService.search("user-1", query)).thenReturn(List.of(
+                Activity.builder().id("a1").startTime(LocalDateTime.of(2024, 3, 1, 7, 0)).build()));
+        when(personalRecordService.getRecordHolderIds("user-1")).thenReturn(Set.of());
+
+        assertThat(service.searchActivities("user-1", query).getNextCursor()).isNull();
+    }
+
+    @Test
+    void theSavedAtHeaderCarriesTheSaveTime() {
+        ReflectionTestUtils.setField(service, "topicName", "activity-events");
+        LocalDateTime savedAt = LocalDateTime.of(2024, 3, 1, 7, 30);
+        when(userValidationService.validateUser("user-1")).thenReturn(true);
+        when(activityRepository.save(any(Activity.class))).thenAnswer(invocation -> {
+            Activity activity = invocation.getArgument(0);
+            activity.setId("a1");
+            activity.setCreatedAt(savedAt);
+            activity.setUpdatedAt(savedAt);
+            return activity;
+        });
+        ActivityRequest request = new ActivityRequest();
+        request.setUserId("user-1");
+        request.setType(ActivityType.RUNNING);
+        request.setDuration(45);
+
+        service.trackActivity(request);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<ProducerRecord<String, Object>> record = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate).send(record.capture());
+        String header = new String(record.getValue().headers().lastHeader("activity-saved-at").value(), StandardCharsets.UTF_8);
+        assertThat(Long.parseLong(header)).isEqualTo(savedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+}
@@ -0,0 +1,181 @@
+package com.fitness.activityservice.service;
+
+import com.fitness.activityservice.ActivityRepository;
+import com.fitness.activityservice.PersonalRecordRepository;
+import com.fitness.activityservice.archive.ColdActivityStore;
+import com.fitness.activityservice.model.Activity;
+import com.fitness.activityservice.model.ActivityType;
+import com.fitness.activityservice.model.PersonalRecord;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PersonalRecordServiceTest {
+
+    private static final String RECORD_ID = "user-1:RUNNING";
+
+    private final PersonalRecordRepository personalRecordRepository = mock(PersonalRecordRepository.class);
+    private final ActivityRepository activityRepository = mock(ActivityRepository.class);
+    private final ColdActivityStore coldActivityStore = mock(ColdActivityStore.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations operations = mock(BulkOperations.class);
+    private final PersonalRecordService service = new PersonalRecordService(personalRecordRepository,
+            activityRepository, coldActivityStore, mongoTemplate);
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, PersonalRecord.class)).thenReturn(operations);
+        when(coldActivityStore.findByUserId("user-1")).thenReturn(List.of());
+    }
+
+    @Test
+    void eachMetricIsAConditionalUpdateThatBumpsTheVersion() {
+        BulkWriteResult result = mock(BulkWriteResult.class);
+        when(result.getModifiedCount()).thenReturn(1);
+        when(operations.execute()).thenReturn(result);
+
+        boolean improved = service.recordActivity(activity("a1", 45, null));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(operations).updateOne(query.capture(), update.capture());
+        assertThat(improved).isTrue();
+        assertThat(query.getValue().getQueryObject().get("$or", List.class)).hasSize(2);
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("longestDuration", 45)
+                .containsEntry("longestDurationActivityId", "a1");
+        assertThat(update.getValue().getUpdateObject().get("$inc", Document.class)).containsEntry("version", 1);
+    }
+
+    @Test
+    void anActivityWithoutMetricsWritesNothing() {
+        assertThat(service.recordActivity(activity("a1", null, null))).isFalse();
+
+        verify(operations, never()).execute();
+    }
+
+    @Test
+    void deletingTheHolderRecomputesAgainstTheVersionItRead() {
+        when(personalRecordRepository.findById(RECORD_ID)).thenReturn(Optional.of(record(3L, "a1")));
+        when(activityRepository.findByUserIdAndType("user-1", ActivityType.RUNNING))
+                .thenReturn(List.of(activity("a2", 40, 300), activity("a3", 30, 500)));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(PersonalRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        service.onActivityDeleted(activity("a1", 60, 200));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(PersonalRecord.class));
+        assertThat(query.getValue().getQueryObject()).containsEntry("_id", RECORD_ID).containsEntry("version", 3L);
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("longestDuration", 40)
+                .containsEntry("longestDurationActivityId", "a2")
+                .containsEntry("mostCalories", 500)
+                .containsEntry("mostCaloriesActivityId", "a3")
+                .containsEntry("version", 4L);
+    }
+
+    @Test
+    void aConcurrentImprovementDuringTheScanRestartsTheRecomputation() {
+        when(personalRecordRepository.findById(RECORD_ID))
+                .thenReturn(Optional.of(record(3L, "a1")), Optional.of(record(3L, "a1")), Optional.of(record(4L, "a1")));
+        when(activityRepository.findByUserIdAndType("user-1", ActivityType.RUNNING))
+                .thenReturn(List.of(activity("a2", 40, null)), List.of(activity("a2", 40, null), activity("a4", 90, null)));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(PersonalRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null), UpdateResult.acknowledged(1, 1L, null));
+
+        service.onActivityDeleted(activity("a1", 60, null));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(query.capture(), update.capture(), eq(PersonalRecord.class));
+        assertThat(query.getAllValues().get(0).getQueryObject()).containsEntry("version", 3L);
+        assertThat(query.getAllValues().get(1).getQueryObject()).containsEntry("version", 4L);
+        assertThat(update.getAllValues().get(1).getUpdateObject().get("$set", Document.class))
+                .containsEntry("longestDuration", 90)
+                .containsEntry("longestDurationActivityId", "a4");
+    }
+
+    @Test
+    void deletingTheLastActivityRemovesOnlyTheVersionItRead() {
+        when(personalRecordRepository.findById(RECORD_ID)).thenReturn(Optional.of(record(3L, "a1")));
+        when(activityRepository.findByUserIdAndType("user-1", ActivityType.RUNNING)).thenReturn(List.of());
+        when(mongoTemplate.remove(any(Query.class), eq(PersonalRecord.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        service.onActivityDeleted(activity("a1", 60, null));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(query.capture(), eq(PersonalRecord.class));
+        assertThat(query.getValue().getQueryObject()).containsEntry("version", 3L);
+        verify(personalRecordRepository, never()).deleteById(any());
+    }
+
+    @Test
+    void anEditedDownHolderLosesTheRecordToTheNextBest() {
+        when(personalRecordRepository.findById(RECORD_ID)).thenReturn(Optional.of(record(3L, "a1")));
+        when(activityRepository.findByUserIdAndType("user-1", ActivityType.RUNNING))
+                .thenReturn(List.of(activity("a1", 20, null), activity("a2", 40, null)));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(PersonalRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        boolean stillHolds = service.onActivityUpdated(ActivityType.RUNNING, activity("a1", 20, null));
+
+        assertThat(stillHolds).isFalse();
+    }
+
+    @Test
+    void aRecordCreatedConcurrentlyIsNotOverwrittenByTheFirstRecomputation() {
+        when(personalRecordRepository.findById(RECORD_ID))
+                .thenReturn(Optional.of(record(3L, "a1")), Optional.empty(), Optional.of(record(1L, "a5")));
+        when(activityRepository.findByUserIdAndType("user-1", ActivityType.RUNNING))
+                .thenReturn(List.of(activity("a2", 40, null)));
+        when(mongoTemplate.insert(any(PersonalRecord.class))).thenThrow(new DuplicateKeyException(RECORD_ID));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(PersonalRecord.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        service.onActivityDeleted(activity("a1", 60, null));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(query.capture(), any(Update.class), eq(PersonalRecord.class));
+        assertThat(query.getValue().getQueryObject()).containsEntry("version", 1L);
+    }
+
+    private static PersonalRecord record(Long version, String holder) {
+        return PersonalRecord.builder()
+                .id(RECORD_ID).userId("user-1").type(ActivityType.RUNNING)
+                .longestDuration(60).longestDurationActivityId(holder)
+                .version(version)
+                .build();
+    }
+
+    private static Activity activity(String id, Integer duration, Integer calories) {
+        return Activity.builder()
+                .id(id).userId("user-1").type(ActivityType.RUNNING)
+                .duration(duration).caloriesBurned(calories)
+                .additionalMetrics(Map.of())
+                .build();
+    }
+}
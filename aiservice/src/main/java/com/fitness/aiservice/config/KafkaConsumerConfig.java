@@ -0,0 +1,89 @@
+package com.fitness.aiservice.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.ExponentialBackOffWithMaxRetries;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class KafkaConsumerConfig {
+
+    // manual acks that may arrive out of order; the container only commits an offset
+    // once every record before it on the partition has been acknowledged
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> activityListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory,
+            ConsumerRecordRecoverer deadLetterRecoverer,
+            @Value("${ai.processing.retry.max-attempts:3}") int maxAttempts,
+            @Value("${ai.processing.retry.backoff-ms:1000}") long backoffMillis) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+
+        ExponentialBackOffWithMaxRetries backOff = new ExponentialBackOffWithMaxRetries(Math.max(0, maxAttempts - 1));
+        backOff.setInitialInterval(backoffMillis);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(deadLetterRecoverer, backOff));
+        return factory;
+    }
+
+    // whole polls are handed to the listener and committed together after it returns; a
+    // BatchListenerFailedException commits the records before the failed one, retries from
+    // it and dead-letters it once the retries are used up
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory,
+            ConsumerRecordRecoverer deadLetterRecoverer,
+            @Value("${ai.processing.retry.max-attempts:3}") int maxAttempts,
+            @Value("${ai.processing.retry.backoff-ms:1000}") long backoffMillis) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+
+        ExponentialBackOffWithMaxRetries backOff = new ExponentialBackOffWithMaxRetries(Math.max(0, maxAttempts - 1));
+        backOff.setInitialInterval(backoffMillis);
+        factory.setCommonErrorHandler(new DefaultErrorHandler(deadLetterRecoverer, backOff));
+        return factory;
+    }
+
+    // records that keep failing go to <topic>.DLT; payloads that could not even be
+    // deserialized are forwarded as the original bytes
+    @Bean
+    public ConsumerRecordRecoverer deadLetterRecoverer(ProducerFactory<Object, Object> producerFactory,
+                                                       MeterRegistry meterRegistry) {
+        Map<Class<?>, KafkaOperations<?, ?>> templates = new LinkedHashMap<>();
+        templates.put(byte[].class, new KafkaTemplate<>(producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class)));
+        templates.put(Object.class, new KafkaTemplate<>(producerFactory));
+
+        // no fixed partition, so the DLT does not need as many partitions as the source topic
+        DeadLetterPublishingRecoverer recoverer = new DeadLetterPublishingRecoverer(templates,
+                (record, exception) -> new TopicPartition(record.topic() + ".DLT", -1));
+        Counter deadLettered = Counter.builder("ai.processing.dlq").register(meterRegistry);
+        return (record, exception) -> {
+            deadLettered.increment();
+            recoverer.accept(record, exception);
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package com.fitness.aiservice.config;
+
+import com.fitness.aiservice.model.ActivityType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rule tables for the local recommender, one entry per {@link ActivityType} under
+ * {@code ai.rules.types}; types without an entry use {@code ai.rules.defaults}.
+ */
+@Component
+@ConfigurationProperties(prefix = "ai.rules")
+@Data
+public class RecommendationRulesProperties {
+
+    // save the rule-based recommendation before calling Gemini
+    private boolean provisional = true;
+
+    private TypeRules defaults = new TypeRules();
+
+    private Map<ActivityType, TypeRules> types = new EnumMap<>(ActivityType.class);
+
+    public TypeRules rulesFor(ActivityType type) {
+        return type == null ? defaults : types.getOrDefault(type, defaults);
+    }
+
+    @Data
+    public static class TypeRules {
+        // the rule-based recommendation is final and Gemini is not called
+        private boolean rulesOnly = false;
+        private int minMinutes = 20;
+        private int maxMinutes = 90;
+        private double lowCaloriesPerMinute = 4;
+        private double highCaloriesPerMinute = 12;
+        // km/h, only checked when the activity reports a distance
+        private double minSpeed = 0;
+        private double maxSpeed = 0;
+        private int maxHeartRate = 185;
+        private List<String> suggestions = new ArrayList<>();
+        private List<String> safety = new ArrayList<>();
+    }
+}
@@ -0,0 +1,20 @@
+package com.fitness.aiservice.config;
+
+import org.springframework.cloud.client.loadbalancer.reactive.ReactorLoadBalancerExchangeFilterFunction;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.client.WebClient;
+
+@Configuration
+public class WebClientConfig {
+
+    // load balanced through Eureka; the shared builder stays plain for the Gemini client
+    @Bean
+    public WebClient activityServiceWebClient(WebClient.Builder webClientBuilder,
+                                              ReactorLoadBalancerExchangeFilterFunction loadBalancer) {
+        return webClientBuilder.clone()
+                .baseUrl("http://ACTIVITY-SERVICE")
+                .filter(loadBalancer)
+                .build();
+    }
+}
@@ -0,0 +1,38 @@
+package com.fitness.aiservice.controller;
+
+import com.fitness.aiservice.model.BackfillProgress;
+import com.fitness.aiservice.service.BackfillService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+// operator endpoints; the gateway only routes /api/**, so these are not public
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/internal/backfill")
+public class BackfillController {
+    private final BackfillService backfillService;
+
+    @PostMapping
+    public ResponseEntity<BackfillProgress> start() {
+        return ResponseEntity.ok(backfillService.start());
+    }
+
+    @PostMapping("/pause")
+    public ResponseEntity<BackfillProgress> pause() {
+        return ResponseEntity.ok(backfillService.pause());
+    }
+
+    @PostMapping("/resume")
+    public ResponseEntity<BackfillProgress> resume() {
+        return ResponseEntity.ok(backfillService.resume());
+    }
+
+    @GetMapping
+    public ResponseEntity<BackfillProgress> progress() {
+        return ResponseEntity.ok(backfillService.progress());
+    }
+}
@@ -0,0 +1,30 @@
+package com.fitness.aiservice.controller;
+
+import com.fitness.aiservice.service.ConsumerLagMonitor;
+import com.fitness.aiservice.service.PipelineMetrics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// operator endpoints; the gateway only routes /api/**, so these are not public
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/internal/pipeline")
+public class PipelineController {
+    private final PipelineMetrics pipelineMetrics;
+    private final ConsumerLagMonitor consumerLagMonitor;
+
+    @GetMapping("/freshness")
+    public ResponseEntity<Map<String, Object>> freshness() {
+        Map<String, Object> summary = new LinkedHashMap<>(pipelineMetrics.freshness());
+        Map<String, Long> lag = consumerLagMonitor.currentLag();
+        summary.put("consumerLag", lag);
+        summary.put("totalConsumerLag", lag.values().stream().mapToLong(Long::longValue).sum());
+        return ResponseEntity.ok(summary);
+    }
+}
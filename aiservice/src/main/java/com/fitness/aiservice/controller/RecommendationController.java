@@ -1,13 +1,21 @@
 package com.fitness.aiservice.controller;
 
 import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.RecommendationHistoryQuery;
+import com.fitness.aiservice.model.RecommendationPage;
+import com.fitness.aiservice.model.UserRecommendation;
 import com.fitness.aiservice.service.RecommendationService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -18,8 +26,24 @@ public class RecommendationController {
     private final RecommendationService recommendationService;
 
     @GetMapping("/user/{userId}")
-    public ResponseEntity<Recommendation> getUserCombinedRecommendation(@PathVariable String userId) {
-        return ResponseEntity.ok(recommendationService.getUserRecommendation(userId));
+    public ResponseEntity<UserRecommendation> getUserCombinedRecommendation(@PathVariable String userId) {
+        return recommendationService.getUserRecommendation(userId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.accepted()
+                        .header(HttpHeaders.RETRY_AFTER, "5")
+                        .build());
+    }
+
+    @GetMapping("/user/{userId}/history")
+    public ResponseEntity<RecommendationPage> getUserRecommendationHistory(
+            @PathVariable String userId,
+            @ModelAttribute RecommendationHistoryQuery query) {
+        return ResponseEntity.ok(recommendationService.getUserHistory(userId, query));
+    }
+
+    @GetMapping(value = "/activity/{activityId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamActivityRecommendation(@PathVariable String activityId) {
+        return recommendationService.streamActivityRecommendation(activityId);
     }
 
     @GetMapping("/activity/{activityId}")
@@ -0,0 +1,9 @@
+package com.fitness.aiservice.llm;
+
+// declaration order is scheduling order: earlier constants are always dispatched first
+public enum LlmPriority {
+    NEW_ACTIVITY,
+    UPDATE,
+    USER_SUMMARY,
+    BACKFILL
+}
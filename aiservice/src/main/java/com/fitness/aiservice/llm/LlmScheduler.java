@@ -0,0 +1,366 @@
+package com.fitness.aiservice.llm;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Admits Gemini calls in priority order while keeping them inside the requests-per-minute
+ * and tokens-per-minute quotas and under an AIMD concurrency limit. The limit shrinks on
+ * 429s and on latency per estimated token well above the best recently observed, at most
+ * once per limit's worth of completions, and grows back slowly while calls succeed, so
+ * bursts queue here instead of turning into 429s upstream.
+ *
+ * Backfill work is further capped to {@code backfill-share} of both quotas and of the
+ * concurrency limit, so a running backfill always leaves headroom for live traffic.
+ */
+@Component
+@Slf4j
+public class LlmScheduler {
+
+    private static final int QUEUED = 0;
+    private static final int GRANTED = 1;
+    private static final int RUNNING = 2;
+    private static final int DONE = 3;
+
+    private static final int LATENCY_WINDOW = 100;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(
+            Comparator.comparing(Ticket::priority).thenComparingLong(Ticket::sequence));
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final TokenBucket requests;
+    private final TokenBucket tokens;
+    private final TokenBucket backfillRequests;
+    private final TokenBucket backfillTokens;
+    private final double backfillShare;
+    private final int expectedOutputTokens;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private int backfillInFlight;
+    // completions since the limit was last cut; the calls in flight at a cut all saw the old
+    // limit, so their slow completions must not cut it again
+    private int sinceDecrease;
+    private double baselineNanosPerToken = Double.MAX_VALUE;
+    private double windowMinNanosPerToken = Double.MAX_VALUE;
+    private int windowSamples;
+
+    private final Map<LlmPriority, AtomicInteger> depth = new EnumMap<>(LlmPriority.class);
+    private final Map<LlmPriority, Timer> waitTimers = new EnumMap<>(LlmPriority.class);
+    private final Counter throttled;
+
+    private Thread dispatcher;
+    private volatile boolean running = true;
+
+    public LlmScheduler(MeterRegistry meterRegistry,
+                        @Value("${ai.llm.requests-per-minute:1000}") long requestsPerMinute,
+                        @Value("${ai.llm.tokens-per-minute:1000000}") long tokensPerMinute,
+                        @Value("${ai.llm.expected-output-tokens:800}") int expectedOutputTokens,
+                        @Value("${ai.llm.initial-concurrency:8}") int initialConcurrency,
+                        @Value("${ai.llm.min-concurrency:1}") int minConcurrency,
+                        @Value("${ai.llm.max-concurrency:32}") int maxConcurrency,
+                        @Value("${ai.llm.backoff-ratio:0.7}") double backoffRatio,
+                        @Value("${ai.llm.latency-tolerance:3.0}") double latencyTolerance,
+                        @Value("${ai.llm.backfill-share:0.25}") double backfillShare) {
+        this.requests = new TokenBucket(requestsPerMinute);
+        this.tokens = new TokenBucket(tokensPerMinute);
+        this.backfillShare = backfillShare;
+        this.backfillRequests = new TokenBucket(Math.max(1, (long) (requestsPerMinute * backfillShare)));
+        this.backfillTokens = new TokenBucket(Math.max(1, (long) (tokensPerMinute * backfillShare)));
+        this.expectedOutputTokens = expectedOutputTokens;
+        this.limit = initialConcurrency;
+        this.sinceDecrease = initialConcurrency;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+
+        for (LlmPriority priority : LlmPriority.values()) {
+            AtomicInteger queued = new AtomicInteger();
+            depth.put(priority, queued);
+            Gauge.builder("ai.llm.queue.depth", queued, AtomicInteger::get)
+                    .tag("priority", priority.name())
+                    .register(meterRegistry);
+            waitTimers.put(priority, Timer.builder("ai.llm.queue.wait")
+                    .tag("priority", priority.name())
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("ai.llm.concurrency.limit", this, scheduler -> scheduler.locked(() -> scheduler.limit))
+                .register(meterRegistry);
+        Gauge.builder("ai.llm.inflight", this, scheduler -> scheduler.locked(() -> (double) scheduler.inFlight))
+                .register(meterRegistry);
+        Gauge.builder("ai.llm.budget.utilization", this, scheduler -> scheduler.locked(scheduler.requests::utilization))
+                .tag("budget", "requests")
+                .register(meterRegistry);
+        Gauge.builder("ai.llm.budget.utilization", this, scheduler -> scheduler.locked(scheduler.tokens::utilization))
+                .tag("budget", "tokens")
+                .register(meterRegistry);
+        this.throttled = Counter.builder("ai.llm.throttled").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        dispatcher = Thread.ofPlatform().name("llm-scheduler").daemon().start(this::dispatchLoop);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    // rough estimate: ~4 characters per input token plus the usual answer length
+    public int estimateTokens(String prompt) {
+        return prompt.length() / 4 + expectedOutputTokens;
+    }
+
+    public <T> Mono<T> schedule(LlmPriority priority, int estimatedTokens, Supplier<Mono<T>> call) {
+        return schedule(priority, estimatedTokens, () -> true, call);
+    }
+
+    public <T> Mono<T> schedule(LlmPriority priority, int estimatedTokens, BooleanSupplier permitted, Supplier<Mono<T>> call) {
+        return scheduleMany(priority, estimatedTokens, permitted, call).next();
+    }
+
+    // the call is subscribed once admitted; cancelling while queued just leaves the queue.
+    // permitted is checked at admission, e.g. whether the circuit breaker lets calls through:
+    // a call it refuses is admitted at once without spending quota, and is expected to fail fast
+    public <T> Flux<T> scheduleMany(LlmPriority priority, int estimatedTokens, BooleanSupplier permitted,
+                                    Supplier<? extends Publisher<T>> call) {
+        return Flux.defer(() -> {
+            Ticket ticket = new Ticket(priority, estimatedTokens, sequence.incrementAndGet(), System.nanoTime(),
+                    permitted, new AtomicInteger(QUEUED), new CompletableFuture<>());
+            enqueue(ticket);
+
+            return Mono.fromFuture(ticket.granted(), true)
+                    .thenMany(Flux.defer(() -> {
+                        if (!ticket.state().compareAndSet(GRANTED, RUNNING)) {
+                            return Flux.empty();
+                        }
+                        long start = System.nanoTime();
+                        boolean[] rateLimited = new boolean[1];
+                        boolean[] rejectedLocally = new boolean[1];
+                        return Flux.from(call.get())
+                                .doOnError(error -> {
+                                    rateLimited[0] = isRateLimited(error);
+                                    rejectedLocally[0] = isRejectedLocally(error);
+                                })
+                                .doFinally(signal -> {
+                                    ticket.state().set(DONE);
+                                    // a call that never reached Gemini says nothing about its latency
+                                    release(ticket, rejectedLocally[0] || !ticket.charged().get() ? -1 : System.nanoTime() - start,
+                                            rateLimited[0]);
+                                });
+                    }))
+                    .doOnCancel(() -> cancel(ticket));
+        });
+    }
+
+    private void enqueue(Ticket ticket) {
+        lock.lock();
+        try {
+            queue.add(ticket);
+            depth.get(ticket.priority()).incrementAndGet();
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancel(Ticket ticket) {
+        if (ticket.state().compareAndSet(QUEUED, DONE)) {
+            lock.lock();
+            try {
+                if (queue.remove(ticket)) {
+                    depth.get(ticket.priority()).decrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } else if (ticket.state().compareAndSet(GRANTED, DONE)) {
+            // admitted but never started
+            release(ticket, -1, false);
+        }
+    }
+
+    private void release(Ticket ticket, long latencyNanos, boolean rateLimited) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (ticket.priority() == LlmPriority.BACKFILL) {
+                backfillInFlight--;
+            }
+            if (rateLimited) {
+                throttled.increment();
+                requests.drain();
+                sinceDecrease++;
+                decrease();
+            } else if (latencyNanos >= 0) {
+                sinceDecrease++;
+                onLatency((double) latencyNanos / Math.max(1, ticket.tokens()));
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // latency is compared per estimated token, so a large batch or summary prompt does not read
+    // as congestion. A call within latency-tolerance of the baseline adds 1/limit, so the limit
+    // grows by about one per limit's worth of calls; a slower one cuts it by backoff-ratio. The
+    // baseline is the fastest call of the previous window of LATENCY_WINDOW samples
+    private void onLatency(double nanosPerToken) {
+        windowMinNanosPerToken = Math.min(windowMinNanosPerToken, nanosPerToken);
+        if (++windowSamples >= LATENCY_WINDOW) {
+            baselineNanosPerToken = windowMinNanosPerToken;
+            windowMinNanosPerToken = Double.MAX_VALUE;
+            windowSamples = 0;
+        }
+        if (baselineNanosPerToken == Double.MAX_VALUE) {
+            baselineNanosPerToken = nanosPerToken;
+        }
+
+        if (nanosPerToken > baselineNanosPerToken * latencyTolerance) {
+            decrease();
+        } else {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+        }
+    }
+
+    private void decrease() {
+        if (sinceDecrease >= (int) limit) {
+            limit = Math.max(minConcurrency, limit * backoffRatio);
+            sinceDecrease = 0;
+        }
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            List<Ticket> admitted = new ArrayList<>();
+            lock.lock();
+            try {
+                while (true) {
+                    Ticket head = queue.peek();
+                    if (head == null || inFlight >= (int) limit) {
+                        if (admitted.isEmpty()) {
+                            changed.await();
+                        }
+                        break;
+                    }
+                    boolean backfill = head.priority() == LlmPriority.BACKFILL;
+                    if (backfill && backfillInFlight >= Math.max(1, (int) (limit * backfillShare))) {
+                        if (admitted.isEmpty()) {
+                            changed.await();
+                        }
+                        break;
+                    }
+                    boolean charged = head.permitted().getAsBoolean();
+                    long waitNanos = charged ? Math.max(requests.nanosUntil(1), tokens.nanosUntil(head.tokens())) : 0;
+                    if (backfill && charged) {
+                        waitNanos = Math.max(waitNanos,
+                                Math.max(backfillRequests.nanosUntil(1), backfillTokens.nanosUntil(head.tokens())));
+                    }
+                    if (waitNanos > 0) {
+                        if (admitted.isEmpty()) {
+                            changed.awaitNanos(waitNanos);
+                        }
+                        break;
+                    }
+
+                    queue.poll();
+                    depth.get(head.priority()).decrementAndGet();
+                    if (!head.state().compareAndSet(QUEUED, GRANTED)) {
+                        continue;
+                    }
+                    head.charged().set(charged);
+                    if (charged) {
+                        requests.consume(1);
+                        tokens.consume(head.tokens());
+                    }
+                    inFlight++;
+                    if (backfill) {
+                        if (charged) {
+                            backfillRequests.consume(1);
+                            backfillTokens.consume(head.tokens());
+                        }
+                        backfillInFlight++;
+                    }
+                    admitted.add(head);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            // completed outside the lock: subscribers start their HTTP call on this thread
+            long now = System.nanoTime();
+            for (Ticket ticket : admitted) {
+                waitTimers.get(ticket.priority()).record(now - ticket.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                ticket.granted().complete(null);
+            }
+        }
+    }
+
+    private double locked(Supplier<Double> read) {
+        lock.lock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isRateLimited(Throwable error) {
+        return error instanceof WebClientResponseException response && response.getStatusCode().value() == 429;
+    }
+
+    private static boolean isRejectedLocally(Throwable error) {
+        return error instanceof CallNotPermittedException;
+    }
+
+    private record Ticket(LlmPriority priority, int tokens, long sequence, long enqueuedNanos, BooleanSupplier permitted,
+                          AtomicInteger state, CompletableFuture<Void> granted, AtomicBoolean charged) {
+
+        Ticket(LlmPriority priority, int tokens, long sequence, long enqueuedNanos, BooleanSupplier permitted,
+               AtomicInteger state, CompletableFuture<Void> granted) {
+            this(priority, tokens, sequence, enqueuedNanos, permitted, state, granted, new AtomicBoolean());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.fitness.aiservice.llm;
+
+/**
+ * Per-minute budget refilled continuously. Not thread-safe; {@link LlmScheduler} only
+ * touches it while holding its lock.
+ */
+class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+
+    private double available;
+    private long lastRefillNanos;
+
+    TokenBucket(long perMinute) {
+        this.capacity = perMinute;
+        this.refillPerNano = perMinute / 60_000_000_000.0;
+        this.available = perMinute;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    // 0 when the amount can be taken right now
+    long nanosUntil(long amount) {
+        refill();
+        double needed = Math.min(amount, capacity) - available;
+        return needed <= 0 ? 0 : (long) Math.ceil(needed / refillPerNano);
+    }
+
+    void consume(long amount) {
+        refill();
+        available -= Math.min(amount, capacity);
+    }
+
+    // after a 429 the quota is evidently spent, whatever the local estimate says
+    void drain() {
+        refill();
+        available = Math.min(available, 0);
+    }
+
+    double utilization() {
+        refill();
+        return 1 - Math.max(0, available) / capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefillNanos) * refillPerNano);
+        lastRefillNanos = now;
+    }
+}
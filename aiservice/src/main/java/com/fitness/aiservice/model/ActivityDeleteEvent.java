@@ -0,0 +1,15 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// slim payload of activity-delete-events; full Activity payloads from older producers map onto it too
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ActivityDeleteEvent {
+    private String id;
+    private String userId;
+    private ActivityType type;
+}
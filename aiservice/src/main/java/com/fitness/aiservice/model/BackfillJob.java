@@ -0,0 +1,30 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Document(collection = "backfill_jobs")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BackfillJob {
+    @Id
+    private String id;
+    private BackfillState state;
+    // id of the last activity whose page was fully processed; the job resumes after it
+    private String cursor;
+    private long total;
+    private long processed;
+    private long failed;
+    private String lastError;
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime completedAt;
+}
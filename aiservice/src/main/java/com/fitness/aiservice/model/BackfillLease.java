@@ -0,0 +1,24 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// single document naming the instance allowed to run backfills until leaseUntil
+@Document(collection = "backfill_lease")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BackfillLease {
+    @Id
+    private String id;
+    private String owner;
+    // an Instant, so instances in different time zones agree on when it expires
+    private Instant leaseUntil;
+}
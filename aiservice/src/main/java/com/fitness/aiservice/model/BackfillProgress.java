@@ -0,0 +1,25 @@
+package com.fitness.aiservice.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+public class BackfillProgress {
+    private String jobId;
+    private BackfillState state;
+    private long total;
+    private long processed;
+    private long failed;
+    private double percentComplete;
+    private double activitiesPerMinute;
+    // null until the current run has made enough progress to estimate
+    private Long etaSeconds;
+    private LocalDateTime estimatedCompletion;
+    private String lastError;
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+    private LocalDateTime completedAt;
+}
@@ -0,0 +1,8 @@
+package com.fitness.aiservice.model;
+
+public enum BackfillState {
+    RUNNING,
+    PAUSED,
+    COMPLETED,
+    FAILED
+}
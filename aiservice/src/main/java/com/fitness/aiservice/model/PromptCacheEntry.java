@@ -0,0 +1,28 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Document(collection = "gemini_prompt_cache")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class PromptCacheEntry {
+    // SHA-256 of the normalized prompt
+    @Id
+    private String key;
+    private String response;
+    private long latencyMillis;
+
+    // hard upper bound; the configured TTL is enforced on read
+    @Indexed(expireAfter = "30d")
+    private LocalDateTime createdAt;
+}
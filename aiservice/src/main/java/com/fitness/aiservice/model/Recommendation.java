@@ -4,6 +4,8 @@ import lombok.Builder;
 import lombok.Data;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -11,6 +13,10 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Document(collection = "recommendations")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "user_type_created_idx", def = "{'userId': 1, 'type': 1, 'createdAt': -1, '_id': -1}")
+})
 @Data
 @Builder
 public class Recommendation {
@@ -24,7 +30,18 @@ public class Recommendation {
     private List<String> improvements;
     private List<String> suggestions;
     private List<String> safety;
+    // rule-based placeholder that a Gemini analysis has not replaced yet
+    private boolean provisional;
+    // produced by the rule-based recommender, as a placeholder or because Gemini was unavailable
+    private boolean ruleBased;
+    // activity whose recommendation was reused for this near-identical one
+    private String reusedFrom;
+    // what the analysed activity added to the user's digest totals, so an update or delete can take it back
+    private Integer duration;
+    private Integer caloriesBurned;
 
     @CreatedDate
     private LocalDateTime createdAt;
+    // when the current analysis was written; createdAt keeps the first one
+    private LocalDateTime updatedAt;
 }
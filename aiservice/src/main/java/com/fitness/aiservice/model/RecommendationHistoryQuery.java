@@ -0,0 +1,13 @@
+package com.fitness.aiservice.model;
+
+import lombok.Data;
+
+@Data
+public class RecommendationHistoryQuery {
+    // nextCursor of the previous page; absent for the newest page
+    private String cursor;
+    private ActivityType type;
+    private int limit = 20;
+    // leaves out the analysis text and the three lists
+    private boolean summary;
+}
@@ -0,0 +1,14 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class RecommendationPage {
+    private List<Recommendation> items;
+    // null on the last page
+    private String nextCursor;
+}
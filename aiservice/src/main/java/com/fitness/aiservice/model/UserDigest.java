@@ -0,0 +1,75 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rolling, bounded summary of a user's activity recommendations: running statistics per
+ * activity type plus the most recent entries. The USER_SUMMARY prompt is built from this
+ * instead of from the full recommendation history.
+ */
+@Document(collection = "user_digests")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserDigest {
+    @Id
+    private String userId;
+
+    // keyed by ActivityType name
+    @Builder.Default
+    private Map<String, TypeStats> types = new HashMap<>();
+
+    // newest last, capped at ai.user-summary.digest.recent-size
+    @Builder.Default
+    private List<Entry> recent = new ArrayList<>();
+
+    // activities already taken back out, newest last, capped at ai.user-summary.digest.removed-size
+    @Builder.Default
+    private List<String> removedActivityIds = new ArrayList<>();
+
+    private LocalDateTime updatedAt;
+
+    public long getTotalCount() {
+        return types.values().stream().mapToLong(TypeStats::getCount).sum();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class TypeStats {
+        private long count;
+        // duration and calories are only summed for activities that reported them
+        private long totalMinutes;
+        private long totalCalories;
+        private LocalDateTime lastActivityAt;
+        // latest analysis of this type, kept even when it drops out of recent
+        private Entry latest;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Entry {
+        private String activityId;
+        private String type;
+        private Integer duration;
+        private Integer caloriesBurned;
+        private String summary;
+        private String topImprovement;
+        private LocalDateTime createdAt;
+    }
+}
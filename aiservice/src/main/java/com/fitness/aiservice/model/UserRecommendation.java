@@ -0,0 +1,41 @@
+package com.fitness.aiservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Document(collection = "user_recommendations")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserRecommendation {
+    // one materialized USER_SUMMARY per user, keyed by the user id
+    @Id
+    private String userId;
+    private String type;
+    private String recommendation;
+    private List<String> improvements;
+    private List<String> suggestions;
+    private List<String> safety;
+
+    private LocalDateTime createdAt;
+    private int basedOnRecommendations;
+
+    // set when activity recommendations changed after createdAt, cleared by the next refresh
+    private LocalDateTime staleSince;
+    private LocalDateTime lastChangeAt;
+    private int pendingUpdates;
+    // last time the stale sweep scheduled a refresh for this user
+    private LocalDateTime sweptAt;
+
+    public boolean isStale() {
+        return staleSince != null;
+    }
+}
@@ -0,0 +1,12 @@
+package com.fitness.aiservice.respository;
+
+import com.fitness.aiservice.model.BackfillJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface BackfillJobRepository extends MongoRepository<BackfillJob, String> {
+    Optional<BackfillJob> findFirstByOrderByStartedAtDesc();
+}
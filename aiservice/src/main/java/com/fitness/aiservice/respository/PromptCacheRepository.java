@@ -0,0 +1,9 @@
+package com.fitness.aiservice.respository;
+
+import com.fitness.aiservice.model.PromptCacheEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PromptCacheRepository extends MongoRepository<PromptCacheEntry, String> {
+}
@@ -0,0 +1,9 @@
+package com.fitness.aiservice.respository;
+
+import com.fitness.aiservice.model.UserRecommendation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserRecommendationRepository extends MongoRepository<UserRecommendation, String> {
+}
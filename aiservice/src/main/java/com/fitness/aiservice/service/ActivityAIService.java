@@ -1,16 +1,22 @@
 package com.fitness.aiservice.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.aiservice.llm.LlmPriority;
 import com.fitness.aiservice.model.Activity;
-import com.fitness.aiservice.model.ActivityType;
 import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.UserDigest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -18,126 +24,167 @@ import java.util.*;
 public class ActivityAIService {
     private final GeminiService geminiService;
 
-    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
 
-    public Recommendation generateRecommendation(Activity activity) {
-        String prompt = createPromptForActivity(activity);
-        String aiResponse = geminiService.getRecommendations(prompt);
-        log.info("RESPONSE FROM AI {} ", aiResponse);
-        return processAIResponse(activity, aiResponse);
-    }
+    private final GeminiResponseParser responseParser;
 
-    private Recommendation processAIResponse(Activity activity, String aiResponse) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(aiResponse);
-            JsonNode textNode = rootNode.path("candidates")
-                    .get(0)
-                    .path("content")
-                    .get("parts")
-                    .get(0)
-                    .path("text");
+    private final RuleBasedRecommender ruleBasedRecommender;
 
-            String jsonContent = textNode.asText()
-                    .replaceAll("```json\\n","")
-                    .replaceAll("\\n```","")
-                    .trim();
+    private final UserSummaryPromptBuilder userSummaryPromptBuilder;
 
-//            log.info("RESPONSE FROM CLEANED AI {} ", jsonContent);
+    private final PipelineMetrics pipelineMetrics;
 
-            JsonNode analysisJson = mapper.readTree(jsonContent);
-            JsonNode analysisNode = analysisJson.path("analysis");
-            StringBuilder fullAnalysis = new StringBuilder();
-            addAnalysisSection(fullAnalysis, analysisNode, "overall", "Overall:");
-            addAnalysisSection(fullAnalysis, analysisNode, "pace", "Pace:");
-            addAnalysisSection(fullAnalysis, analysisNode, "heartRate", "Heart Rate:");
-            addAnalysisSection(fullAnalysis, analysisNode, "caloriesBurned", "Calories:");
+    private final GeminiResponseCache responseCache;
 
-            List<String> improvements = extractImprovements(analysisJson.path("improvements"));
-            List<String> suggestions = extractSuggestions(analysisJson.path("suggestions"));
-            List<String> safety = extractSafetyGuidelines(analysisJson.path("safety"));
+    public Recommendation generateRecommendation(Activity activity, LlmPriority priority) {
+        if (!geminiService.isAvailable()) {
+            return ruleBasedRecommender.recommend(activity);
+        }
 
-            return Recommendation.builder()
-                    .activityId(activity.getId())
-                    .userId(activity.getUserId())
-                    .type(activity.getType().toString())
-                    .recommendation(fullAnalysis.toString().trim())
-                    .improvements(improvements)
-                    .suggestions(suggestions)
-                    .safety(safety)
-                    .createdAt(LocalDateTime.now())
-                    .build();
+        String prompt = pipelineMetrics.time("prompt", () -> createPromptForActivity(activity));
+        String cacheKey = responseCache.isEnabled() ? createPromptForActivity(responseCache.canonical(activity)) : null;
+        Optional<String> cached = cacheKey == null ? Optional.empty() : responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            return pipelineMetrics.time("parse", () -> processAIResponse(activity, cached.get(), "single", null, 0));
+        }
 
+        long start = System.currentTimeMillis();
+        String aiResponse;
+        try {
+            aiResponse = pipelineMetrics.time("llm", () -> geminiService.getRecommendations(prompt, priority).block());
         } catch (Exception e) {
-            e.printStackTrace();
-            return createDefaultRecommendation(activity);
+            // circuit open or retries exhausted
+            log.warn("Gemini unavailable for activity {}: {}", activity.getId(), e.toString());
+            return ruleBasedRecommender.recommend(activity);
         }
+        long latencyMillis = System.currentTimeMillis() - start;
+        log.debug("RESPONSE FROM AI {} ", aiResponse);
+        return pipelineMetrics.time("parse", () -> processAIResponse(activity, aiResponse, "single", cacheKey, latencyMillis));
     }
 
-    private Recommendation createDefaultRecommendation(Activity activity) {
-        return Recommendation.builder()
-                .activityId(activity.getId())
-                .userId(activity.getUserId())
-                .type(activity.getType().toString())
-                .recommendation("Unable to generate detailed analysis")
-                .improvements(Collections.singletonList("Continue with your current routine"))
-                .suggestions(Collections.singletonList("Consider consulting a fitness consultant"))
-                .safety(Arrays.asList(
-                        "Always warm up before exercise",
-                        "Stay hydrated",
-                        "Listen to your body"
-                ))
-                .createdAt(LocalDateTime.now())
-                .build();
-    }
+    // same prompt as generateRecommendation, but the analysis text is handed to onChunk as it streams in
+    public Recommendation generateRecommendationStreaming(Activity activity, Consumer<String> onChunk) {
+        if (!geminiService.isAvailable()) {
+            return ruleBasedRecommender.recommend(activity);
+        }
 
-    private List<String> extractSafetyGuidelines(JsonNode safetyNode) {
-        List<String> safety = new ArrayList<>();
-        if (safetyNode.isArray()) {
-            safetyNode.forEach(item -> safety.add(item.asText()));
+        String prompt = pipelineMetrics.time("prompt", () -> createPromptForActivity(activity));
+        try {
+            String text = pipelineMetrics.time("llm", () -> geminiService.streamRecommendations(prompt)
+                    .doOnNext(onChunk)
+                    .collect(Collectors.joining())
+                    .block());
+            Counter.builder("ai.activities.analyzed")
+                    .tag("prompt", "stream")
+                    .register(meterRegistry)
+                    .increment();
+            long parseStart = System.nanoTime();
+            GeminiResponseParser.Analysis analysis;
+            try {
+                analysis = responseParser.readAnalysis(text);
+            } finally {
+                pipelineMetrics.record("parse", System.nanoTime() - parseStart);
+            }
+            if (!analysis.hasAnalysis()) {
+                log.warn("Streamed response for activity {} had no analysis", activity.getId());
+                return ruleBasedRecommender.recommend(activity);
+            }
+            return toRecommendation(activity, analysis);
+        } catch (Exception e) {
+            log.warn("Streaming analysis failed for activity {}: {}", activity.getId(), e.toString());
+            return ruleBasedRecommender.recommend(activity);
         }
-        return safety.isEmpty() ?
-                Collections.singletonList("Follow general safety guidelines") :
-                safety;
     }
 
-    private List<String> extractSuggestions(JsonNode suggestionsNode) {
-        List<String> suggestions = new ArrayList<>();
-        if (suggestionsNode.isArray()) {
-            suggestionsNode.forEach(suggestion -> {
-                String workout = suggestion.path("workout").asText();
-                String description = suggestion.path("description").asText();
-                suggestions.add(String.format("%s: %s", workout, description));
-            });
+    // one prompt for several activities; activities missing from the returned map could not be
+    // matched to a valid analysis and should be retried on their own. Throws when Gemini is
+    // unavailable or the response is unusable as a whole.
+    public Map<String, Recommendation> generateBatchRecommendations(List<Activity> activities, LlmPriority priority) {
+        if (!geminiService.isAvailable()) {
+            throw new RuntimeException("Gemini is unavailable");
         }
-        return suggestions.isEmpty() ?
-                Collections.singletonList("No specific suggestions provided") :
-                suggestions;
-    }
 
-    private List<String> extractImprovements(JsonNode improvementsNode) {
-        List<String> improvements = new ArrayList<>();
-        if (improvementsNode.isArray()) {
-            improvementsNode.forEach(improvement -> {
-                String area = improvement.path("area").asText();
-                String detail = improvement.path("recommendation").asText();
-                improvements.add(String.format("%s: %s", area, detail));
-            });
+        String prompt = pipelineMetrics.time("prompt", () -> createPromptForActivities(activities));
+        String aiResponse = pipelineMetrics.time("llm", () -> geminiService.getRecommendations(prompt, priority).block());
+        log.debug("BATCH RESPONSE FROM AI for {} activities: {}", activities.size(), aiResponse);
+
+        Map<String, Activity> byId = new HashMap<>();
+        activities.forEach(activity -> byId.put(activity.getId(), activity));
+
+        Map<String, Recommendation> recommendations = new HashMap<>();
+        long parseStart = System.nanoTime();
+        try {
+            GeminiResponseParser.Envelope envelope = responseParser.readEnvelope(aiResponse);
+            recordUsage(envelope, "batch", activities.size());
+
+            for (GeminiResponseParser.Analysis analysis : responseParser.readAnalyses(envelope.text())) {
+                Activity activity = analysis.activityId() == null ? null : byId.get(analysis.activityId());
+                if (activity == null || !analysis.hasAnalysis()) {
+                    continue;
+                }
+                recommendations.putIfAbsent(activity.getId(), toRecommendation(activity, analysis));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to parse batch response for " + activities.size() + " activities", e);
+        } finally {
+            pipelineMetrics.record("parse", System.nanoTime() - parseStart);
         }
-        return improvements.isEmpty() ?
-                Collections.singletonList("No specific improvements provided") :
-                improvements;
+        if (recommendations.isEmpty()) {
+            throw new RuntimeException("Batch response matched none of the " + activities.size() + " activities");
+        }
+        return recommendations;
+    }
 
+    // an unusable response gets the rule-based recommendation, flagged as such, so it never
+    // replaces a stored analysis on backfill nor becomes a reuse candidate; only a response that
+    // parsed into an analysis is cached under cacheKey, when one is given
+    private Recommendation processAIResponse(Activity activity, String aiResponse, String usageTag,
+                                             String cacheKey, long latencyMillis) {
+        try {
+            GeminiResponseParser.Envelope envelope = responseParser.readEnvelope(aiResponse);
+            if (usageTag != null) {
+                recordUsage(envelope, usageTag, 1);
+            }
+            GeminiResponseParser.Analysis analysis = responseParser.readAnalysis(envelope.text());
+            if (analysis.hasAnalysis()) {
+                if (cacheKey != null) {
+                    responseCache.put(cacheKey, aiResponse, latencyMillis);
+                }
+                return toRecommendation(activity, analysis);
+            }
+            log.warn("AI response for activity {} had no analysis", activity.getId());
+        } catch (Exception e) {
+            log.warn("Failed to parse AI response for activity {}", activity.getId(), e);
+        }
+        return ruleBasedRecommender.recommend(activity);
     }
 
-    //    "overall": "This was an excellent"
-    // Overall: This was an excellent
-    private void addAnalysisSection(StringBuilder fullAnalysis, JsonNode analysisNode, String key, String prefix) {
-    if (!analysisNode.path(key).isMissingNode()){
-     fullAnalysis.append(prefix)
-             .append(analysisNode.path(key).asText())
-             .append("\n\n");
+    private Recommendation toRecommendation(Activity activity, GeminiResponseParser.Analysis analysis) {
+        return Recommendation.builder()
+                .activityId(activity.getId())
+                .userId(activity.getUserId())
+                .type(activity.getType().toString())
+                .recommendation(analysis.recommendation())
+                .improvements(analysis.improvements())
+                .suggestions(analysis.suggestions())
+                .safety(analysis.safety())
+                .createdAt(LocalDateTime.now())
+                .build();
     }
+
+    // cache hits carry the usageMetadata of the call that produced them
+    private void recordUsage(GeminiResponseParser.Envelope envelope, String prompt, int activities) {
+        Counter.builder("ai.activities.analyzed")
+                .tag("prompt", prompt)
+                .register(meterRegistry)
+                .increment(activities);
+
+        if (envelope.totalTokens() >= 0) {
+            DistributionSummary.builder("ai.tokens.per.activity")
+                    .tag("prompt", prompt)
+                    .register(meterRegistry)
+                    .record((double) envelope.totalTokens() / activities);
+        }
     }
 
     private String createPromptForActivity(Activity activity) {
@@ -184,94 +231,90 @@ public class ActivityAIService {
         );
     }
 
-    public Recommendation generateUserCombinedRecommendation(String userId, List<Recommendation> recs) {
-        try {
-            String existingRecsJson = objectMapper.writeValueAsString(recs);
-
-            String prompt = createPromptForUserFromRecommendations(userId, existingRecsJson);
-            String aiResponse = geminiService.getRecommendations(prompt);
-            log.info("USER-LEVEL RESPONSE FROM AI: {}", aiResponse);
+    // the format instructions are sent once for the whole batch instead of once per activity
+    private String createPromptForActivities(List<Activity> activities) {
+        StringBuilder prompt = new StringBuilder("""
+        Analyze each of the following fitness activities and provide detailed recommendations.
+        Return ONLY a JSON array with exactly one element per activity, in the following EXACT JSON format:
+        [
+          {
+            "activityId": "Activity ID exactly as given below",
+            "analysis": {
+              "overall": "Overall analysis here",
+              "pace": "Pace analysis here",
+              "heartRate": "Heart rate analysis here",
+              "caloriesBurned": "Calories analysis here"
+            },
+            "improvements": [
+              {
+                "area": "Area name",
+                "recommendation": "Detailed recommendation"
+              }
+            ],
+            "suggestions": [
+              {
+                "workout": "Workout name",
+                "description": "Detailed workout description"
+              }
+            ],
+            "safety": [
+              "Safety point 1",
+              "Safety point 2"
+            ]
+          }
+        ]
+
+        Analyze these activities:
+        """);
+        for (Activity activity : activities) {
+            prompt.append(String.format("- Activity ID: %s | Activity Type: %s | Duration: %d minutes | Calories Burned: %d | Additional Metrics: %s%n",
+                    activity.getId(),
+                    activity.getType(),
+                    activity.getDuration(),
+                    activity.getCaloriesBurned(),
+                    activity.getAdditionalMetrics()));
+        }
+        prompt.append("""
 
-            // Use dummy activity just to reuse processAIResponse()
-            Activity dummy = new Activity();
-            dummy.setId(null);
-            dummy.setUserId(userId);
-            dummy.setType(ActivityType.OTHER);
-            dummy.setDuration(null);
-            dummy.setCaloriesBurned(null);
-            dummy.setAdditionalMetrics(Map.of("recommendationsCount", recs.size()));
+        Analyze every activity independently, focusing on performance, improvements, next workout suggestions, and safety guidelines.
+        Ensure the response follows the EXACT JSON format shown above.
+        """);
+        return prompt.toString();
+    }
 
-            Recommendation combined = processAIResponse(dummy, aiResponse);
-            combined.setType("USER_SUMMARY");   // mark it as a combined one
-            return combined;
-        } catch (Exception e) {
-            e.printStackTrace();
-            // Fallback if AI fails
-            return Recommendation.builder()
+    // empty when Gemini or the parse fails; the caller keeps the previous summary rather than storing a placeholder
+    public Optional<Recommendation> generateUserCombinedRecommendation(String userId, UserDigest digest) {
+        try {
+            String prompt = userSummaryPromptBuilder.build(userId, digest);
+            DistributionSummary.builder("ai.user-summary.prompt.bytes")
+                    .baseUnit("bytes")
+                    .register(meterRegistry)
+                    .record(prompt.length());
+
+            long start = System.nanoTime();
+            String aiResponse = geminiService.getRecommendations(prompt, LlmPriority.USER_SUMMARY).block();
+            Timer.builder("ai.user-summary.latency")
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.debug("USER-LEVEL RESPONSE FROM AI: {}", aiResponse);
+
+            GeminiResponseParser.Analysis analysis = responseParser.readAnalysis(responseParser.readEnvelope(aiResponse).text());
+            if (!analysis.hasAnalysis()) {
+                log.warn("Combined recommendation for user {} has no analysis", userId);
+                return Optional.empty();
+            }
+            return Optional.of(Recommendation.builder()
                     .userId(userId)
                     .type("USER_SUMMARY")
-                    .recommendation("Unable to generate combined recommendation from existing records.")
-                    .improvements(Collections.singletonList("Review individual activity recommendations."))
-                    .suggestions(Collections.singletonList("Continue tracking workouts and recommendations."))
-                    .safety(Arrays.asList(
-                            "Warm up properly",
-                            "Stay hydrated",
-                            "Listen to your body"
-                    ))
+                    .recommendation(analysis.recommendation())
+                    .improvements(analysis.improvements())
+                    .suggestions(analysis.suggestions())
+                    .safety(analysis.safety())
                     .createdAt(LocalDateTime.now())
-                    .build();
-        }
-    }
-
-    private String createPromptForUserFromRecommendations(String userId, String recsJsonArray) {
-        return String.format("""
-        You are an expert fitness coach.
-
-        Below is the FULL list of activity-level recommendations for a user.
-        Each item already contains:
-        - activity type
-        - detailed recommendation text
-        - improvements
-        - suggestions
-        - safety tips
-
-        USER ID: %s
-
-        ACTIVITY-LEVEL RECOMMENDATIONS (JSON ARRAY):
-        %s
-
-        Using ALL of the information above, create ONE combined recommendation for this user.
-
-        Return the result in the EXACT JSON format below (NO extra text, NO markdown):
-
-        {
-          "analysis": {
-            "overall": "Overall analysis for the user",
-            "pace": "Overall comments on user's pace across activities",
-            "heartRate": "Overall comments on heart rate / intensity consistency",
-            "caloriesBurned": "Overall comments on calorie burn patterns"
-          },
-          "improvements": [
-            {
-              "area": "Key area to improve (e.g., Intensity, Consistency, Data Tracking)",
-              "recommendation": "Detailed combined recommendation for this area"
-            }
-          ],
-          "suggestions": [
-            {
-              "workout": "Suggested workout type",
-              "description": "Detailed description of what the user should do"
-            }
-          ],
-          "safety": [
-            "Important global safety guideline for this user",
-            "Another key safety point"
-          ]
+                    .build());
+        } catch (Exception e) {
+            log.warn("Failed to generate combined recommendation for user {}: {}", userId, e.toString());
+            return Optional.empty();
         }
-
-        Focus on patterns across ALL activities (e.g., low intensity, poor tracking, consistency).
-        """, userId, recsJsonArray);
     }
-
-
 }
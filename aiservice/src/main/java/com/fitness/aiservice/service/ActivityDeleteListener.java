@@ -1,28 +1,123 @@
 package com.fitness.aiservice.service;
 
-import com.fitness.aiservice.model.Activity;
-import com.fitness.aiservice.respository.RecommendationRepository;
-import lombok.RequiredArgsConstructor;
+import com.fitness.aiservice.model.ActivityDeleteEvent;
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class ActivityDeleteListener {
 
-    private final RecommendationRepository recommendationRepository;
+    private final MongoTemplate mongoTemplate;
+    private final UserRecommendationRefresher userRecommendationRefresher;
+    private final UserDigestService userDigestService;
+    private final ActivitySimilarityIndex similarityIndex;
+
+    private final DistributionSummary batchSize;
+    private final Counter deleted;
+    private final Timer eventAge;
+
+    public ActivityDeleteListener(MongoTemplate mongoTemplate,
+                                  UserRecommendationRefresher userRecommendationRefresher,
+                                  UserDigestService userDigestService,
+                                  ActivitySimilarityIndex similarityIndex,
+                                  MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.userRecommendationRefresher = userRecommendationRefresher;
+        this.userDigestService = userDigestService;
+        this.similarityIndex = similarityIndex;
+        this.batchSize = DistributionSummary.builder("ai.delete.batch.size").register(meterRegistry);
+        this.deleted = Counter.builder("ai.delete.recommendations").register(meterRegistry);
+        // how far behind the producer the consumer is, in time rather than offsets
+        this.eventAge = Timer.builder("ai.delete.event.age").register(meterRegistry);
+    }
 
+    // one find and one remove per batch; the digest is corrected before the recommendations are
+    // removed, so a failure leaves them in place for the redelivery, and UserDigestService.remove
+    // ignores activities it already took out, so repeating it cannot count a delete twice
     @KafkaListener(
             topics = "${kafka.topic.delete-name}",
-            groupId = "activity-delete-processor-group"
+            groupId = "activity-delete-processor-group",
+            containerFactory = "batchListenerContainerFactory",
+            properties = {
+                    "spring.json.value.default.type=com.fitness.aiservice.model.ActivityDeleteEvent",
+                    "max.poll.records=${ai.delete.max-poll-records:1000}"
+            }
     )
-    public void handleActivityDelete(Activity activity) {
-        String activityId = activity.getId();
-        log.info("Received delete event for activityId: {}", activityId);
+    public void handleActivityDeletes(List<ConsumerRecord<String, ActivityDeleteEvent>> records) {
+        long now = System.currentTimeMillis();
+        batchSize.record(records.size());
+
+        // first record index per activity, to name the failing record to the error handler
+        Map<String, Integer> indexes = new LinkedHashMap<>();
+        for (int index = 0; index < records.size(); index++) {
+            ConsumerRecord<String, ActivityDeleteEvent> record = records.get(index);
+            eventAge.record(Duration.ofMillis(Math.max(0, now - record.timestamp())));
+            String activityId = record.value() != null && record.value().getId() != null
+                    ? record.value().getId()
+                    : record.key();
+            if (activityId != null) {
+                indexes.putIfAbsent(activityId, index);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return;
+        }
+        indexes.keySet().forEach(similarityIndex::remove);
+
+        Query byActivity = Query.query(Criteria.where("activityId").in(indexes.keySet()));
+        List<Recommendation> recommendations = new ArrayList<>(mongoTemplate.find(byActivity, Recommendation.class));
+        recommendations.sort(Comparator.comparing(rec -> indexes.get(rec.getActivityId())));
+        Set<String> userIds = new LinkedHashSet<>();
+        for (Recommendation recommendation : recommendations) {
+            try {
+                userDigestService.remove(recommendation);
+            } catch (RuntimeException e) {
+                // the records before this one are committed, so their recommendations go now;
+                // this one is retried, then dead-lettered
+                int failed = indexes.get(recommendation.getActivityId());
+                List<String> done = indexes.entrySet().stream()
+                        .filter(entry -> entry.getValue() < failed)
+                        .map(Map.Entry::getKey)
+                        .toList();
+                if (!done.isEmpty()) {
+                    deleted.increment(mongoTemplate.remove(
+                            Query.query(Criteria.where("activityId").in(done)), Recommendation.class).getDeletedCount());
+                }
+                userIds.forEach(userRecommendationRefresher::markStale);
+                throw new BatchListenerFailedException("Failed to delete the recommendation of activity "
+                        + recommendation.getActivityId(), e, failed);
+            }
+            if (recommendation.getUserId() != null) {
+                userIds.add(recommendation.getUserId());
+            }
+        }
 
-        recommendationRepository.deleteByActivityId(activityId);
-        log.info("Deleted recommendation(s) for activityId: {}", activityId);
+        long removed = recommendations.isEmpty() ? 0 : mongoTemplate.remove(byActivity, Recommendation.class).getDeletedCount();
+        deleted.increment(removed);
+        userIds.forEach(userRecommendationRefresher::markStale);
+        if (removed > 0) {
+            log.info("Deleted {} recommendation(s) for {} delete event(s)", removed, records.size());
+        }
     }
 }
@@ -1,14 +1,22 @@
 package com.fitness.aiservice.service;
 
+import com.fitness.aiservice.config.RecommendationRulesProperties;
+import com.fitness.aiservice.llm.LlmPriority;
 import com.fitness.aiservice.model.Activity;
 import com.fitness.aiservice.model.Recommendation;
 import com.fitness.aiservice.respository.RecommendationRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.Optional;
+
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -16,22 +24,172 @@ public class ActivityMessageListener {
 
     private final ActivityAIService activityAIService;
     private final RecommendationRepository recommendationRepository;
+    private final UserRecommendationRefresher userRecommendationRefresher;
+    private final KeyOrderedExecutor keyOrderedExecutor;
+    private final RecommendationBatcher recommendationBatcher;
+    private final RuleBasedRecommender ruleBasedRecommender;
+    private final RecommendationRulesProperties rulesProperties;
+    private final UserDigestService userDigestService;
+    private final RecommendationStreamRegistry streamRegistry;
+    private final RecommendationWriter recommendationWriter;
+    private final ActivitySimilarityIndex similarityIndex;
+    private final PipelineMetrics pipelineMetrics;
+    private final ConsumerRecordRecoverer deadLetterRecoverer;
+
+    @Value("${ai.processing.parallel.enabled:true}")
+    private boolean parallel;
+
+    @Value("${ai.batch.enabled:true}")
+    private boolean batching;
+
+    @Value("${ai.processing.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ai.processing.retry.backoff-ms:1000}")
+    private long backoffMillis;
+
+    // records are keyed by user id, so one user's activities stay in order while
+    // different users are analysed concurrently
+    @KafkaListener(topics = "${kafka.topic.name}", groupId = "activity-processor-group",
+            containerFactory = "activityListenerContainerFactory")
+    public void onActivity(ConsumerRecord<String, Activity> record, Acknowledgment acknowledgment) throws InterruptedException {
+        Long savedAt = pipelineMetrics.savedAt(record);
+        if (!parallel) {
+            processActivity(record.value());
+            pipelineMetrics.recordEndToEnd(savedAt);
+            acknowledgment.acknowledge();
+            return;
+        }
+
+        long received = System.nanoTime();
+        keyOrderedExecutor.submit(record.key(), () -> {
+            pipelineMetrics.record("queue", System.nanoTime() - received);
+            try {
+                if (processWithRetry(record)) {
+                    pipelineMetrics.recordEndToEnd(savedAt);
+                }
+            } finally {
+                acknowledgment.acknowledge();
+            }
+        });
+    }
+
+    // the inline path gets the same policy from the container's error handler
+    private boolean processWithRetry(ConsumerRecord<String, Activity> record) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                processActivity(record.value());
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    log.error("Giving up on activity record {}-{}@{} after {} attempts",
+                            record.topic(), record.partition(), record.offset(), attempt, e);
+                    deadLetterRecoverer.accept(record, e);
+                    return false;
+                }
+                log.warn("Processing activity record {}-{}@{} failed, attempt {} of {}",
+                        record.topic(), record.partition(), record.offset(), attempt, maxAttempts, e);
+                try {
+                    Thread.sleep(backoffMillis << (attempt - 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    deadLetterRecoverer.accept(record, e);
+                    return false;
+                }
+            }
+        }
+    }
 
-    @KafkaListener(topics = "${kafka.topic.name}", groupId = "activity-processor-group")
     public void processActivity(Activity activity) {
         log.info("Received Activity for processing: {}", activity.getUserId());
-        Recommendation recommendation = activityAIService.generateRecommendation(activity);
-        recommendationRepository.findByActivityId(activity.getId())
-                .ifPresentOrElse(existing -> {
-                    // 🔄 update existing recommendation
-                    existing.setRecommendation(recommendation.getRecommendation());
-                    existing.setImprovements(recommendation.getImprovements());
-                    existing.setSuggestions(recommendation.getSuggestions());
-                    existing.setSafety(recommendation.getSafety());
-                    existing.setCreatedAt(recommendation.getCreatedAt());
-                    recommendationRepository.save(existing);
-                }, () -> {
-                    recommendationRepository.save(recommendation);
-                });
+        process(activity, false);
+    }
+
+    // re-analysis of a stored activity: lowest LLM priority, and never satisfied by reusing
+    // a similar activity's recommendation, which is what the backfill is replacing. Throws
+    // instead of overwriting the stored recommendation when Gemini fails
+    public void reprocessActivity(Activity activity) {
+        process(activity, true);
+    }
+
+    private void process(Activity activity, boolean backfill) {
+        // only picks the LLM priority and whether to show a placeholder; the digest works from
+        // the document the upsert below actually replaced
+        boolean firstAnalysis = !isUpdate(activity);
+
+        Recommendation recommendation;
+        Optional<Recommendation> reused;
+        if (ruleBasedRecommender.isRulesOnly(activity)) {
+            recommendation = ruleBasedRecommender.recommend(activity);
+        } else if (!backfill && (reused = reuseSimilar(activity)).isPresent()) {
+            recommendation = reused.get();
+        } else {
+            // users see the rule-based analysis right away; the Gemini one replaces it below
+            if (rulesProperties.isProvisional() && firstAnalysis && !backfill) {
+                recommendationWriter.insertIfAbsent(ruleBasedRecommender.provisional(activity));
+            }
+            if (streamRegistry.isWatched(activity.getId())) {
+                // someone is waiting on the SSE stream, so trade batching for time to first token
+                recommendation = activityAIService.generateRecommendationStreaming(activity,
+                        chunk -> streamRegistry.emitChunk(activity.getId(), chunk));
+            } else {
+                LlmPriority priority = backfill ? LlmPriority.BACKFILL
+                        : firstAnalysis ? LlmPriority.NEW_ACTIVITY : LlmPriority.UPDATE;
+                recommendation = batching
+                        ? recommendationBatcher.submit(activity, priority).join()
+                        : activityAIService.generateRecommendation(activity, priority);
+            }
+        }
+
+        if (backfill && recommendation.isRuleBased() && !ruleBasedRecommender.isRulesOnly(activity)) {
+            // Gemini failed; the stored analysis is better than the rule-based fallback, so leave it
+            throw new RuntimeException("Gemini analysis of activity " + activity.getId() + " failed, kept the existing recommendation");
+        }
+
+        recommendation.setDuration(activity.getDuration());
+        recommendation.setCaloriesBurned(activity.getCaloriesBurned());
+        Recommendation replaced = pipelineMetrics.time("persist", () -> recommendationWriter.upsert(recommendation));
+        // a placeholder left by an earlier attempt was never counted in the digest
+        Recommendation previous = replaced == null || replaced.isProvisional() ? null : replaced;
+        streamRegistry.complete(activity.getId(), recommendation);
+        // only original Gemini analyses become reuse candidates, never copies or rule-based fallbacks
+        if (!recommendation.isRuleBased() && recommendation.getReusedFrom() == null) {
+            similarityIndex.add(activity);
+        } else {
+            similarityIndex.remove(activity.getId());
+        }
+        userDigestService.record(activity, recommendation, previous);
+        userRecommendationRefresher.markStale(activity.getUserId());
+    }
+
+    // auditing stamps both dates with the same instant when the activity is created
+    private static boolean isUpdate(Activity activity) {
+        return activity.getCreatedAt() != null && activity.getUpdatedAt() != null
+                && activity.getUpdatedAt().isAfter(activity.getCreatedAt());
+    }
+
+    private Optional<Recommendation> reuseSimilar(Activity activity) {
+        return similarityIndex.findSimilar(activity)
+                .flatMap(match -> {
+                    Optional<Recommendation> neighbour = recommendationRepository.findByActivityId(match.activityId())
+                            .filter(rec -> !rec.isProvisional() && !rec.isRuleBased());
+                    if (neighbour.isEmpty()) {
+                        similarityIndex.remove(match.activityId());
+                    }
+                    return neighbour;
+                })
+                // the advice carries over, but the analysis quotes the neighbour's numbers, so it is
+                // rebuilt from this activity's own metrics
+                .map(neighbour -> Recommendation.builder()
+                        .activityId(activity.getId())
+                        .userId(activity.getUserId())
+                        .type(activity.getType().toString())
+                        .recommendation(ruleBasedRecommender.recommend(activity).getRecommendation())
+                        .improvements(neighbour.getImprovements())
+                        .suggestions(neighbour.getSuggestions())
+                        .safety(neighbour.getSafety())
+                        .reusedFrom(neighbour.getActivityId())
+                        .createdAt(LocalDateTime.now())
+                        .build());
     }
 }
@@ -0,0 +1,275 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory nearest-neighbour index over analysed activities, used to find an earlier
+ * activity of the same user close enough to a new one that its advice can be reused.
+ * Recommendations never cross users: another user's advice may rest on their profile.
+ *
+ * Each activity becomes a small vector: log duration, log calories, log distance and
+ * heart rate / 100, so a distance of 0.1 is roughly a 10% difference in one of the first
+ * three or 10 bpm in heart rate. A user keeps at most {@code max-entries-per-user} of their
+ * latest activities, and the whole index at most {@code max-entries} (a few hundred bytes each).
+ *
+ * The index is snapshotted to disk periodically and on shutdown and loaded on startup.
+ */
+@Component
+@Slf4j
+public class ActivitySimilarityIndex {
+
+    private static final int DIMENSIONS = 4;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final boolean enabled;
+    private final double maxDistance;
+    private final int maxEntriesPerUser;
+    private final long maxEntries;
+    private final Path snapshotPath;
+
+    private final Map<String, Entry> byActivity = new ConcurrentHashMap<>();
+    // oldest first; replaced rather than mutated so lookups can scan without locking
+    private final Map<String, List<Entry>> byUser = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter rejected;
+    private final Timer lookupLatency;
+
+    public ActivitySimilarityIndex(MeterRegistry meterRegistry,
+                                   @Value("${ai.similarity.enabled:true}") boolean enabled,
+                                   @Value("${ai.similarity.max-distance:0.15}") double maxDistance,
+                                   @Value("${ai.similarity.max-entries-per-user:200}") int maxEntriesPerUser,
+                                   @Value("${ai.similarity.max-entries:500000}") long maxEntries,
+                                   @Value("${ai.similarity.snapshot-path:data/similarity-index.bin}") String snapshotPath) {
+        this.enabled = enabled;
+        this.maxDistance = maxDistance;
+        this.maxEntriesPerUser = maxEntriesPerUser;
+        this.maxEntries = maxEntries;
+        this.snapshotPath = Path.of(snapshotPath);
+
+        this.hits = Counter.builder("ai.similarity.lookups").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("ai.similarity.lookups").tag("result", "miss").register(meterRegistry);
+        this.rejected = Counter.builder("ai.similarity.rejected")
+                .description("Activities not indexed because the index was full")
+                .register(meterRegistry);
+        this.lookupLatency = Timer.builder("ai.similarity.lookup.latency")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("ai.similarity.size", byActivity, Map::size).register(meterRegistry);
+    }
+
+    public record Match(String activityId, double distance) {
+    }
+
+    public Optional<Match> findSimilar(Activity activity) {
+        if (!enabled || activity.getUserId() == null) {
+            return Optional.empty();
+        }
+        float[] vector = vector(activity);
+        if (vector == null) {
+            return Optional.empty();
+        }
+
+        long start = System.nanoTime();
+        Entry best = null;
+        double bestDistance = maxDistance;
+        for (Entry candidate : byUser.getOrDefault(activity.getUserId(), List.of())) {
+            if (candidate.type() != activity.getType() || candidate.activityId().equals(activity.getId())) {
+                continue;
+            }
+            double distance = distance(vector, candidate.vector());
+            if (distance <= bestDistance) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        lookupLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        if (best == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(new Match(best.activityId(), bestDistance));
+    }
+
+    // re-adding an activity moves it to its new position and makes it the user's latest
+    public void add(Activity activity) {
+        if (!enabled) {
+            return;
+        }
+        float[] vector = vector(activity);
+        if (vector == null || activity.getUserId() == null) {
+            remove(activity.getId());
+            return;
+        }
+        Entry entry = new Entry(activity.getId(), activity.getUserId(), activity.getType(), vector);
+        Entry previous = byActivity.put(entry.activityId(), entry);
+        if (previous != null) {
+            unlink(previous);
+        } else if (byActivity.size() > maxEntries) {
+            byActivity.remove(entry.activityId(), entry);
+            rejected.increment();
+            return;
+        }
+        link(entry);
+        dirty.set(true);
+    }
+
+    public void remove(String activityId) {
+        Entry entry = byActivity.remove(activityId);
+        if (entry != null) {
+            unlink(entry);
+            dirty.set(true);
+        }
+    }
+
+    private void link(Entry entry) {
+        List<Entry> evicted = new ArrayList<>();
+        byUser.compute(entry.userId(), (userId, entries) -> {
+            List<Entry> updated = new ArrayList<>(entries == null ? List.of() : entries);
+            updated.add(entry);
+            while (updated.size() > maxEntriesPerUser) {
+                evicted.add(updated.remove(0));
+            }
+            return List.copyOf(updated);
+        });
+        evicted.forEach(old -> byActivity.remove(old.activityId(), old));
+    }
+
+    private void unlink(Entry entry) {
+        byUser.computeIfPresent(entry.userId(), (userId, entries) -> {
+            List<Entry> updated = new ArrayList<>(entries);
+            updated.remove(entry);
+            return updated.isEmpty() ? null : List.copyOf(updated);
+        });
+    }
+
+    // null when the activity lacks the basics to compare it by
+    private static float[] vector(Activity activity) {
+        if (activity.getId() == null || activity.getType() == null
+                || activity.getDuration() == null || activity.getDuration() <= 0
+                || activity.getCaloriesBurned() == null || activity.getCaloriesBurned() < 0) {
+            return null;
+        }
+        Double distance = RuleBasedRecommender.metric(activity, "distance");
+        Double heartRate = RuleBasedRecommender.metric(activity, "averageHeartRate", "heartRate");
+        return new float[]{
+                (float) Math.log1p(activity.getDuration()),
+                (float) Math.log1p(activity.getCaloriesBurned()),
+                distance == null || distance < 0 ? 0f : (float) Math.log1p(distance),
+                heartRate == null || heartRate < 0 ? 0f : (float) (heartRate / 100)
+        };
+    }
+
+    private static double distance(float[] a, float[] b) {
+        double sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double diff = a[d] - b[d];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    @PostConstruct
+    void load() {
+        if (!enabled || !Files.exists(snapshotPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring similarity index snapshot {} with an unknown version", snapshotPath);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String activityId = in.readUTF();
+                String userId = in.readUTF();
+                ActivityType type = ActivityType.valueOf(in.readUTF());
+                float[] vector = new float[DIMENSIONS];
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    vector[d] = in.readFloat();
+                }
+                if (userId.isEmpty() || byActivity.size() >= maxEntries) {
+                    continue;
+                }
+                Entry entry = new Entry(activityId, userId, type, vector);
+                byActivity.put(activityId, entry);
+                link(entry);
+            }
+            log.info("Loaded {} activities into the similarity index from {}", byActivity.size(), snapshotPath);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Could not load similarity index snapshot {}, starting empty", snapshotPath, e);
+            byActivity.clear();
+            byUser.clear();
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${ai.similarity.snapshot-interval-ms:300000}")
+    public void snapshot() {
+        if (!enabled || !dirty.getAndSet(false)) {
+            return;
+        }
+        // written aside and moved into place, so a crash never leaves a torn snapshot
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try {
+            if (snapshotPath.getParent() != null) {
+                Files.createDirectories(snapshotPath.getParent());
+            }
+            int written = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                // user by user, oldest first, so the per-user eviction order survives a restart
+                List<Entry> entries = byUser.values().stream().flatMap(List::stream).toList();
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeUTF(entry.activityId());
+                    out.writeUTF(entry.userId());
+                    out.writeUTF(entry.type().name());
+                    for (float value : entry.vector()) {
+                        out.writeFloat(value);
+                    }
+                    written++;
+                }
+            }
+            Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Wrote {} activities to similarity index snapshot {}", written, snapshotPath);
+        } catch (IOException e) {
+            dirty.set(true);
+            log.warn("Could not write similarity index snapshot {}", snapshotPath, e);
+        }
+    }
+
+    private record Entry(String activityId, String userId, ActivityType type, float[] vector) {
+    }
+}
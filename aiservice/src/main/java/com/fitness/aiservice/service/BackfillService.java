@@ -0,0 +1,397 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.BackfillJob;
+import com.fitness.aiservice.model.BackfillLease;
+import com.fitness.aiservice.model.BackfillProgress;
+import com.fitness.aiservice.model.BackfillState;
+import com.fitness.aiservice.respository.BackfillJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Re-analyses every stored activity, e.g. after a prompt change, without replaying Kafka.
+ *
+ * Activities are read from the activity service in id order, one page at a time, and run
+ * through the normal processing path at {@code BACKFILL} priority, so the LLM scheduler
+ * keeps them within their share of the quota. Progress is checkpointed in Mongo after
+ * every page; a job left RUNNING by an instance that stopped or crashed is taken over on
+ * startup, or by whichever instance next checks once the dead instance's lease has expired
+ * (every {@code takeover-interval-ms}), and at most the page in progress is analysed twice.
+ *
+ * Only one instance runs a backfill at a time: it holds a lease document in Mongo, renewed
+ * every third of {@code lease-seconds}, and another instance can only take the lease over
+ * once it has expired. An instance that fails to renew stops without checkpointing.
+ */
+@Service
+@Slf4j
+public class BackfillService {
+
+    private static final String LEASE_ID = "backfill";
+
+    private final BackfillJobRepository backfillJobRepository;
+    private final MongoTemplate mongoTemplate;
+    private final WebClient activityServiceWebClient;
+    private final ActivityMessageListener activityMessageListener;
+    private final KeyOrderedExecutor keyOrderedExecutor;
+
+    private final int pageSize;
+    private final int parallelism;
+    private final Duration fetchTimeout;
+    private final Duration leaseDuration;
+    private final String owner = UUID.randomUUID().toString();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+    private final Counter processedCounter;
+    private final Counter failedCounter;
+
+    private volatile Thread runner;
+    private volatile boolean pauseRequested;
+    private volatile boolean leaseLost;
+    private volatile ScheduledFuture<?> renewal;
+    // throughput of the current run, for the ETA
+    private volatile long runStartNanos;
+    private volatile long runStartDone;
+
+    public BackfillService(BackfillJobRepository backfillJobRepository,
+                           MongoTemplate mongoTemplate,
+                           @Qualifier("activityServiceWebClient") WebClient activityServiceWebClient,
+                           ActivityMessageListener activityMessageListener,
+                           KeyOrderedExecutor keyOrderedExecutor,
+                           MeterRegistry meterRegistry,
+                           @Value("${ai.backfill.page-size:100}") int pageSize,
+                           @Value("${ai.backfill.parallelism:4}") int parallelism,
+                           @Value("${ai.backfill.fetch-timeout-seconds:30}") long fetchTimeoutSeconds,
+                           @Value("${ai.backfill.lease-seconds:60}") long leaseSeconds) {
+        this.backfillJobRepository = backfillJobRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.activityServiceWebClient = activityServiceWebClient;
+        this.activityMessageListener = activityMessageListener;
+        this.keyOrderedExecutor = keyOrderedExecutor;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+        this.fetchTimeout = Duration.ofSeconds(fetchTimeoutSeconds);
+        this.leaseDuration = Duration.ofSeconds(leaseSeconds);
+        this.processedCounter = Counter.builder("ai.backfill.activities").tag("result", "processed").register(meterRegistry);
+        this.failedCounter = Counter.builder("ai.backfill.activities").tag("result", "failed").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${ai.backfill.takeover-interval-ms:30000}",
+            initialDelayString = "${ai.backfill.takeover-interval-ms:30000}")
+    public synchronized void resumeInterrupted() {
+        if (isRunning()) {
+            return;
+        }
+        backfillJobRepository.findFirstByOrderByStartedAtDesc()
+                .filter(job -> job.getState() == BackfillState.RUNNING)
+                .ifPresent(job -> {
+                    // live while its runner renews it; expires when that instance died
+                    if (!acquireLease()) {
+                        log.debug("Backfill {} is running on another instance", job.getId());
+                        return;
+                    }
+                    log.info("Resuming backfill {} after activity {}", job.getId(), job.getCursor());
+                    launch(job);
+                });
+    }
+
+    public synchronized BackfillProgress start() {
+        if (isRunning()) {
+            throw new RuntimeException("A backfill is already running");
+        }
+        long total = countActivities();
+        if (!acquireLease()) {
+            throw new RuntimeException("A backfill is already running on another instance");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        BackfillJob job = backfillJobRepository.save(BackfillJob.builder()
+                .state(BackfillState.RUNNING)
+                .total(total)
+                .startedAt(now)
+                .updatedAt(now)
+                .build());
+        log.info("Starting backfill {} over {} activities", job.getId(), job.getTotal());
+        launch(job);
+        return toProgress(job);
+    }
+
+    // takes effect once the activities already handed out are done; the job then checkpoints
+    public synchronized BackfillProgress pause() {
+        BackfillJob job = latestJob();
+        if (isRunning()) {
+            pauseRequested = true;
+        } else if (job.getState() == BackfillState.RUNNING) {
+            job.setState(BackfillState.PAUSED);
+            job.setUpdatedAt(LocalDateTime.now());
+            backfillJobRepository.save(job);
+        }
+        return toProgress(job);
+    }
+
+    public synchronized BackfillProgress resume() {
+        BackfillJob job = latestJob();
+        if (isRunning()) {
+            pauseRequested = false;
+            return toProgress(job);
+        }
+        if (job.getState() == BackfillState.COMPLETED) {
+            throw new RuntimeException("Backfill " + job.getId() + " has already completed");
+        }
+        if (!acquireLease()) {
+            throw new RuntimeException("Backfill " + job.getId() + " is running on another instance");
+        }
+        job.setState(BackfillState.RUNNING);
+        job.setLastError(null);
+        job.setUpdatedAt(LocalDateTime.now());
+        backfillJobRepository.save(job);
+        launch(job);
+        return toProgress(job);
+    }
+
+    public BackfillProgress progress() {
+        return toProgress(latestJob());
+    }
+
+    @PreDestroy
+    void stop() {
+        // the job stays RUNNING in Mongo and is picked up again on the next startup
+        Thread current = runner;
+        if (current != null) {
+            current.interrupt();
+        }
+        heartbeat.shutdownNow();
+    }
+
+    // callers hold the lease
+    private void launch(BackfillJob job) {
+        pauseRequested = false;
+        leaseLost = false;
+        long renewMillis = Math.max(1, leaseDuration.toMillis() / 3);
+        renewal = heartbeat.scheduleAtFixedRate(this::renewLease, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+        runStartNanos = System.nanoTime();
+        runStartDone = job.getProcessed() + job.getFailed();
+        runner = Thread.ofPlatform().name("backfill-" + job.getId()).daemon().start(() -> run(job));
+    }
+
+    private void run(BackfillJob job) {
+        Semaphore permits = new Semaphore(parallelism);
+        try {
+            while (!pauseRequested && !leaseLost) {
+                List<Activity> page = fetchPage(job.getCursor());
+                if (page.isEmpty()) {
+                    job.setState(BackfillState.COMPLETED);
+                    job.setCompletedAt(LocalDateTime.now());
+                    log.info("Backfill {} completed: {} processed, {} failed", job.getId(), job.getProcessed(), job.getFailed());
+                    break;
+                }
+
+                AtomicLong processed = new AtomicLong();
+                AtomicLong failed = new AtomicLong();
+                // workers only touch these; the job document is updated by this thread alone
+                AtomicReference<String> lastError = new AtomicReference<>();
+                List<CompletableFuture<Void>> pending = new ArrayList<>();
+                String lastSubmitted = null;
+                for (Activity activity : page) {
+                    if (pauseRequested) {
+                        break;
+                    }
+                    permits.acquire();
+                    CompletableFuture<Void> done = new CompletableFuture<>();
+                    // same lane as live events, so a backfill never races a user's own update
+                    keyOrderedExecutor.submit(activity.getUserId(), () -> {
+                        try {
+                            activityMessageListener.reprocessActivity(activity);
+                            processed.incrementAndGet();
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            lastError.set(e.getMessage());
+                            log.warn("Backfill of activity {} failed", activity.getId(), e);
+                        } finally {
+                            permits.release();
+                            done.complete(null);
+                        }
+                    });
+                    pending.add(done);
+                    lastSubmitted = activity.getId();
+                }
+                CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+
+                processedCounter.increment(processed.get());
+                failedCounter.increment(failed.get());
+                job.setProcessed(job.getProcessed() + processed.get());
+                job.setFailed(job.getFailed() + failed.get());
+                if (lastError.get() != null) {
+                    job.setLastError(lastError.get());
+                }
+                if (lastSubmitted != null) {
+                    job.setCursor(lastSubmitted);
+                }
+                if (leaseLost) {
+                    break;
+                }
+                // a pause sent to another instance only reaches this one through the job document
+                if (backfillJobRepository.findById(job.getId())
+                        .filter(stored -> stored.getState() == BackfillState.PAUSED).isPresent()) {
+                    pauseRequested = true;
+                }
+                job.setUpdatedAt(LocalDateTime.now());
+                backfillJobRepository.save(job);
+            }
+            if (leaseLost) {
+                log.warn("Backfill {} lost its lease after activity {}, stopping", job.getId(), job.getCursor());
+                return;
+            }
+            if (job.getState() == BackfillState.RUNNING) {
+                job.setState(BackfillState.PAUSED);
+                log.info("Backfill {} paused after activity {}", job.getId(), job.getCursor());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.error("Backfill {} failed after activity {}", job.getId(), job.getCursor(), e);
+            job.setState(BackfillState.FAILED);
+            job.setLastError(e.getMessage());
+        } finally {
+            runner = null;
+            renewal.cancel(false);
+            releaseLease();
+        }
+        job.setUpdatedAt(LocalDateTime.now());
+        backfillJobRepository.save(job);
+    }
+
+    // the upsert only matches a lease that is ours or expired; a live foreign lease makes it
+    // insert a second document with the same id, which the unique _id index rejects
+    private boolean acquireLease() {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(LEASE_ID)
+                .orOperator(Criteria.where("owner").is(owner), Criteria.where("leaseUntil").lt(now)));
+        Update update = new Update().set("owner", owner).set("leaseUntil", now.plus(leaseDuration));
+        try {
+            mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().upsert(true), BackfillLease.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    private void renewLease() {
+        try {
+            BackfillLease renewed = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(LEASE_ID).and("owner").is(owner)),
+                    new Update().set("leaseUntil", Instant.now().plus(leaseDuration)),
+                    BackfillLease.class);
+            if (renewed == null) {
+                leaseLost = true;
+            }
+        } catch (Exception e) {
+            // the next attempt may still get through before the lease expires
+            log.warn("Could not renew the backfill lease: {}", e.toString());
+        }
+    }
+
+    private void releaseLease() {
+        try {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(LEASE_ID).and("owner").is(owner)),
+                    new Update().set("leaseUntil", Instant.EPOCH), BackfillLease.class);
+        } catch (Exception e) {
+            log.warn("Could not release the backfill lease, it expires on its own: {}", e.toString());
+        }
+    }
+
+    private List<Activity> fetchPage(String after) {
+        List<Activity> page = activityServiceWebClient.get()
+                .uri(uri -> uri.path("/internal/activities")
+                        .queryParamIfPresent("after", Optional.ofNullable(after))
+                        .queryParam("limit", pageSize)
+                        .build())
+                .retrieve()
+                .bodyToFlux(Activity.class)
+                .collectList()
+                .block(fetchTimeout);
+        return page == null ? List.of() : page;
+    }
+
+    private long countActivities() {
+        Long count = activityServiceWebClient.get()
+                .uri("/internal/activities/count")
+                .retrieve()
+                .bodyToMono(Long.class)
+                .block(fetchTimeout);
+        return count == null ? 0 : count;
+    }
+
+    private boolean isRunning() {
+        Thread current = runner;
+        return current != null && current.isAlive();
+    }
+
+    private BackfillJob latestJob() {
+        return backfillJobRepository.findFirstByOrderByStartedAtDesc()
+                .orElseThrow(() -> new RuntimeException("No backfill has been started"));
+    }
+
+    private BackfillProgress toProgress(BackfillJob job) {
+        long done = job.getProcessed() + job.getFailed();
+        // the total is counted at start, so activities added since can push done past it
+        long remaining = Math.max(0, job.getTotal() - done);
+        double percent = job.getTotal() == 0 ? 100 : Math.min(100, 100.0 * done / job.getTotal());
+
+        double perMinute = 0;
+        Long etaSeconds = null;
+        double elapsedMinutes = (System.nanoTime() - runStartNanos) / 60_000_000_000.0;
+        if (job.getState() == BackfillState.RUNNING && isRunning() && done > runStartDone && elapsedMinutes > 0) {
+            perMinute = (done - runStartDone) / elapsedMinutes;
+            etaSeconds = (long) Math.ceil(remaining / perMinute * 60);
+        }
+
+        return BackfillProgress.builder()
+                .jobId(job.getId())
+                .state(job.getState())
+                .total(job.getTotal())
+                .processed(job.getProcessed())
+                .failed(job.getFailed())
+                .percentComplete(percent)
+                .activitiesPerMinute(perMinute)
+                .etaSeconds(etaSeconds)
+                .estimatedCompletion(etaSeconds == null ? null : LocalDateTime.now().plusSeconds(etaSeconds))
+                .lastError(job.getLastError())
+                .startedAt(job.getStartedAt())
+                .updatedAt(job.getUpdatedAt())
+                .completedAt(job.getCompletedAt())
+                .build();
+    }
+}
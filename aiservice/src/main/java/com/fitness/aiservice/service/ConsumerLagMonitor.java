@@ -0,0 +1,107 @@
+package com.fitness.aiservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Polls committed offsets of the aiservice consumer groups against the partitions' end
+ * offsets and exposes the difference as {@code ai.consumer.lag} per group and partition.
+ * Unlike the Kafka client's own lag metric this covers every partition of the group, not
+ * just the ones assigned to this instance.
+ */
+@Component
+@Slf4j
+public class ConsumerLagMonitor {
+
+    private final AdminClient adminClient;
+    private final MeterRegistry meterRegistry;
+    private final List<String> groups;
+    private final long timeoutMillis;
+
+    private final Map<String, AtomicLong> lags = new ConcurrentHashMap<>();
+
+    public ConsumerLagMonitor(KafkaAdmin kafkaAdmin,
+                              MeterRegistry meterRegistry,
+                              @Value("${ai.lag.groups:activity-processor-group,activity-delete-processor-group}") List<String> groups,
+                              @Value("${ai.lag.timeout-ms:5000}") long timeoutMillis) {
+        this.adminClient = AdminClient.create(kafkaAdmin.getConfigurationProperties());
+        this.meterRegistry = meterRegistry;
+        this.groups = groups;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Scheduled(fixedDelayString = "${ai.lag.interval-ms:15000}")
+    public void refresh() {
+        for (String group : groups) {
+            try {
+                Map<TopicPartition, OffsetAndMetadata> committed = adminClient.listConsumerGroupOffsets(group)
+                        .partitionsToOffsetAndMetadata()
+                        .get(timeoutMillis, TimeUnit.MILLISECONDS);
+                if (committed.isEmpty()) {
+                    continue;
+                }
+                Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> ends = adminClient
+                        .listOffsets(committed.keySet().stream().collect(Collectors.toMap(tp -> tp, tp -> OffsetSpec.latest())))
+                        .all()
+                        .get(timeoutMillis, TimeUnit.MILLISECONDS);
+
+                committed.forEach((partition, offset) -> {
+                    ListOffsetsResult.ListOffsetsResultInfo end = ends.get(partition);
+                    if (offset != null && end != null) {
+                        gauge(group, partition).set(Math.max(0, end.offset() - offset.offset()));
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Could not read consumer lag for group {}: {}", group, e.toString());
+            }
+        }
+    }
+
+    // keyed "group/topic-partition"
+    public Map<String, Long> currentLag() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        lags.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> snapshot.put(entry.getKey(), entry.getValue().get()));
+        return snapshot;
+    }
+
+    private AtomicLong gauge(String group, TopicPartition partition) {
+        return lags.computeIfAbsent(group + "/" + partition, key -> {
+            AtomicLong lag = new AtomicLong();
+            Gauge.builder("ai.consumer.lag", lag, AtomicLong::get)
+                    .tag("group", group)
+                    .tag("topic", partition.topic())
+                    .tag("partition", String.valueOf(partition.partition()))
+                    .register(meterRegistry);
+            return lag;
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        adminClient.close();
+    }
+}
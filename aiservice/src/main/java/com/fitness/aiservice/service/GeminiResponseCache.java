@@ -0,0 +1,200 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.PromptCacheEntry;
+import com.fitness.aiservice.respository.PromptCacheRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Two-tier cache of raw Gemini responses keyed by a hash of the prompt built for the
+ * {@link #canonical(Activity) canonical} activity: a bounded in-memory tier in front of a
+ * Mongo collection shared by all instances.
+ *
+ * Only single-activity analyses are cached, and only once a response has parsed into an
+ * analysis, so a blocked or malformed answer is never served to a whole bucket. User summaries must reflect the latest digest,
+ * and batch prompts carry activity ids, so neither could ever be served from here.
+ */
+@Component
+@Slf4j
+public class GeminiResponseCache {
+
+    private final PromptCacheRepository promptCacheRepository;
+    private final MongoTemplate mongoTemplate;
+    private final Cache<String, PromptCacheEntry> memory;
+
+    private final boolean enabled;
+    private final double relativeBucket;
+    private final Duration ttl;
+    private final long maxPersistentEntries;
+
+    private final Counter memoryHits;
+    private final Counter mongoHits;
+    private final Counter misses;
+    private final Timer savedLatency;
+
+    public GeminiResponseCache(PromptCacheRepository promptCacheRepository,
+                               MongoTemplate mongoTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${gemini.cache.enabled:true}") boolean enabled,
+                               @Value("${gemini.cache.relative-bucket:0.05}") double relativeBucket,
+                               @Value("${gemini.cache.ttl-hours:168}") long ttlHours,
+                               @Value("${gemini.cache.max-memory-entries:10000}") long maxMemoryEntries,
+                               @Value("${gemini.cache.max-persistent-entries:500000}") long maxPersistentEntries) {
+        this.promptCacheRepository = promptCacheRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.relativeBucket = relativeBucket;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.maxPersistentEntries = maxPersistentEntries;
+
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(maxMemoryEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, memory, "gemini-prompts");
+
+        this.memoryHits = Counter.builder("gemini.cache.hits").tag("tier", "memory").register(meterRegistry);
+        this.mongoHits = Counter.builder("gemini.cache.hits").tag("tier", "mongo").register(meterRegistry);
+        this.misses = Counter.builder("gemini.cache.misses").register(meterRegistry);
+        this.savedLatency = Timer.builder("gemini.cache.saved.latency")
+                .description("LLM latency avoided by serving a cached response")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // the activity as far as the cache is concerned: numeric fields rounded to relative
+    // buckets and metrics in a stable order; ids, user and timestamps are left out
+    public Activity canonical(Activity activity) {
+        Map<String, Object> metrics = null;
+        if (activity.getAdditionalMetrics() != null) {
+            Map<String, Object> bucketed = new TreeMap<>();
+            activity.getAdditionalMetrics().forEach((name, value) ->
+                    bucketed.put(name, value instanceof Number number ? bucket(number.doubleValue()) : value));
+            metrics = bucketed;
+        }
+        return Activity.builder()
+                .type(activity.getType())
+                .duration(bucket(activity.getDuration()))
+                .caloriesBurned(bucket(activity.getCaloriesBurned()))
+                .additionalMetrics(metrics)
+                .build();
+    }
+
+    public Optional<String> get(String canonicalPrompt) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        String key = keyOf(canonicalPrompt);
+        PromptCacheEntry entry = memory.getIfPresent(key);
+        if (entry != null) {
+            memoryHits.increment();
+            savedLatency.record(Duration.ofMillis(entry.getLatencyMillis()));
+            return Optional.of(entry.getResponse());
+        }
+
+        Optional<PromptCacheEntry> persisted = promptCacheRepository.findById(key)
+                .filter(candidate -> candidate.getCreatedAt().plus(ttl).isAfter(LocalDateTime.now()));
+        if (persisted.isPresent()) {
+            mongoHits.increment();
+            savedLatency.record(Duration.ofMillis(persisted.get().getLatencyMillis()));
+            memory.put(key, persisted.get());
+            return Optional.of(persisted.get().getResponse());
+        }
+
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(String canonicalPrompt, String response, long latencyMillis) {
+        if (!enabled) {
+            return;
+        }
+
+        PromptCacheEntry entry = PromptCacheEntry.builder()
+                .key(keyOf(canonicalPrompt))
+                .response(response)
+                .latencyMillis(latencyMillis)
+                .createdAt(LocalDateTime.now())
+                .build();
+        memory.put(entry.getKey(), entry);
+        try {
+            promptCacheRepository.save(entry);
+        } catch (Exception e) {
+            log.warn("Failed to persist Gemini response for key {}", entry.getKey(), e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${gemini.cache.trim-interval-ms:600000}")
+    public void trimPersistentTier() {
+        long excess = promptCacheRepository.count() - maxPersistentEntries;
+        if (!enabled || excess <= 0) {
+            return;
+        }
+
+        Query oldest = new Query()
+                .with(Sort.by(Sort.Direction.ASC, "createdAt"))
+                .limit((int) Math.min(excess, 10_000));
+        oldest.fields().include("_id");
+        List<String> keys = mongoTemplate.find(oldest, PromptCacheEntry.class).stream()
+                .map(PromptCacheEntry::getKey)
+                .toList();
+        mongoTemplate.remove(Query.query(Criteria.where("_id").in(keys)), PromptCacheEntry.class);
+        log.info("Trimmed {} Gemini cache entries", keys.size());
+    }
+
+    String keyOf(String canonicalPrompt) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(canonicalPrompt.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // logarithmic buckets relative-bucket wide, so 30 and 31 minutes share an entry but
+    // 2.5 and 7 km do not; the centre is kept to 4 significant digits
+    double bucket(double value) {
+        if (relativeBucket <= 0 || value <= 0 || !Double.isFinite(value)) {
+            return value;
+        }
+        double step = Math.log1p(relativeBucket);
+        double centre = Math.exp(Math.round(Math.log(value) / step) * step);
+        return new BigDecimal(centre).round(new MathContext(4)).doubleValue();
+    }
+
+    private Integer bucket(Integer value) {
+        return value == null ? null : (int) Math.round(bucket(value.doubleValue()));
+    }
+}
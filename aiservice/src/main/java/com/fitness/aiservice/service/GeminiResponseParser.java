@@ -0,0 +1,301 @@
+package com.fitness.aiservice.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads Gemini responses with the streaming parser: only the first candidate's text and
+ * the token count are pulled out of the envelope, and the analysis inside that text is
+ * bound field by field without building a tree of either document.
+ */
+@Component
+@RequiredArgsConstructor
+public class GeminiResponseParser {
+
+    private static final String FENCE = "```";
+
+    private final ObjectMapper objectMapper;
+
+    public Envelope readEnvelope(String response) throws IOException {
+        return readEnvelope(response, true);
+    }
+
+    // streamGenerateContent chunks may carry only usage or a finish reason; their text is null
+    public Envelope readStreamChunk(String chunk) throws IOException {
+        return readEnvelope(chunk, false);
+    }
+
+    private Envelope readEnvelope(String response, boolean requireText) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Gemini response is not a JSON object");
+            }
+            String text = null;
+            long totalTokens = -1;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    // candidates[0].content.parts[0].text
+                    case "candidates" -> text = readFirst(parser,
+                            candidate -> readField(candidate, "content",
+                                    content -> readField(content, "parts",
+                                            parts -> readFirst(parts,
+                                                    part -> readField(part, "text", GeminiResponseParser::readString)))));
+                    case "usageMetadata" -> {
+                        Long tokens = readField(parser, "totalTokenCount",
+                                p -> p.currentToken().isNumeric() ? p.getLongValue() : null);
+                        totalTokens = tokens == null ? -1 : tokens;
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            if (text == null && requireText) {
+                throw new JsonParseException(parser, "Gemini response has no candidate text");
+            }
+            return new Envelope(text, totalTokens);
+        }
+    }
+
+    public Analysis readAnalysis(String text) throws IOException {
+        try (JsonParser parser = createContentParser(text)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Analysis is not a JSON object");
+            }
+            return readAnalysisObject(parser);
+        }
+    }
+
+    // elements that are not objects are skipped; callers validate what is left
+    public List<Analysis> readAnalyses(String text) throws IOException {
+        try (JsonParser parser = createContentParser(text)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Batch analysis is not a JSON array");
+            }
+            List<Analysis> analyses = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == JsonToken.START_OBJECT) {
+                    analyses.add(readAnalysisObject(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return analyses;
+        }
+    }
+
+    // the model often wraps its JSON in ```json ... ``` despite being told not to
+    private JsonParser createContentParser(String text) throws IOException {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (text.startsWith(FENCE, start)) {
+            int lineEnd = text.indexOf('\n', start);
+            start = lineEnd < 0 || lineEnd >= end ? start + FENCE.length() : lineEnd + 1;
+        }
+        if (end - start >= FENCE.length() && text.startsWith(FENCE, end - FENCE.length())) {
+            end -= FENCE.length();
+        }
+        char[] content = new char[end - start];
+        text.getChars(start, end, content, 0);
+        return objectMapper.getFactory().createParser(content, 0, content.length);
+    }
+
+    private Analysis readAnalysisObject(JsonParser parser) throws IOException {
+        String activityId = null;
+        String[] sections = null;
+        List<String> improvements = new ArrayList<>();
+        List<String> suggestions = new ArrayList<>();
+        List<String> safety = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "activityId" -> activityId = readString(parser);
+                case "analysis" -> sections = readSections(parser);
+                case "improvements" -> readPairs(parser, "area", "recommendation", improvements);
+                case "suggestions" -> readPairs(parser, "workout", "description", suggestions);
+                case "safety" -> readStrings(parser, safety);
+                default -> parser.skipChildren();
+            }
+        }
+
+        StringBuilder fullAnalysis = new StringBuilder();
+        if (sections != null) {
+            appendSection(fullAnalysis, "Overall:", sections[0]);
+            appendSection(fullAnalysis, "Pace:", sections[1]);
+            appendSection(fullAnalysis, "Heart Rate:", sections[2]);
+            appendSection(fullAnalysis, "Calories:", sections[3]);
+        }
+
+        return new Analysis(activityId,
+                sections != null,
+                fullAnalysis.toString().trim(),
+                orDefault(improvements, "No specific improvements provided"),
+                orDefault(suggestions, "No specific suggestions provided"),
+                orDefault(safety, "Follow general safety guidelines"));
+    }
+
+    // overall, pace, heartRate, caloriesBurned; the output order does not depend on the model's
+    private String[] readSections(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        String[] sections = new String[4];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            int index = switch (field) {
+                case "overall" -> 0;
+                case "pace" -> 1;
+                case "heartRate" -> 2;
+                case "caloriesBurned" -> 3;
+                default -> -1;
+            };
+            if (index >= 0) {
+                sections[index] = scalarText(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return sections;
+    }
+
+    private void readPairs(JsonParser parser, String first, String second, List<String> target) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            String firstValue = "";
+            String secondValue = "";
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (first.equals(field)) {
+                    firstValue = scalarText(parser);
+                } else if (second.equals(field)) {
+                    secondValue = scalarText(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            target.add(firstValue + ": " + secondValue);
+        }
+    }
+
+    private void readStrings(JsonParser parser, List<String> target) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken().isScalarValue()) {
+                target.add(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void appendSection(StringBuilder fullAnalysis, String prefix, String value) {
+        if (value != null) {
+            fullAnalysis.append(prefix).append(value).append("\n\n");
+        }
+    }
+
+    private static List<String> orDefault(List<String> values, String fallback) {
+        return values.isEmpty() ? Collections.singletonList(fallback) : values;
+    }
+
+    private static String scalarText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isScalarValue()) {
+            return parser.getValueAsString("null");
+        }
+        parser.skipChildren();
+        return "";
+    }
+
+    private static String readString(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    // parser is on START_OBJECT; reads the named field and skips the others
+    private static <T> T readField(JsonParser parser, String name, ValueReader<T> reader) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        T value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            boolean match = name.equals(parser.currentName());
+            parser.nextToken();
+            if (match) {
+                value = reader.read(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    // parser is on START_ARRAY; reads the first element and skips the others
+    private static <T> T readFirst(JsonParser parser, ValueReader<T> reader) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        T value = null;
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (first) {
+                value = reader.read(parser);
+                first = false;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    @FunctionalInterface
+    private interface ValueReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    // totalTokens is -1 when usageMetadata is missing
+    public record Envelope(String text, long totalTokens) {
+    }
+
+    public record Analysis(String activityId,
+                           boolean hasAnalysis,
+                           String recommendation,
+                           List<String> improvements,
+                           List<String> suggestions,
+                           List<String> safety) {
+    }
+}
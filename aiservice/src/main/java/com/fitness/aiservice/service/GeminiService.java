@@ -1,14 +1,57 @@
 package com.fitness.aiservice.service;
 
+import com.fitness.aiservice.llm.LlmPriority;
+import com.fitness.aiservice.llm.LlmScheduler;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.util.retry.Retry;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Non-blocking Gemini client. Every attempt is admitted by the {@link LlmScheduler}, which
+ * is the only concurrency limit on Gemini calls, and runs inside a circuit breaker; 429 and
+ * 5xx responses as well as connection failures and timeouts are retried with jittered
+ * exponential backoff, or after the server's {@code Retry-After} when it sends one.
+ */
 @Service
+@Slf4j
 public class GeminiService {
     private final WebClient webClient;
+    private final GeminiResponseParser responseParser;
+    private final LlmScheduler llmScheduler;
+    private final CircuitBreaker circuitBreaker;
+
+    private final int maxRetries;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final Counter retries;
 
     @Value("${gemini.api.url}")
     private String geminiApiUrl;
@@ -16,28 +59,165 @@ public class GeminiService {
     @Value("${gemini.api.key}")
     private String geminiApiKey;
 
-    public GeminiService(WebClient.Builder webClientBuilder) {
-        this.webClient = webClientBuilder.build();
+    @Value("${gemini.api.stream-url:}")
+    private String geminiStreamUrl;
+
+    public GeminiService(WebClient.Builder webClientBuilder,
+                         GeminiResponseParser responseParser,
+                         LlmScheduler llmScheduler,
+                         MeterRegistry meterRegistry,
+                         @Value("${gemini.client.connect-timeout-ms:2000}") int connectTimeoutMillis,
+                         @Value("${gemini.client.response-timeout-ms:30000}") long responseTimeoutMillis,
+                         @Value("${gemini.retry.max-retries:3}") int maxRetries,
+                         @Value("${gemini.retry.min-backoff-ms:500}") long minBackoffMillis,
+                         @Value("${gemini.retry.max-backoff-ms:10000}") long maxBackoffMillis,
+                         @Value("${gemini.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+                         @Value("${gemini.circuit-breaker.slow-call-threshold-ms:20000}") long slowCallThresholdMillis,
+                         @Value("${gemini.circuit-breaker.window-size:20}") int windowSize,
+                         @Value("${gemini.circuit-breaker.open-seconds:30}") long openSeconds) {
+        HttpClient httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .responseTimeout(Duration.ofMillis(responseTimeoutMillis));
+        this.webClient = webClientBuilder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+        this.responseParser = responseParser;
+        this.llmScheduler = llmScheduler;
+
+        this.maxRetries = maxRetries;
+        this.minBackoff = Duration.ofMillis(minBackoffMillis);
+        this.maxBackoff = Duration.ofMillis(maxBackoffMillis);
+
+        CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowSize(windowSize)
+                .minimumNumberOfCalls(Math.max(1, windowSize / 2))
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(Duration.ofMillis(slowCallThresholdMillis))
+                .waitDurationInOpenState(Duration.ofSeconds(openSeconds))
+                .recordException(GeminiService::isTransient)
+                .build());
+        this.circuitBreaker = circuitBreakers.circuitBreaker("gemini");
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakers).bindTo(meterRegistry);
+        this.retries = Counter.builder("gemini.retries").register(meterRegistry);
+    }
+
+    public Mono<String> getRecommendations(String details, LlmPriority priority) {
+        return callGemini(details, priority);
+    }
+
+    // text deltas from streamGenerateContent; not cached and not retried once data has flowed
+    public Flux<String> streamRecommendations(String details) {
+        String url = geminiStreamUrl == null || geminiStreamUrl.isBlank()
+                ? geminiApiUrl.replace(":generateContent", ":streamGenerateContent?alt=sse")
+                : geminiStreamUrl;
+
+        // someone is watching the stream, so it always goes in at the highest priority
+        return llmScheduler.scheduleMany(LlmPriority.NEW_ACTIVITY, llmScheduler.estimateTokens(details), this::isAvailable, () -> webClient.post()
+                        .uri(url)
+                        .header("Content-Type","application/json")
+                        .header("X-goog-api-key", geminiApiKey)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .bodyValue(requestBody(details))
+                        .retrieve()
+                        .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker)))
+                .<String>handle((event, sink) -> {
+                    if (event.data() == null) {
+                        return;
+                    }
+                    try {
+                        String text = responseParser.readStreamChunk(event.data()).text();
+                        if (text != null && !text.isEmpty()) {
+                            sink.next(text);
+                        }
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                });
     }
 
-    public String getRecommendations(String details) {
-        Map<String, Object> requestBody = Map.of(
+    public boolean isAvailable() {
+        return circuitBreaker.getState() != CircuitBreaker.State.OPEN
+                && circuitBreaker.getState() != CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    private static Map<String, Object> requestBody(String details) {
+        return Map.of(
                 "contents", new Object[] {
                         Map.of("parts", new Object[] {
                                 Map.of("text", details)
                         })
                 }
         );
+    }
 
-        String response = webClient.post()
-                .uri(geminiApiUrl)
-                .header("Content-Type","application/json")
-                .header("X-goog-api-key", geminiApiKey)
-                .bodyValue(requestBody)
-                .retrieve()
-                .bodyToMono(String.class)
-                .block();
+    // every attempt, retries included, waits for the scheduler and counts against the quotas
+    // unless the circuit is open
+    private Mono<String> callGemini(String details, LlmPriority priority) {
+        Map<String, Object> requestBody = requestBody(details);
+        int estimatedTokens = llmScheduler.estimateTokens(details);
+
+        // an open circuit rejects the call anyway, so it should not spend quota on the way
+        return llmScheduler.schedule(priority, estimatedTokens, this::isAvailable, () -> webClient.post()
+                        .uri(geminiApiUrl)
+                        .header("Content-Type","application/json")
+                        .header("X-goog-api-key", geminiApiKey)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker)))
+                .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                    Throwable failure = signal.failure();
+                    if (!isTransient(failure) || signal.totalRetries() >= maxRetries) {
+                        return Mono.error(failure);
+                    }
+                    Duration delay = retryAfter(failure);
+                    if (delay == null) {
+                        delay = backoff(signal.totalRetries());
+                    } else if (delay.compareTo(maxBackoff) > 0) {
+                        // waiting that long would only hold the caller; let it fall back instead
+                        return Mono.error(failure);
+                    }
+                    retries.increment();
+                    log.warn("Gemini call failed ({}), retry {} in {} ms",
+                            failure.toString(), signal.totalRetries() + 1, delay.toMillis());
+                    return Mono.delay(delay);
+                })));
+    }
+
+    // jitter between min-backoff and the capped exponential backoff; the floor keeps a retry
+    // from firing immediately after the failure it answers
+    private Duration backoff(long attempt) {
+        long ceiling = Math.min(maxBackoff.toMillis(), minBackoff.toMillis() << Math.min(attempt, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(minBackoff.toMillis(), Math.max(minBackoff.toMillis(), ceiling) + 1));
+    }
+
+    private static boolean isTransient(Throwable failure) {
+        if (failure instanceof WebClientResponseException response) {
+            return response.getStatusCode().value() == 429 || response.getStatusCode().is5xxServerError();
+        }
+        return failure instanceof WebClientRequestException || failure instanceof TimeoutException;
+    }
 
-        return response;
+    private static Duration retryAfter(Throwable failure) {
+        if (!(failure instanceof WebClientResponseException response)) {
+            return null;
+        }
+        String value = response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                Duration until = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return until.isNegative() ? Duration.ZERO : until;
+            } catch (Exception ignored) {
+                return null;
+            }
+        }
     }
 }
@@ -0,0 +1,68 @@
+package com.fitness.aiservice.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on virtual threads so that tasks sharing a key execute one after another in
+ * submission order while different keys run concurrently. {@link #submit} blocks once
+ * max-concurrency tasks are queued or running, which keeps the Kafka poll loop from
+ * fetching more work than can be processed.
+ */
+@Component
+@Slf4j
+public class KeyOrderedExecutor {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    public KeyOrderedExecutor(MeterRegistry meterRegistry,
+                              @Value("${ai.processing.parallel.max-concurrency:64}") int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        Gauge.builder("ai.processing.inflight", this, KeyOrderedExecutor::getInFlight).register(meterRegistry);
+    }
+
+    public void submit(String key, Runnable task) throws InterruptedException {
+        permits.acquire();
+        String lane = key == null ? UUID.randomUUID().toString() : key;
+
+        CompletableFuture<Void> next = tails.compute(lane, (ignored, tail) ->
+                (tail == null ? CompletableFuture.<Void>completedFuture(null) : tail)
+                        .thenRunAsync(() -> {
+                            try {
+                                task.run();
+                            } catch (Exception e) {
+                                log.error("Task for key {} failed", lane, e);
+                            } finally {
+                                permits.release();
+                            }
+                        }, executor));
+
+        // drop the lane once its last task is done so the map only holds active keys
+        next.whenComplete((result, error) -> tails.remove(lane, next));
+    }
+
+    public int getInFlight() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.fitness.aiservice.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latency of the activity pipeline, from the activity service saving an activity to its
+ * recommendation being persisted here. The producer stamps the save time into the
+ * {@code activity-saved-at} header; the stages in between are timed separately:
+ * {@code queue} (waiting for a worker), {@code batch} (waiting for a batch to fill),
+ * {@code prompt}, {@code llm}, {@code parse} and {@code persist}.
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String SAVED_AT_HEADER = "activity-saved-at";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+    private final Timer endToEnd;
+
+    public PipelineMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.endToEnd = Timer.builder("ai.pipeline.end-to-end")
+                .description("Activity saved in the activity service to recommendation persisted")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(10))
+                .maximumExpectedValue(Duration.ofHours(1))
+                .register(meterRegistry);
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void record(String stage, long nanos) {
+        stages.computeIfAbsent(stage, name -> Timer.builder("ai.pipeline.stage")
+                        .tag("stage", name)
+                        .publishPercentiles(0.5, 0.99)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // epoch millis from the producer, or null for events from producers that predate the header
+    public Long savedAt(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(SAVED_AT_HEADER);
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(new String(header.value(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public void recordEndToEnd(Long savedAtMillis) {
+        if (savedAtMillis != null) {
+            endToEnd.record(Math.max(0, System.currentTimeMillis() - savedAtMillis), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // percentiles decay over Micrometer's sliding window, so this reflects recent traffic
+    public Map<String, Object> freshness() {
+        HistogramSnapshot snapshot = endToEnd.takeSnapshot();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", snapshot.count());
+        summary.put("meanMillis", snapshot.mean(TimeUnit.MILLISECONDS));
+        summary.put("maxMillis", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            summary.put("p" + Math.round(percentile.percentile() * 100) + "Millis", percentile.value(TimeUnit.MILLISECONDS));
+        }
+
+        Map<String, Double> stageP99 = new LinkedHashMap<>();
+        stages.forEach((stage, timer) -> {
+            for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+                if (percentile.percentile() == 0.99) {
+                    stageP99.put(stage, percentile.value(TimeUnit.MILLISECONDS));
+                }
+            }
+        });
+        summary.put("stageP99Millis", stageP99);
+        return summary;
+    }
+}
@@ -0,0 +1,180 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.llm.LlmPriority;
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects activities for up to {@code max-wait-ms} or {@code max-size} activities and
+ * analyses them with a single Gemini prompt. Each priority has its own buffer, so a batch
+ * is scheduled at the priority all of its members share and backfill work never rides
+ * along with live activities. Activities the batch response does not
+ * cover with a valid analysis are retried with the regular single-activity prompt. When
+ * the batch prompt fails as a whole the rule-based analysis is used for every member:
+ * whatever failed the batch (an outage, the quota, a garbled response) would most likely
+ * fail the same number of single prompts too.
+ */
+@Component
+@Slf4j
+public class RecommendationBatcher {
+
+    private final ActivityAIService activityAIService;
+    private final RuleBasedRecommender ruleBasedRecommender;
+    private final PipelineMetrics pipelineMetrics;
+    private final int maxSize;
+    private final long maxWaitMillis;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final DistributionSummary batchSizes;
+    private final DistributionSummary fallbacks;
+    private final Counter ruleFallbacks;
+
+    // guarded by this
+    private final Map<LlmPriority, Buffer> buffers = new EnumMap<>(LlmPriority.class);
+
+    public RecommendationBatcher(ActivityAIService activityAIService,
+                                 RuleBasedRecommender ruleBasedRecommender,
+                                 PipelineMetrics pipelineMetrics,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${ai.batch.max-size:8}") int maxSize,
+                                 @Value("${ai.batch.max-wait-ms:500}") long maxWaitMillis) {
+        this.activityAIService = activityAIService;
+        this.ruleBasedRecommender = ruleBasedRecommender;
+        this.pipelineMetrics = pipelineMetrics;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.batchSizes = DistributionSummary.builder("ai.batch.size").register(meterRegistry);
+        this.fallbacks = DistributionSummary.builder("ai.batch.fallbacks")
+                .description("Activities per batch that had to be re-analysed on their own")
+                .register(meterRegistry);
+        this.ruleFallbacks = Counter.builder("ai.batch.rule.fallbacks")
+                .description("Activities that got the rule-based analysis because their batch prompt failed")
+                .register(meterRegistry);
+    }
+
+    public CompletableFuture<Recommendation> submit(Activity activity, LlmPriority priority) {
+        PendingActivity pending = new PendingActivity(activity, priority, System.nanoTime(), new CompletableFuture<>());
+        List<PendingActivity> full = null;
+        synchronized (this) {
+            Buffer buffer = buffers.computeIfAbsent(priority, key -> new Buffer());
+            buffer.activities.add(pending);
+            if (buffer.activities.size() >= maxSize) {
+                full = drain(buffer);
+            } else if (buffer.activities.size() == 1) {
+                buffer.flushTimer = timer.schedule(() -> flushExpired(priority), maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return pending.result();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+        executor.shutdown();
+    }
+
+    private void flushExpired(LlmPriority priority) {
+        List<PendingActivity> batch;
+        synchronized (this) {
+            batch = drain(buffers.get(priority));
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+    }
+
+    // callers hold the monitor
+    private List<PendingActivity> drain(Buffer buffer) {
+        if (buffer.flushTimer != null) {
+            buffer.flushTimer.cancel(false);
+            buffer.flushTimer = null;
+        }
+        List<PendingActivity> batch = buffer.activities;
+        buffer.activities = new ArrayList<>();
+        return batch;
+    }
+
+    private void dispatch(List<PendingActivity> batch) {
+        executor.execute(() -> process(batch));
+    }
+
+    private void process(List<PendingActivity> batch) {
+        batchSizes.record(batch.size());
+        long now = System.nanoTime();
+        batch.forEach(pending -> pipelineMetrics.record("batch", now - pending.submittedNanos()));
+        if (batch.size() == 1) {
+            analyseAlone(batch.get(0));
+            return;
+        }
+
+        Map<String, Recommendation> recommendations;
+        try {
+            recommendations = activityAIService.generateBatchRecommendations(
+                    batch.stream().map(PendingActivity::activity).toList(), batch.get(0).priority());
+        } catch (Exception e) {
+            log.warn("Batch prompt for {} activities failed, using rule-based analyses: {}", batch.size(), e.toString());
+            ruleFallbacks.increment(batch.size());
+            batch.forEach(this::analyseWithRules);
+            return;
+        }
+
+        int missing = 0;
+        for (PendingActivity pending : batch) {
+            Recommendation recommendation = recommendations.get(pending.activity().getId());
+            if (recommendation != null) {
+                pending.result().complete(recommendation);
+            } else {
+                missing++;
+                executor.execute(() -> analyseAlone(pending));
+            }
+        }
+        fallbacks.record(missing);
+    }
+
+    private void analyseAlone(PendingActivity pending) {
+        try {
+            pending.result().complete(activityAIService.generateRecommendation(pending.activity(), pending.priority()));
+        } catch (Exception e) {
+            pending.result().completeExceptionally(e);
+        }
+    }
+
+    private void analyseWithRules(PendingActivity pending) {
+        try {
+            pending.result().complete(ruleBasedRecommender.recommend(pending.activity()));
+        } catch (Exception e) {
+            pending.result().completeExceptionally(e);
+        }
+    }
+
+    private static final class Buffer {
+        private List<PendingActivity> activities = new ArrayList<>();
+        private ScheduledFuture<?> flushTimer;
+    }
+
+    private record PendingActivity(Activity activity, LlmPriority priority, long submittedNanos,
+                                   CompletableFuture<Recommendation> result) {
+    }
+}
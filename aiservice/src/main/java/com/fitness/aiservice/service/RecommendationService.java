@@ -1,30 +1,113 @@
 package com.fitness.aiservice.service;
 
 import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.RecommendationHistoryQuery;
+import com.fitness.aiservice.model.RecommendationPage;
+import com.fitness.aiservice.model.UserRecommendation;
 import com.fitness.aiservice.respository.RecommendationRepository;
+import com.fitness.aiservice.respository.UserRecommendationRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.List;
+import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
 public class RecommendationService {
+    private static final int MAX_HISTORY_PAGE = 100;
+
     private final RecommendationRepository recommendationRepository;
-    private final ActivityAIService activityAIService;
+    private final UserRecommendationRepository userRecommendationRepository;
+    private final UserRecommendationRefresher userRecommendationRefresher;
+    private final UserDigestService userDigestService;
+    private final RecommendationStreamRegistry streamRegistry;
+    private final MongoTemplate mongoTemplate;
 
-    public Recommendation getUserRecommendation(String userId) {
-        List<Recommendation> recs = recommendationRepository.findByUserId(userId);
+    // empty while the first summary of a user is still being generated
+    public Optional<UserRecommendation> getUserRecommendation(String userId) {
+        Optional<UserRecommendation> summary = userRecommendationRepository.findById(userId)
+                .filter(existing -> existing.getRecommendation() != null);
+        if (summary.isPresent()) {
+            return summary;
+        }
 
-        if (recs == null || recs.isEmpty()) {
+        boolean hasHistory = userDigestService.find(userId)
+                .filter(digest -> digest.getTotalCount() > 0)
+                .isPresent();
+        if (!hasHistory) {
             throw new RuntimeException("No recommendations found for user: " + userId);
         }
+        userRecommendationRefresher.requestRefresh(userId);
+        return Optional.empty();
+    }
+
+    public Flux<ServerSentEvent<Object>> streamActivityRecommendation(String activityId) {
+        return streamRegistry.watch(activityId);
+    }
+
+    // newest first, keyset-paged on (createdAt, _id) so deep pages cost the same as the first
+    public RecommendationPage getUserHistory(String userId, RecommendationHistoryQuery historyQuery) {
+        int limit = Math.clamp(historyQuery.getLimit(), 1, MAX_HISTORY_PAGE);
+
+        Criteria criteria = Criteria.where("userId").is(userId);
+        if (historyQuery.getType() != null) {
+            criteria = criteria.and("type").is(historyQuery.getType().name());
+        }
+        if (historyQuery.getCursor() != null && !historyQuery.getCursor().isBlank()) {
+            HistoryCursor after = HistoryCursor.decode(historyQuery.getCursor());
+            criteria = criteria.orOperator(
+                    Criteria.where("createdAt").lt(after.createdAt()),
+                    Criteria.where("createdAt").is(after.createdAt()).and("id").lt(after.id()));
+        }
 
-        return activityAIService.generateUserCombinedRecommendation(userId, recs);
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "createdAt", "id"))
+                .limit(limit + 1);
+        if (historyQuery.isSummary()) {
+            query.fields().exclude("recommendation", "improvements", "suggestions", "safety");
+        }
+
+        List<Recommendation> items = mongoTemplate.find(query, Recommendation.class);
+        String nextCursor = null;
+        if (items.size() > limit) {
+            items = items.subList(0, limit);
+            Recommendation last = items.get(limit - 1);
+            nextCursor = new HistoryCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+        return new RecommendationPage(items, nextCursor);
     }
 
     public Recommendation getActivityRecommendation(String activityId) {
         return recommendationRepository.findByActivityId(activityId)
                 .orElseThrow(() -> new RuntimeException("No recommendation found for this activity: " + activityId));
     }
+
+    // opaque to clients: base64url of "<createdAt>|<id>"
+    private record HistoryCursor(LocalDateTime createdAt, String id) {
+
+        String encode() {
+            String raw = createdAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static HistoryCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new HistoryCursor(LocalDateTime.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Invalid history cursor: " + cursor, e);
+            }
+        }
+    }
 }
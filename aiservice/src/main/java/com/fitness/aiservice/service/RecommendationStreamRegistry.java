@@ -0,0 +1,173 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.respository.RecommendationRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connects SSE clients waiting for an activity's recommendation with the worker producing
+ * it. Each watched activity gets a sink replaying only its latest event; chunk events carry
+ * the whole text generated so far, so a client that connects mid-generation still sees all
+ * of it. A sink is dropped once the recommendation is complete or its last client leaves.
+ *
+ * Sinks are in memory, so chunks only reach clients connected to the instance analysing the
+ * activity. Clients on other instances, and clients that registered just after the worker
+ * finished, poll Mongo every {@code poll-seconds} and get the final recommendation from there.
+ *
+ * Events: {@code provisional} (rule-based recommendation, if any), {@code chunk} (Gemini
+ * text so far) and {@code recommendation} (final result, last event).
+ */
+@Component
+@Slf4j
+public class RecommendationStreamRegistry {
+
+    private static final String RECOMMENDATION = "recommendation";
+
+    private final RecommendationRepository recommendationRepository;
+    private final WebClient activityServiceWebClient;
+    private final Duration timeout;
+    private final Duration pollInterval;
+
+    private final Map<String, Sinks.Many<ServerSentEvent<Object>>> streams = new ConcurrentHashMap<>();
+    // text streamed so far per activity, owned by the worker generating it
+    private final Map<String, StringBuilder> generated = new ConcurrentHashMap<>();
+
+    public RecommendationStreamRegistry(RecommendationRepository recommendationRepository,
+                                        @Qualifier("activityServiceWebClient") WebClient activityServiceWebClient,
+                                        @Value("${ai.stream.timeout-seconds:120}") long timeoutSeconds,
+                                        @Value("${ai.stream.poll-seconds:5}") long pollSeconds) {
+        this.recommendationRepository = recommendationRepository;
+        this.activityServiceWebClient = activityServiceWebClient;
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.pollInterval = Duration.ofSeconds(pollSeconds);
+    }
+
+    public Flux<ServerSentEvent<Object>> watch(String activityId) {
+        return findRecommendation(activityId)
+                .flatMapMany(existing -> {
+                    if (existing.isPresent() && !existing.get().isProvisional() && !streams.containsKey(activityId)) {
+                        return Flux.just(event(RECOMMENDATION, existing.get()));
+                    }
+                    // without any recommendation the id may be unknown, and a sink for it would never complete
+                    Mono<Boolean> known = existing.isPresent() ? Mono.just(true) : activityExists(activityId);
+                    return known.flatMapMany(exists -> exists
+                            ? follow(activityId, existing)
+                            : Flux.error(new RuntimeException("Activity not found: " + activityId)));
+                });
+    }
+
+    public boolean isWatched(String activityId) {
+        Sinks.Many<ServerSentEvent<Object>> sink = streams.get(activityId);
+        return sink != null && sink.currentSubscriberCount() > 0;
+    }
+
+    public void emitChunk(String activityId, String chunk) {
+        StringBuilder text = generated.computeIfAbsent(activityId, id -> new StringBuilder());
+        String soFar;
+        synchronized (text) {
+            text.append(chunk);
+            soFar = text.toString();
+        }
+        Sinks.Many<ServerSentEvent<Object>> sink = streams.get(activityId);
+        if (sink != null) {
+            sink.emitNext(event("chunk", soFar), Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+        }
+    }
+
+    public void complete(String activityId, Recommendation recommendation) {
+        generated.remove(activityId);
+        Sinks.Many<ServerSentEvent<Object>> sink = streams.remove(activityId);
+        if (sink != null) {
+            sink.emitNext(event(RECOMMENDATION, recommendation), Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+            sink.emitComplete(Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+        }
+    }
+
+    int activeStreams() {
+        return streams.size();
+    }
+
+    private Flux<ServerSentEvent<Object>> follow(String activityId, Optional<Recommendation> existing) {
+        Sinks.Many<ServerSentEvent<Object>> sink = streams.computeIfAbsent(activityId, this::newSink);
+
+        Flux<ServerSentEvent<Object>> provisional = existing.filter(Recommendation::isProvisional)
+                .map(rec -> Flux.just(event("provisional", rec)))
+                .orElseGet(Flux::empty);
+
+        // a re-analysis replaces a final recommendation, so only a newer one counts as the result
+        LocalDateTime replacing = existing.filter(rec -> !rec.isProvisional())
+                .map(RecommendationStreamRegistry::writtenAt)
+                .orElse(null);
+        Flux<ServerSentEvent<Object>> saved = Flux.interval(Duration.ZERO, pollInterval)
+                .concatMap(tick -> findRecommendation(activityId))
+                .filter(latest -> latest.filter(rec -> !rec.isProvisional()
+                        && (replacing == null || writtenAt(rec) == null || writtenAt(rec).isAfter(replacing))).isPresent())
+                .next()
+                .map(latest -> event(RECOMMENDATION, latest.get()))
+                .flux();
+
+        return provisional
+                .concatWith(Flux.merge(sink.asFlux(), saved)
+                        .takeUntil(event -> RECOMMENDATION.equals(event.event()))
+                        .timeout(timeout, findRecommendation(activityId)
+                                .flatMap(Mono::justOrEmpty)
+                                .map(rec -> event(RECOMMENDATION, rec))))
+                .doFinally(signal -> release(activityId, sink));
+    }
+
+    private Sinks.Many<ServerSentEvent<Object>> newSink(String activityId) {
+        Sinks.Many<ServerSentEvent<Object>> sink = Sinks.many().replay().latest();
+        // a generation already under way, e.g. after every earlier client had left
+        StringBuilder text = generated.get(activityId);
+        if (text != null) {
+            synchronized (text) {
+                sink.tryEmitNext(event("chunk", text.toString()));
+            }
+        }
+        return sink;
+    }
+
+    // runs once the client is gone; the worker still completes the sink if others are listening
+    private void release(String activityId, Sinks.Many<ServerSentEvent<Object>> sink) {
+        if (sink.currentSubscriberCount() == 0) {
+            streams.remove(activityId, sink);
+        }
+    }
+
+    private Mono<Optional<Recommendation>> findRecommendation(String activityId) {
+        return Mono.fromCallable(() -> recommendationRepository.findByActivityId(activityId))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<Boolean> activityExists(String activityId) {
+        return activityServiceWebClient.get()
+                .uri("/internal/activities/{id}/exists", activityId)
+                .retrieve()
+                .bodyToMono(Boolean.class)
+                .defaultIfEmpty(false);
+    }
+
+    // documents written before updatedAt existed only have createdAt
+    private static LocalDateTime writtenAt(Recommendation recommendation) {
+        return recommendation.getUpdatedAt() != null ? recommendation.getUpdatedAt() : recommendation.getCreatedAt();
+    }
+
+    private static ServerSentEvent<Object> event(String name, Object data) {
+        return ServerSentEvent.builder(data).event(name).build();
+    }
+}
@@ -0,0 +1,106 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+
+/**
+ * Writes activity recommendations with a single findAndModify upsert on the unique
+ * {@code activityId} index instead of a find followed by a save. Both writes return the
+ * document as it was before the write, or null when they inserted it, so callers can tell
+ * what they replaced without a separate read that a concurrent write could invalidate.
+ */
+@Service
+@Slf4j
+public class RecommendationWriter {
+
+    private static final int MAX_CONFLICT_RETRIES = 3;
+
+    private final MongoTemplate mongoTemplate;
+    private final Counter upserts;
+    private final Counter conflicts;
+
+    public RecommendationWriter(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.upserts = Counter.builder("ai.recommendations.upserts").register(meterRegistry);
+        this.conflicts = Counter.builder("ai.recommendations.conflicts")
+                .description("Concurrent inserts for the same activity that lost on the unique index")
+                .register(meterRegistry);
+    }
+
+    // fills in the id, createdAt and updatedAt of the given recommendation to match what was written
+    public Recommendation upsert(Recommendation recommendation) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+                .set("recommendation", recommendation.getRecommendation())
+                .set("improvements", recommendation.getImprovements())
+                .set("suggestions", recommendation.getSuggestions())
+                .set("safety", recommendation.getSafety())
+                .set("provisional", recommendation.isProvisional())
+                .set("ruleBased", recommendation.isRuleBased())
+                .set("reusedFrom", recommendation.getReusedFrom())
+                .set("type", recommendation.getType())
+                .set("duration", recommendation.getDuration())
+                .set("caloriesBurned", recommendation.getCaloriesBurned())
+                .set("updatedAt", now)
+                .setOnInsert("createdAt", recommendation.getCreatedAt() != null ? recommendation.getCreatedAt() : now)
+                .setOnInsert("userId", recommendation.getUserId());
+        Recommendation previous = write(recommendation.getActivityId(), update);
+
+        recommendation.setUpdatedAt(now);
+        if (recommendation.getCreatedAt() == null) {
+            recommendation.setCreatedAt(now);
+        }
+        if (previous != null) {
+            recommendation.setId(previous.getId());
+            recommendation.setCreatedAt(previous.getCreatedAt());
+        }
+        return previous;
+    }
+
+    // only inserts; an existing recommendation, provisional or not, is left untouched
+    public Recommendation insertIfAbsent(Recommendation recommendation) {
+        Update update = new Update()
+                .setOnInsert("userId", recommendation.getUserId())
+                .setOnInsert("type", recommendation.getType())
+                .setOnInsert("recommendation", recommendation.getRecommendation())
+                .setOnInsert("improvements", recommendation.getImprovements())
+                .setOnInsert("suggestions", recommendation.getSuggestions())
+                .setOnInsert("safety", recommendation.getSafety())
+                .setOnInsert("provisional", recommendation.isProvisional())
+                .setOnInsert("ruleBased", recommendation.isRuleBased())
+                .setOnInsert("createdAt", recommendation.getCreatedAt())
+                .setOnInsert("updatedAt", recommendation.getCreatedAt());
+        return write(recommendation.getActivityId(), update);
+    }
+
+    // two upserts racing on a missing document can both try to insert; the loser
+    // retries and then finds the winner's document to update, which it returns as the previous one
+    private Recommendation write(String activityId, Update update) {
+        Query query = Query.query(Criteria.where("activityId").is(activityId));
+        FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(false);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Recommendation previous = mongoTemplate.findAndModify(query, update, options, Recommendation.class);
+                upserts.increment();
+                return previous;
+            } catch (DuplicateKeyException e) {
+                conflicts.increment();
+                if (attempt >= MAX_CONFLICT_RETRIES) {
+                    throw e;
+                }
+                log.debug("Upsert conflict for activity {}, retrying", activityId);
+            }
+        }
+    }
+}
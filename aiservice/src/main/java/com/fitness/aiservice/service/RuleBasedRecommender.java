@@ -0,0 +1,135 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.config.RecommendationRulesProperties;
+import com.fitness.aiservice.config.RecommendationRulesProperties.TypeRules;
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.Recommendation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Derives a recommendation from the activity's numbers and the configured rule table for
+ * its type. Deterministic and local, so it is used as the provisional recommendation
+ * while Gemini runs and as the fallback whenever Gemini is unavailable. A fallback is
+ * final: nothing is scheduled to replace it, so it must not be marked provisional.
+ */
+@Service
+@RequiredArgsConstructor
+public class RuleBasedRecommender {
+
+    private final RecommendationRulesProperties properties;
+
+    public boolean isRulesOnly(Activity activity) {
+        return properties.rulesFor(activity.getType()).isRulesOnly();
+    }
+
+    // placeholder shown while Gemini runs; the Gemini analysis or a fallback replaces it
+    public Recommendation provisional(Activity activity) {
+        Recommendation recommendation = recommend(activity);
+        recommendation.setProvisional(true);
+        return recommendation;
+    }
+
+    public Recommendation recommend(Activity activity) {
+        TypeRules rules = properties.rulesFor(activity.getType());
+        String type = activity.getType() == null ? "activity" : activity.getType().toString().toLowerCase().replace('_', ' ');
+        Integer duration = activity.getDuration();
+        Integer calories = activity.getCaloriesBurned();
+        Double distance = metric(activity, "distance");
+        Double heartRate = metric(activity, "averageHeartRate", "heartRate");
+
+        StringBuilder analysis = new StringBuilder();
+        List<String> improvements = new ArrayList<>();
+        List<String> safety = new ArrayList<>(rules.getSafety());
+
+        if (duration == null || duration <= 0) {
+            analysis.append("Overall:No duration was recorded for this ").append(type).append(".\n\n");
+            improvements.add("Data Tracking: Record the duration of every session so progress can be measured");
+        } else if (duration < rules.getMinMinutes()) {
+            analysis.append("Overall:A short ").append(duration).append(" minute ").append(type).append(" session.\n\n");
+            improvements.add("Duration: Build up towards at least " + rules.getMinMinutes() + " minutes per session");
+        } else if (duration > rules.getMaxMinutes()) {
+            analysis.append("Overall:A long ").append(duration).append(" minute ").append(type).append(" session.\n\n");
+            improvements.add("Recovery: Plan an easier day after sessions longer than " + rules.getMaxMinutes() + " minutes");
+            safety.add("Refuel and rehydrate after sessions longer than " + rules.getMaxMinutes() + " minutes");
+        } else {
+            analysis.append("Overall:A solid ").append(duration).append(" minute ").append(type).append(" session.\n\n");
+        }
+
+        if (distance != null && distance > 0 && duration != null && duration > 0 && rules.getMaxSpeed() > 0) {
+            double speed = distance / (duration / 60.0);
+            analysis.append("Pace:Average speed of ").append(String.format(Locale.ROOT, "%.1f", speed)).append(" km/h.\n\n");
+            if (speed < rules.getMinSpeed()) {
+                improvements.add("Pace: Add short intervals above your usual pace to raise your average speed");
+            } else if (speed > rules.getMaxSpeed()) {
+                improvements.add("Pace: Double-check the recorded distance, the average speed is unusually high");
+            }
+        }
+
+        if (heartRate != null && heartRate > 0) {
+            analysis.append("Heart Rate:Average heart rate of ").append(Math.round(heartRate)).append(" bpm.\n\n");
+            if (heartRate > rules.getMaxHeartRate()) {
+                safety.add("Your average heart rate exceeded " + rules.getMaxHeartRate() + " bpm; keep most sessions below it");
+            }
+        }
+
+        if (calories != null && calories > 0 && duration != null && duration > 0) {
+            double perMinute = (double) calories / duration;
+            analysis.append("Calories:").append(calories).append(" kcal burned, ")
+                    .append(String.format(Locale.ROOT, "%.1f", perMinute)).append(" kcal per minute.\n\n");
+            if (perMinute < rules.getLowCaloriesPerMinute()) {
+                improvements.add("Intensity: Increase the effort slightly to get more out of the same time");
+            } else if (perMinute > rules.getHighCaloriesPerMinute()) {
+                improvements.add("Intensity: Balance high-intensity days with lighter recovery sessions");
+            }
+        } else if (calories == null || calories <= 0) {
+            improvements.add("Data Tracking: Record calories burned to follow your energy expenditure");
+        }
+
+        return Recommendation.builder()
+                .activityId(activity.getId())
+                .userId(activity.getUserId())
+                .type(activity.getType() == null ? null : activity.getType().toString())
+                .recommendation(analysis.toString().trim())
+                .improvements(improvements.isEmpty() ?
+                        Collections.singletonList("Keep the current duration and intensity, they are on target") :
+                        improvements)
+                .suggestions(rules.getSuggestions().isEmpty() ?
+                        Collections.singletonList("No specific suggestions provided") :
+                        new ArrayList<>(rules.getSuggestions()))
+                .safety(safety.isEmpty() ?
+                        Collections.singletonList("Follow general safety guidelines") :
+                        safety)
+                .ruleBased(true)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    static Double metric(Activity activity, String... keys) {
+        Map<String, Object> metrics = activity.getAdditionalMetrics();
+        if (metrics == null) {
+            return null;
+        }
+        for (String key : keys) {
+            Object value = metrics.get(key);
+            if (value instanceof Number number) {
+                return number.doubleValue();
+            }
+            if (value instanceof String text) {
+                try {
+                    return Double.parseDouble(text.trim());
+                } catch (NumberFormatException ignored) {
+                    // not a usable number
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,224 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.UserDigest;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Maintains {@link UserDigest} incrementally with atomic Mongo updates, so each new
+ * recommendation costs one small write instead of re-reading the user's whole history.
+ */
+@Service
+@Slf4j
+public class UserDigestService {
+
+    private final MongoTemplate mongoTemplate;
+    private final int recentSize;
+    private final int summaryChars;
+    private final int removedSize;
+
+    public UserDigestService(MongoTemplate mongoTemplate,
+                             @Value("${ai.user-summary.digest.recent-size:20}") int recentSize,
+                             @Value("${ai.user-summary.digest.summary-chars:280}") int summaryChars,
+                             @Value("${ai.user-summary.digest.removed-size:500}") int removedSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.recentSize = recentSize;
+        this.summaryChars = summaryChars;
+        this.removedSize = removedSize;
+    }
+
+    // previous is the recommendation an update replaced, null for an activity's first analysis;
+    // its type, duration and calories are taken back out of the totals before the new ones go in
+    public void record(Activity activity, Recommendation recommendation, Recommendation previous) {
+        if (activity.getUserId() == null) {
+            return;
+        }
+
+        Query byUser = Query.query(Criteria.where("_id").is(activity.getUserId()));
+        // the seed counts and sums every stored recommendation, this one included
+        boolean seeded = !mongoTemplate.exists(byUser, UserDigest.class) && rebuild(activity.getUserId()) != null;
+
+        UserDigest.Entry entry = UserDigest.Entry.builder()
+                .activityId(activity.getId())
+                .type(typeOf(activity.getType()))
+                .duration(activity.getDuration())
+                .caloriesBurned(activity.getCaloriesBurned())
+                .summary(truncate(firstSection(recommendation.getRecommendation())))
+                .topImprovement(recommendation.getImprovements() == null || recommendation.getImprovements().isEmpty()
+                        ? null : truncate(recommendation.getImprovements().get(0)))
+                .createdAt(recommendation.getCreatedAt())
+                .build();
+
+        if (previous != null || seeded) {
+            mongoTemplate.updateFirst(byUser, new Update().pull("recent", new Document("activityId", activity.getId())),
+                    UserDigest.class);
+        }
+
+        String base = "types." + entry.getType();
+        Update update = new Update()
+                .set("updatedAt", LocalDateTime.now())
+                .set(base + ".latest", entry)
+                .max(base + ".lastActivityAt", activity.getStartTime() != null ? activity.getStartTime() : LocalDateTime.now());
+        update.push("recent").slice(-recentSize).each(entry);
+
+        // a fresh seed already holds this activity's count and values
+        Totals delta = seeded ? new Totals(0, 0, 0)
+                : new Totals(1, valueOf(activity.getDuration()), valueOf(activity.getCaloriesBurned()));
+        if (previous != null && !seeded) {
+            String previousType = previous.getType() == null ? typeOf(null) : previous.getType();
+            if (previousType.equals(entry.getType())) {
+                delta = delta.minus(new Totals(1, valueOf(previous.getDuration()), valueOf(previous.getCaloriesBurned())));
+            } else {
+                apply(update, "types." + previousType,
+                        new Totals(-1, -valueOf(previous.getDuration()), -valueOf(previous.getCaloriesBurned())));
+            }
+        }
+        apply(update, base, delta);
+        mongoTemplate.upsert(byUser, update, UserDigest.class);
+    }
+
+    // a placeholder that was never replaced was never counted; a redelivered delete finds its
+    // activity in removedActivityIds and changes nothing, so this is safe to repeat
+    public void remove(Recommendation removed) {
+        if (removed.getUserId() == null || removed.isProvisional()) {
+            return;
+        }
+        Query byUser = Query.query(Criteria.where("_id").is(removed.getUserId()));
+        mongoTemplate.updateFirst(byUser, new Update().pull("recent", new Document("activityId", removed.getActivityId())),
+                UserDigest.class);
+
+        String base = "types." + (removed.getType() == null ? typeOf(null) : removed.getType());
+        Update update = new Update().set("updatedAt", LocalDateTime.now());
+        apply(update, base, new Totals(-1, -valueOf(removed.getDuration()), -valueOf(removed.getCaloriesBurned())));
+        update.push("removedActivityIds").slice(-removedSize).each(removed.getActivityId());
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(removed.getUserId())
+                        .and(base + ".count").gt(0)
+                        .and("removedActivityIds").ne(removed.getActivityId())),
+                update, UserDigest.class);
+    }
+
+    public Optional<UserDigest> find(String userId) {
+        UserDigest digest = mongoTemplate.findById(userId, UserDigest.class);
+        return Optional.ofNullable(digest != null ? digest : rebuild(userId));
+    }
+
+    // one-off seed for users whose recommendations predate the digest; reads per-type counts
+    // and totals and the newest recommendations only, never the full history. Placeholders
+    // are left out, as record() and remove() never count them either
+    private UserDigest rebuild(String userId) {
+        Criteria counted = Criteria.where("userId").is(userId).and("provisional").ne(true);
+        List<TypeTotals> totals = mongoTemplate.aggregate(Aggregation.newAggregation(
+                        Aggregation.match(counted),
+                        Aggregation.group("type").count().as("count")
+                                .sum("duration").as("totalMinutes")
+                                .sum("caloriesBurned").as("totalCalories")),
+                Recommendation.class, TypeTotals.class).getMappedResults();
+        if (totals.isEmpty()) {
+            return null;
+        }
+
+        Query newest = Query.query(counted)
+                .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+                .limit(recentSize);
+        List<UserDigest.Entry> recent = new ArrayList<>(mongoTemplate.find(newest, Recommendation.class).stream()
+                .map(rec -> UserDigest.Entry.builder()
+                        .activityId(rec.getActivityId())
+                        .type(rec.getType())
+                        .duration(rec.getDuration())
+                        .caloriesBurned(rec.getCaloriesBurned())
+                        .summary(truncate(firstSection(rec.getRecommendation())))
+                        .topImprovement(rec.getImprovements() == null || rec.getImprovements().isEmpty()
+                                ? null : truncate(rec.getImprovements().get(0)))
+                        .createdAt(rec.getCreatedAt())
+                        .build())
+                .toList());
+        recent.sort(Comparator.comparing(UserDigest.Entry::getCreatedAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        UserDigest digest = UserDigest.builder().userId(userId).recent(recent).updatedAt(LocalDateTime.now()).build();
+        for (TypeTotals typeTotals : totals) {
+            String type = typeTotals.id() == null ? typeOf(null) : typeTotals.id();
+            UserDigest.Entry latest = recent.stream()
+                    .filter(entry -> type.equals(entry.getType()))
+                    .reduce((first, second) -> second)
+                    .orElse(null);
+            digest.getTypes().put(type, UserDigest.TypeStats.builder()
+                    .count(typeTotals.count())
+                    .totalMinutes(typeTotals.totalMinutes())
+                    .totalCalories(typeTotals.totalCalories())
+                    .lastActivityAt(latest == null ? null : latest.getCreatedAt())
+                    .latest(latest)
+                    .build());
+        }
+        try {
+            mongoTemplate.insert(digest);
+        } catch (DuplicateKeyException e) {
+            // seeded concurrently; that digest may already include later updates
+            return mongoTemplate.findById(userId, UserDigest.class);
+        }
+        log.info("Seeded digest for user {} from {} recommendations", userId, digest.getTotalCount());
+        return digest;
+    }
+
+    private static void apply(Update update, String base, Totals delta) {
+        if (delta.count() != 0) {
+            update.inc(base + ".count", delta.count());
+        }
+        if (delta.minutes() != 0) {
+            update.inc(base + ".totalMinutes", delta.minutes());
+        }
+        if (delta.calories() != 0) {
+            update.inc(base + ".totalCalories", delta.calories());
+        }
+    }
+
+    private static long valueOf(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static String typeOf(ActivityType type) {
+        return (type == null ? ActivityType.OTHER : type).name();
+    }
+
+    private static String firstSection(String text) {
+        if (text == null) {
+            return null;
+        }
+        int end = text.indexOf("\n\n");
+        return end < 0 ? text : text.substring(0, end);
+    }
+
+    private String truncate(String text) {
+        if (text == null || text.length() <= summaryChars) {
+            return text;
+        }
+        return text.substring(0, summaryChars - 3) + "...";
+    }
+
+    record TypeTotals(String id, long count, long totalMinutes, long totalCalories) {
+    }
+
+    private record Totals(long count, long minutes, long calories) {
+
+        Totals minus(Totals other) {
+            return new Totals(count - other.count, minutes - other.minutes, calories - other.calories);
+        }
+    }
+}
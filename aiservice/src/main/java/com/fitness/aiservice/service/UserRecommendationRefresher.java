@@ -0,0 +1,189 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.UserDigest;
+import com.fitness.aiservice.model.UserRecommendation;
+import com.fitness.aiservice.respository.UserRecommendationRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the materialized USER_SUMMARY recommendation up to date. Changes to a user's
+ * activity recommendations only mark the summary stale; the expensive Gemini call runs
+ * once per quiet period per user instead of once per page view.
+ *
+ * Pending refreshes only live in memory, so a periodic sweep picks up summaries that stayed
+ * stale longer than the max delay, whether their refresh was lost in a restart or failed.
+ */
+@Service
+@Slf4j
+public class UserRecommendationRefresher {
+
+    private final UserDigestService userDigestService;
+    private final UserRecommendationRepository userRecommendationRepository;
+    private final ActivityAIService activityAIService;
+    private final MongoTemplate mongoTemplate;
+
+    private final Duration debounce;
+    private final Duration maxDelay;
+    private final int sweepBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, PendingRefresh> pending = new ConcurrentHashMap<>();
+
+    public UserRecommendationRefresher(UserDigestService userDigestService,
+                                       UserRecommendationRepository userRecommendationRepository,
+                                       ActivityAIService activityAIService,
+                                       MongoTemplate mongoTemplate,
+                                       @Value("${ai.user-summary.debounce-seconds:30}") long debounceSeconds,
+                                       @Value("${ai.user-summary.max-delay-seconds:300}") long maxDelaySeconds,
+                                       @Value("${ai.user-summary.refresh-threads:2}") int refreshThreads,
+                                       @Value("${ai.user-summary.sweep-batch-size:500}") int sweepBatchSize) {
+        this.userDigestService = userDigestService;
+        this.userRecommendationRepository = userRecommendationRepository;
+        this.activityAIService = activityAIService;
+        this.mongoTemplate = mongoTemplate;
+        this.debounce = Duration.ofSeconds(debounceSeconds);
+        this.maxDelay = Duration.ofSeconds(maxDelaySeconds);
+        this.sweepBatchSize = sweepBatchSize;
+        this.scheduler = Executors.newScheduledThreadPool(refreshThreads);
+    }
+
+    public void markStale(String userId) {
+        if (userId == null) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(userId)),
+                new Update()
+                        .min("staleSince", now)
+                        .max("lastChangeAt", now)
+                        .inc("pendingUpdates", 1),
+                UserRecommendation.class);
+
+        // every new change pushes the refresh back, but never past maxDelay after the first one
+        pending.compute(userId, (key, existing) -> {
+            LocalDateTime firstChange = existing == null ? now : existing.firstChange();
+            if (existing != null) {
+                existing.future().cancel(false);
+            }
+            LocalDateTime runAt = min(now.plus(debounce), firstChange.plus(maxDelay));
+            long delayMillis = Math.max(0, Duration.between(now, runAt).toMillis());
+            return new PendingRefresh(firstChange,
+                    scheduler.schedule(() -> refresh(userId), delayMillis, TimeUnit.MILLISECONDS));
+        });
+    }
+
+    // a first read with no summary yet; an already pending refresh is left as it is
+    public void requestRefresh(String userId) {
+        pending.computeIfAbsent(userId, key -> new PendingRefresh(LocalDateTime.now(),
+                scheduler.schedule(() -> refresh(userId), 0, TimeUnit.MILLISECONDS)));
+    }
+
+    @Scheduled(initialDelayString = "${ai.user-summary.sweep-initial-delay-seconds:30}",
+            fixedDelayString = "${ai.user-summary.sweep-interval-seconds:300}",
+            timeUnit = TimeUnit.SECONDS)
+    public void sweepStale() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime overdue = now.minus(maxDelay);
+        Criteria notRecentlySwept = new Criteria().orOperator(
+                Criteria.where("sweptAt").exists(false),
+                Criteria.where("sweptAt").lt(overdue));
+
+        Query query = Query.query(Criteria.where("staleSince").lt(overdue).andOperator(notRecentlySwept))
+                .limit(sweepBatchSize);
+        query.fields().include("_id");
+
+        int scheduled = 0;
+        for (UserRecommendation stale : mongoTemplate.find(query, UserRecommendation.class)) {
+            String userId = stale.getUserId();
+            if (pending.containsKey(userId)) {
+                continue;
+            }
+            // claimed first, so only one instance refreshes the user per sweep interval
+            long claimed = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(userId).andOperator(notRecentlySwept)),
+                    Update.update("sweptAt", now),
+                    UserRecommendation.class).getModifiedCount();
+            if (claimed == 1) {
+                requestRefresh(userId);
+                scheduled++;
+            }
+        }
+        if (scheduled > 0) {
+            log.info("Scheduled refreshes for {} overdue user summaries", scheduled);
+        }
+    }
+
+    public void refresh(String userId) {
+        pending.remove(userId);
+        LocalDateTime startedAt = LocalDateTime.now();
+
+        try {
+            UserDigest digest = userDigestService.find(userId).orElse(null);
+            if (digest == null || digest.getTotalCount() == 0) {
+                userRecommendationRepository.deleteById(userId);
+                return;
+            }
+
+            Optional<Recommendation> generated = activityAIService.generateUserCombinedRecommendation(userId, digest);
+            if (generated.isEmpty()) {
+                // the summary stays stale and the sweep tries again later
+                log.warn("Keeping the previous combined recommendation for user {}", userId);
+                return;
+            }
+            Recommendation combined = generated.get();
+
+            Update update = new Update()
+                    .set("type", combined.getType())
+                    .set("recommendation", combined.getRecommendation())
+                    .set("improvements", combined.getImprovements())
+                    .set("suggestions", combined.getSuggestions())
+                    .set("safety", combined.getSafety())
+                    .set("createdAt", startedAt)
+                    .set("basedOnRecommendations", (int) digest.getTotalCount());
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(userId)), update, UserRecommendation.class);
+
+            // changes that arrived while Gemini was running keep the summary stale;
+            // they have already scheduled the next refresh
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(userId)
+                            .orOperator(Criteria.where("lastChangeAt").lte(startedAt),
+                                    Criteria.where("lastChangeAt").exists(false))),
+                    new Update().unset("staleSince").set("pendingUpdates", 0),
+                    UserRecommendation.class);
+        } catch (Exception e) {
+            log.error("Failed to refresh combined recommendation for user {}", userId, e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private record PendingRefresh(LocalDateTime firstChange, ScheduledFuture<?> future) {
+    }
+}
@@ -0,0 +1,151 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.UserDigest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the USER_SUMMARY prompt from a {@link UserDigest}. Per-type statistics are always
+ * included; analyses are added, the latest of every type first and then the most recent,
+ * until the token budget is spent, so the prompt size does not depend on the history length.
+ */
+@Component
+public class UserSummaryPromptBuilder {
+
+    // rough average for English text
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private static final String TEMPLATE = """
+        You are an expert fitness coach.
+
+        Below is a digest of a user's training history: statistics per activity type,
+        followed by a selection of activity-level analyses (the latest of each type and the most recent ones).
+
+        USER ID: %s
+
+        ACTIVITY STATISTICS BY TYPE:
+        %s
+        SELECTED ACTIVITY ANALYSES (newest first):
+        %s
+        Using ALL of the information above, create ONE combined recommendation for this user.
+
+        Return the result in the EXACT JSON format below (NO extra text, NO markdown):
+
+        {
+          "analysis": {
+            "overall": "Overall analysis for the user",
+            "pace": "Overall comments on user's pace across activities",
+            "heartRate": "Overall comments on heart rate / intensity consistency",
+            "caloriesBurned": "Overall comments on calorie burn patterns"
+          },
+          "improvements": [
+            {
+              "area": "Key area to improve (e.g., Intensity, Consistency, Data Tracking)",
+              "recommendation": "Detailed combined recommendation for this area"
+            }
+          ],
+          "suggestions": [
+            {
+              "workout": "Suggested workout type",
+              "description": "Detailed description of what the user should do"
+            }
+          ],
+          "safety": [
+            "Important global safety guideline for this user",
+            "Another key safety point"
+          ]
+        }
+
+        Focus on patterns across ALL activities (e.g., low intensity, poor tracking, consistency).
+        """;
+
+    private final int maxPromptChars;
+
+    public UserSummaryPromptBuilder(@Value("${ai.user-summary.max-prompt-tokens:2000}") int maxPromptTokens) {
+        this.maxPromptChars = maxPromptTokens * CHARS_PER_TOKEN;
+    }
+
+    public String build(String userId, UserDigest digest) {
+        StringBuilder stats = new StringBuilder();
+        digest.getTypes().entrySet().stream()
+                .filter(type -> type.getValue().getCount() > 0)
+                .sorted(Map.Entry.comparingByValue(Comparator.comparingLong(UserDigest.TypeStats::getCount).reversed()))
+                .forEach(type -> appendStats(stats, type.getKey(), type.getValue()));
+
+        int budget = maxPromptChars - TEMPLATE.length() - userId.length() - stats.length();
+        StringBuilder analyses = new StringBuilder();
+        for (UserDigest.Entry entry : selectEntries(digest)) {
+            String line = formatEntry(entry);
+            if (analyses.length() + line.length() > budget) {
+                break;
+            }
+            analyses.append(line);
+        }
+
+        return String.format(TEMPLATE, userId, stats, analyses);
+    }
+
+    private List<UserDigest.Entry> selectEntries(UserDigest digest) {
+        Set<String> seen = new HashSet<>();
+        List<UserDigest.Entry> selected = new ArrayList<>();
+
+        digest.getTypes().values().stream()
+                .filter(stats -> stats.getCount() > 0 && stats.getLatest() != null)
+                .map(UserDigest.TypeStats::getLatest)
+                .sorted(Comparator.comparing(UserDigest.Entry::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder())))
+                .forEach(entry -> {
+                    if (seen.add(entry.getActivityId())) {
+                        selected.add(entry);
+                    }
+                });
+
+        List<UserDigest.Entry> recent = digest.getRecent();
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            if (seen.add(recent.get(i).getActivityId())) {
+                selected.add(recent.get(i));
+            }
+        }
+        return selected;
+    }
+
+    private static void appendStats(StringBuilder stats, String type, UserDigest.TypeStats typeStats) {
+        stats.append("- ").append(type).append(": ").append(typeStats.getCount()).append(" activities");
+        if (typeStats.getTotalMinutes() > 0) {
+            stats.append(", ").append(typeStats.getTotalMinutes()).append(" minutes in total (avg ")
+                    .append(typeStats.getTotalMinutes() / typeStats.getCount()).append(")");
+        }
+        if (typeStats.getTotalCalories() > 0) {
+            stats.append(", ").append(typeStats.getTotalCalories()).append(" kcal in total (avg ")
+                    .append(typeStats.getTotalCalories() / typeStats.getCount()).append(")");
+        }
+        if (typeStats.getLastActivityAt() != null) {
+            stats.append(", last on ").append(typeStats.getLastActivityAt().toLocalDate());
+        }
+        stats.append('\n');
+    }
+
+    private static String formatEntry(UserDigest.Entry entry) {
+        StringBuilder line = new StringBuilder("- [").append(entry.getType());
+        if (entry.getCreatedAt() != null) {
+            line.append(", ").append(entry.getCreatedAt().toLocalDate());
+        }
+        if (entry.getDuration() != null) {
+            line.append(", ").append(entry.getDuration()).append(" min");
+        }
+        if (entry.getCaloriesBurned() != null) {
+            line.append(", ").append(entry.getCaloriesBurned()).append(" kcal");
+        }
+        line.append("] ").append(entry.getSummary() == null ? "" : entry.getSummary());
+        if (entry.getTopImprovement() != null) {
+            line.append(" | Improve: ").append(entry.getTopImprovement());
+        }
+        return line.append('\n').toString();
+    }
+}
@@ -0,0 +1,128 @@
+package com.fitness.aiservice.llm;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LlmSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // starts at two concurrent calls and may grow to eight
+    private final LlmScheduler scheduler = new LlmScheduler(meterRegistry, 1000, 1_000_000, 100, 2, 1, 8, 0.7, 3.0, 0.25);
+
+    @BeforeEach
+    void start() {
+        scheduler.start();
+    }
+
+    @AfterEach
+    void stop() {
+        scheduler.stop();
+    }
+
+    @Test
+    void callsBeyondTheLimitWaitForAFreeSlot() throws InterruptedException {
+        AtomicInteger started = new AtomicInteger();
+        List<Sinks.One<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Sinks.One<String> call = Sinks.one();
+            calls.add(call);
+            scheduler.schedule(LlmPriority.NEW_ACTIVITY, 100, () -> {
+                started.incrementAndGet();
+                return call.asMono();
+            }).subscribe();
+        }
+
+        await(() -> started.get() == 2);
+        Thread.sleep(100);
+        assertThat(started).hasValue(2);
+
+        calls.get(0).tryEmitValue("done");
+        await(() -> started.get() == 3);
+        assertThat(meterRegistry.get("ai.llm.inflight").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void anOpenCircuitDoesNotGrowTheLimit() {
+        CircuitBreaker breaker = CircuitBreaker.ofDefaults("test");
+        breaker.transitionToForcedOpenState();
+
+        // rejected calls return at once; counted as latency samples they would look like fast successes
+        for (int i = 0; i < 20; i++) {
+            scheduler.schedule(LlmPriority.NEW_ACTIVITY, 100,
+                    () -> Mono.<String>error(CallNotPermittedException.createCallNotPermittedException(breaker)))
+                    .onErrorResume(e -> Mono.empty())
+                    .block(Duration.ofSeconds(5));
+        }
+
+        assertThat(meterRegistry.get("ai.llm.concurrency.limit").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void aBurstOfSlowCompletionsCutsTheLimitOnce() {
+        SimpleMeterRegistry wideMeters = new SimpleMeterRegistry();
+        LlmScheduler wide = new LlmScheduler(wideMeters, 1000, 1_000_000, 100, 8, 1, 8, 0.7, 3.0, 0.25);
+        wide.start();
+        try {
+            wide.schedule(LlmPriority.NEW_ACTIVITY, 100, () -> Mono.just("fast")).block(Duration.ofSeconds(5));
+            // fewer slow completions than the cut limit: all of them answer the same congestion
+            for (int i = 0; i < 5; i++) {
+                wide.schedule(LlmPriority.NEW_ACTIVITY, 100, () -> Mono.delay(Duration.ofMillis(50)).thenReturn("slow"))
+                        .block(Duration.ofSeconds(5));
+            }
+
+            assertThat(limitOf(wideMeters)).isCloseTo(8 * 0.7, within(0.01));
+        } finally {
+            wide.stop();
+        }
+    }
+
+    @Test
+    void aLargePromptIsNotMistakenForCongestion() {
+        scheduler.schedule(LlmPriority.NEW_ACTIVITY, 200, () -> Mono.delay(Duration.ofMillis(20)).thenReturn("small"))
+                .block(Duration.ofSeconds(5));
+        // five times slower, but fifty times the tokens
+        scheduler.schedule(LlmPriority.USER_SUMMARY, 10_000, () -> Mono.delay(Duration.ofMillis(100)).thenReturn("large"))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(limitOf(meterRegistry)).isGreaterThan(2);
+    }
+
+    @Test
+    void aCallRefusedByTheBreakerSpendsNoQuota() {
+        scheduler.schedule(LlmPriority.NEW_ACTIVITY, 500_000, () -> false, () -> Mono.just("rejected"))
+                .block(Duration.ofSeconds(5));
+
+        assertThat(meterRegistry.get("ai.llm.budget.utilization").tag("budget", "tokens").gauge().value())
+                .isLessThan(0.01);
+        assertThat(meterRegistry.get("ai.llm.budget.utilization").tag("budget", "requests").gauge().value())
+                .isLessThan(0.01);
+    }
+
+    private static double limitOf(SimpleMeterRegistry meters) {
+        return meters.get("ai.llm.concurrency.limit").gauge().value();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,119 @@
+package com.fitness.aiservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.aiservice.llm.LlmPriority;
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ActivityAIServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final GeminiService geminiService = mock(GeminiService.class);
+    private final RuleBasedRecommender ruleBasedRecommender = mock(RuleBasedRecommender.class);
+    private final GeminiResponseCache responseCache = mock(GeminiResponseCache.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ActivityAIService service = new ActivityAIService(geminiService, meterRegistry,
+            new GeminiResponseParser(objectMapper), ruleBasedRecommender, mock(UserSummaryPromptBuilder.class),
+            new PipelineMetrics(meterRegistry), responseCache);
+
+    private final Activity activity = Activity.builder()
+            .id("a1").userId("user-1").type(ActivityType.RUNNING).duration(30).caloriesBurned(300)
+            .build();
+    private final Recommendation fallback = Recommendation.builder().activityId("a1").ruleBased(true).build();
+
+    @BeforeEach
+    void geminiIsUp() {
+        when(geminiService.isAvailable()).thenReturn(true);
+        when(ruleBasedRecommender.recommend(activity)).thenReturn(fallback);
+    }
+
+    @Test
+    void anUnparseableResponseFallsBackToTheRuleBasedRecommendation() {
+        respondWith("Sorry, I cannot help with that.");
+
+        assertThat(service.generateRecommendation(activity, LlmPriority.NEW_ACTIVITY)).isSameAs(fallback);
+    }
+
+    @Test
+    void aResponseWithoutAnAnalysisFallsBackToTheRuleBasedRecommendation() throws Exception {
+        respondWith(envelope("{\"unexpected\": true}"));
+
+        Recommendation recommendation = service.generateRecommendation(activity, LlmPriority.NEW_ACTIVITY);
+
+        assertThat(recommendation).isSameAs(fallback);
+        assertThat(recommendation.isRuleBased()).isTrue();
+    }
+
+    @Test
+    void aValidAnalysisIsNotRuleBased() throws Exception {
+        respondWith(envelope("{\"analysis\": {\"overall\": \"Solid run\"}}"));
+
+        Recommendation recommendation = service.generateRecommendation(activity, LlmPriority.NEW_ACTIVITY);
+
+        assertThat(recommendation.isRuleBased()).isFalse();
+        assertThat(recommendation.getRecommendation()).isEqualTo("Overall:Solid run");
+    }
+
+    @Test
+    void onlyAResponseWithAnAnalysisIsCached() throws Exception {
+        when(responseCache.isEnabled()).thenReturn(true);
+        when(responseCache.canonical(activity)).thenReturn(activity);
+        when(responseCache.get(anyString())).thenReturn(Optional.empty());
+        String blocked = "{\"candidates\": [], \"promptFeedback\": {\"blockReason\": \"SAFETY\"}}";
+        String good = envelope("{\"analysis\": {\"overall\": \"Solid run\"}}");
+        when(geminiService.getRecommendations(anyString(), any(LlmPriority.class)))
+                .thenReturn(Mono.just(blocked), Mono.just(good));
+
+        service.generateRecommendation(activity, LlmPriority.NEW_ACTIVITY);
+        verify(responseCache, never()).put(anyString(), anyString(), anyLong());
+
+        service.generateRecommendation(activity, LlmPriority.NEW_ACTIVITY);
+        verify(responseCache).put(anyString(), eq(good), anyLong());
+    }
+
+    @Test
+    void aCachedResponseSkipsGemini() throws Exception {
+        when(responseCache.isEnabled()).thenReturn(true);
+        when(responseCache.canonical(activity)).thenReturn(activity);
+        when(responseCache.get(anyString())).thenReturn(Optional.of(envelope("{\"analysis\": {\"overall\": \"Cached\"}}")));
+
+        Recommendation recommendation = service.generateRecommendation(activity, LlmPriority.NEW_ACTIVITY);
+
+        assertThat(recommendation.getRecommendation()).isEqualTo("Overall:Cached");
+        verify(geminiService, never()).getRecommendations(anyString(), any(LlmPriority.class));
+        verify(responseCache, never()).put(anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void aStreamWithoutAnAnalysisFallsBackToTheRuleBasedRecommendation() {
+        when(geminiService.streamRecommendations(anyString())).thenReturn(Flux.just("{\"unexp", "ected\": 1}"));
+
+        assertThat(service.generateRecommendationStreaming(activity, chunk -> { })).isSameAs(fallback);
+    }
+
+    private void respondWith(String response) {
+        when(geminiService.getRecommendations(anyString(), any(LlmPriority.class))).thenReturn(Mono.just(response));
+    }
+
+    private String envelope(String text) throws Exception {
+        return "{\"candidates\": [{\"content\": {\"parts\": [{\"text\": " + objectMapper.writeValueAsString(text) + "}]}}]}";
+    }
+}
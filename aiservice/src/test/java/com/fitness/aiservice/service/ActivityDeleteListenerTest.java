@@ -0,0 +1,102 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.ActivityDeleteEvent;
+import com.fitness.aiservice.model.Recommendation;
+import com.mongodb.client.result.DeleteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ActivityDeleteListenerTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final UserRecommendationRefresher refresher = mock(UserRecommendationRefresher.class);
+    private final UserDigestService userDigestService = mock(UserDigestService.class);
+    private final ActivitySimilarityIndex similarityIndex = mock(ActivitySimilarityIndex.class);
+    private final ActivityDeleteListener listener = new ActivityDeleteListener(
+            mongoTemplate, refresher, userDigestService, similarityIndex, new SimpleMeterRegistry());
+
+    @Test
+    void aBatchIsOneFindAndOneRemove() {
+        Recommendation first = stored("a1", "user-1");
+        Recommendation second = stored("a2", "user-2");
+        when(mongoTemplate.find(any(Query.class), eq(Recommendation.class))).thenReturn(List.of(first, second));
+        when(mongoTemplate.remove(any(Query.class), eq(Recommendation.class))).thenReturn(DeleteResult.acknowledged(2));
+
+        listener.handleActivityDeletes(List.of(record("a1"), record("a2"), record("a1")));
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Recommendation.class));
+        verify(mongoTemplate, times(1)).remove(removed.capture(), eq(Recommendation.class));
+        assertThat(activityIds(removed.getValue())).containsExactly("a1", "a2");
+        verify(userDigestService).remove(first);
+        verify(userDigestService).remove(second);
+        verify(refresher).markStale("user-1");
+        verify(refresher).markStale("user-2");
+    }
+
+    @Test
+    void aBatchWithNothingStoredRemovesNothing() {
+        when(mongoTemplate.find(any(Query.class), eq(Recommendation.class))).thenReturn(List.of());
+
+        listener.handleActivityDeletes(List.of(record("a1")));
+
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(Recommendation.class));
+        verify(userDigestService, never()).remove(any());
+        verify(similarityIndex).remove("a1");
+    }
+
+    @Test
+    void aFailedDigestUpdateKeepsItsRecommendationForTheRetry() {
+        Recommendation first = stored("a1", "user-1");
+        Recommendation second = stored("a2", "user-2");
+        // Mongo returns documents in any order; the failure must still name the right record
+        when(mongoTemplate.find(any(Query.class), eq(Recommendation.class))).thenReturn(List.of(second, first));
+        when(mongoTemplate.remove(any(Query.class), eq(Recommendation.class))).thenReturn(DeleteResult.acknowledged(1));
+        doThrow(new IllegalStateException("mongo down")).when(userDigestService).remove(second);
+
+        assertThatThrownBy(() -> listener.handleActivityDeletes(List.of(record("a1"), record("a2"))))
+                .isInstanceOfSatisfying(BatchListenerFailedException.class,
+                        e -> assertThat(e.getIndex()).isEqualTo(1));
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(Recommendation.class));
+        assertThat(activityIds(removed.getValue())).containsExactly("a1");
+        verify(refresher).markStale("user-1");
+        verify(refresher, never()).markStale("user-2");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<String> activityIds(Query query) {
+        return (Collection<String>) query.getQueryObject().get("activityId", Document.class).get("$in");
+    }
+
+    private static Recommendation stored(String activityId, String userId) {
+        return Recommendation.builder().activityId(activityId).userId(userId).type("RUNNING").build();
+    }
+
+    private static ConsumerRecord<String, ActivityDeleteEvent> record(String activityId) {
+        ActivityDeleteEvent event = new ActivityDeleteEvent();
+        event.setId(activityId);
+        return new ConsumerRecord<>("activity-deletes", 0, 0L, activityId, event);
+    }
+}
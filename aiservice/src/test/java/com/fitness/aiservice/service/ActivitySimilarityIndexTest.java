@@ -0,0 +1,85 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ActivitySimilarityIndexTest {
+
+    @TempDir
+    Path snapshots;
+
+    @Test
+    void findsTheClosestActivityOfTheSameUserAndType() {
+        ActivitySimilarityIndex index = index(10, 100);
+        index.add(run("a1", "user-1", 45, 500));
+        index.add(run("a2", "user-1", 60, 700));
+
+        assertThat(index.findSimilar(run("a3", "user-1", 46, 505)))
+                .map(ActivitySimilarityIndex.Match::activityId)
+                .contains("a1");
+    }
+
+    @Test
+    void neverMatchesAnotherUsersActivity() {
+        ActivitySimilarityIndex index = index(10, 100);
+        index.add(run("a1", "user-1", 45, 500));
+
+        assertThat(index.findSimilar(run("a2", "user-2", 45, 500))).isEmpty();
+    }
+
+    @Test
+    void aUserKeepsOnlyTheirLatestActivities() {
+        ActivitySimilarityIndex index = index(2, 100);
+        index.add(run("a1", "user-1", 30, 300));
+        index.add(run("a2", "user-1", 60, 700));
+        index.add(run("a3", "user-1", 90, 1000));
+
+        assertThat(index.findSimilar(run("q", "user-1", 30, 300))).isEmpty();
+        assertThat(index.findSimilar(run("q", "user-1", 60, 700))).isPresent();
+    }
+
+    @Test
+    void aFullIndexRejectsNewActivities() {
+        ActivitySimilarityIndex index = index(10, 1);
+        index.add(run("a1", "user-1", 45, 500));
+        index.add(run("a2", "user-2", 45, 500));
+
+        assertThat(index.findSimilar(run("q", "user-2", 45, 500))).isEmpty();
+        assertThat(index.findSimilar(run("q", "user-1", 45, 500))).isPresent();
+    }
+
+    @Test
+    void aSnapshotRestoresTheIndex() {
+        ActivitySimilarityIndex index = index(10, 100);
+        index.add(run("a1", "user-1", 45, 500));
+        index.snapshot();
+
+        ActivitySimilarityIndex restored = index(10, 100);
+        restored.load();
+
+        assertThat(restored.findSimilar(run("q", "user-1", 45, 500)))
+                .map(ActivitySimilarityIndex.Match::activityId)
+                .contains("a1");
+    }
+
+    private ActivitySimilarityIndex index(int perUser, long total) {
+        return new ActivitySimilarityIndex(new SimpleMeterRegistry(), true, 0.15, perUser, total,
+                snapshots.resolve("index.bin").toString());
+    }
+
+    private static Activity run(String id, String userId, int minutes, int calories) {
+        return Activity.builder()
+                .id(id).userId(userId).type(ActivityType.RUNNING)
+                .duration(minutes).caloriesBurned(calories)
+                .additionalMetrics(Map.of())
+                .build();
+    }
+}
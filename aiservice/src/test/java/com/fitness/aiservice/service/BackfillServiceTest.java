@@ -0,0 +1,98 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.BackfillJob;
+import com.fitness.aiservice.model.BackfillLease;
+import com.fitness.aiservice.model.BackfillState;
+import com.fitness.aiservice.respository.BackfillJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BackfillServiceTest {
+
+    private final BackfillJobRepository backfillJobRepository = mock(BackfillJobRepository.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ActivityMessageListener activityMessageListener = mock(ActivityMessageListener.class);
+    private final BackfillService service = new BackfillService(backfillJobRepository, mongoTemplate, activityService(),
+            activityMessageListener, mock(KeyOrderedExecutor.class), new SimpleMeterRegistry(), 100, 4, 5, 60);
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    @Test
+    void startIsRefusedWhileAnotherInstanceHoldsTheLease() {
+        leaseHeldElsewhere();
+
+        assertThatThrownBy(service::start).hasMessageContaining("another instance");
+        verify(backfillJobRepository, never()).save(any());
+    }
+
+    @Test
+    void anInterruptedJobIsLeftToTheInstanceHoldingTheLease() {
+        leaseHeldElsewhere();
+        BackfillJob job = BackfillJob.builder().id("job-1").state(BackfillState.RUNNING).startedAt(LocalDateTime.now()).build();
+        when(backfillJobRepository.findFirstByOrderByStartedAtDesc()).thenReturn(Optional.of(job));
+
+        service.resumeInterrupted();
+
+        verify(backfillJobRepository, never()).save(any());
+        verify(activityMessageListener, never()).reprocessActivity(any());
+    }
+
+    @Test
+    void aJobWhoseRunnerDiedIsTakenOverOnceItsLeaseExpires() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(BackfillLease.class)))
+                .thenThrow(new DuplicateKeyException("_id"))
+                .thenReturn(null);
+        BackfillJob job = BackfillJob.builder().id("job-1").state(BackfillState.RUNNING).startedAt(LocalDateTime.now()).build();
+        when(backfillJobRepository.findFirstByOrderByStartedAtDesc()).thenReturn(Optional.of(job));
+
+        service.resumeInterrupted();
+        verify(backfillJobRepository, never()).save(any());
+
+        // the next periodic check finds the lease expired
+        service.resumeInterrupted();
+        verify(backfillJobRepository, timeout(5000)).save(argThat(saved -> saved.getState() == BackfillState.COMPLETED));
+    }
+
+    private void leaseHeldElsewhere() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(BackfillLease.class)))
+                .thenThrow(new DuplicateKeyException("_id"));
+    }
+
+    private static WebClient activityService() {
+        return WebClient.builder()
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        // the count, or an empty page of activities
+                        .body(request.url().getPath().endsWith("/count") ? "0" : "[]")
+                        .build()))
+                .build();
+    }
+}
@@ -0,0 +1,67 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import com.fitness.aiservice.respository.PromptCacheRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class GeminiResponseCacheTest {
+
+    private final GeminiResponseCache cache = new GeminiResponseCache(mock(PromptCacheRepository.class),
+            mock(MongoTemplate.class), new SimpleMeterRegistry(), true, 0.05, 168, 100, 1000);
+
+    @Test
+    void nearbyValuesShareABucket() {
+        assertThat(cache.bucket(7.0)).isEqualTo(cache.bucket(7.2));
+        assertThat(cache.bucket(30)).isEqualTo(cache.bucket(31));
+    }
+
+    @Test
+    void bucketsAreRelativeToTheValue() {
+        assertThat(cache.bucket(2.5)).isNotEqualTo(cache.bucket(7.4));
+        assertThat(cache.bucket(2.5)).isNotEqualTo(cache.bucket(3.0));
+        assertThat(cache.bucket(1000)).isNotEqualTo(cache.bucket(1200));
+    }
+
+    @Test
+    void canonicalActivityKeepsOnlyWhatThePromptUses() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("distance", 7.1);
+        metrics.put("route", "64f1c0ffee1234567890abcd");
+        Activity activity = Activity.builder()
+                .id("64f1c0ffee1234567890abcd").userId("user-1").type(ActivityType.RUNNING)
+                .duration(31).caloriesBurned(402).additionalMetrics(metrics)
+                .build();
+
+        Activity canonical = cache.canonical(activity);
+
+        assertThat(canonical.getId()).isNull();
+        assertThat(canonical.getUserId()).isNull();
+        assertThat(canonical.getType()).isEqualTo(ActivityType.RUNNING);
+        assertThat(canonical.getDuration()).isEqualTo((int) Math.round(cache.bucket(30)));
+        // text is never rewritten, digits inside ids included
+        assertThat(canonical.getAdditionalMetrics()).containsEntry("route", "64f1c0ffee1234567890abcd");
+        assertThat(canonical.getAdditionalMetrics()).containsEntry("distance", cache.bucket(7.0));
+    }
+
+    @Test
+    void metricOrderDoesNotChangeTheCanonicalActivity() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("distance", 5.0);
+        first.put("heartRate", 150);
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("heartRate", 150);
+        second.put("distance", 5.0);
+
+        assertThat(cache.canonical(Activity.builder().additionalMetrics(first).build()).getAdditionalMetrics().toString())
+                .isEqualTo(cache.canonical(Activity.builder().additionalMetrics(second).build()).getAdditionalMetrics().toString());
+    }
+}
@@ -0,0 +1,133 @@
+package com.fitness.aiservice.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeminiResponseParserTest {
+
+    private final GeminiResponseParser parser = new GeminiResponseParser(new ObjectMapper());
+
+    @Test
+    void readsFirstCandidateTextAndTokenCount() throws IOException {
+        String response = """
+                {
+                  "candidates": [
+                    {"content": {"parts": [{"text": "first"}, {"text": "second part"}]}, "finishReason": "STOP"},
+                    {"content": {"parts": [{"text": "other candidate"}]}}
+                  ],
+                  "usageMetadata": {"promptTokenCount": 120, "totalTokenCount": 480},
+                  "modelVersion": "gemini"
+                }
+                """;
+
+        GeminiResponseParser.Envelope envelope = parser.readEnvelope(response);
+
+        assertThat(envelope.text()).isEqualTo("first");
+        assertThat(envelope.totalTokens()).isEqualTo(480);
+    }
+
+    @Test
+    void missingUsageMetadataReportsMinusOne() throws IOException {
+        String response = """
+                {"candidates": [{"content": {"parts": [{"text": "only text"}]}}]}
+                """;
+
+        assertThat(parser.readEnvelope(response).totalTokens()).isEqualTo(-1);
+    }
+
+    @Test
+    void responseWithoutCandidateTextIsRejected() {
+        String response = """
+                {"promptFeedback": {"blockReason": "SAFETY"}}
+                """;
+
+        assertThatThrownBy(() -> parser.readEnvelope(response)).isInstanceOf(JsonParseException.class);
+    }
+
+    @Test
+    void streamChunksMayCarryNoText() throws IOException {
+        String chunk = """
+                {"usageMetadata": {"totalTokenCount": 42}}
+                """;
+
+        GeminiResponseParser.Envelope envelope = parser.readStreamChunk(chunk);
+
+        assertThat(envelope.text()).isNull();
+        assertThat(envelope.totalTokens()).isEqualTo(42);
+    }
+
+    @Test
+    void readsAnAnalysisWrappedInACodeFence() throws IOException {
+        String text = """
+                ```json
+                {
+                  "analysis": {
+                    "caloriesBurned": "Good burn",
+                    "overall": "Solid run",
+                    "pace": "Steady",
+                    "heartRate": "In zone 2",
+                    "extra": {"ignored": true}
+                  },
+                  "improvements": [{"area": "Cadence", "recommendation": "Shorter steps"}],
+                  "suggestions": [{"workout": "Intervals", "description": "6x400m"}, "not an object"],
+                  "safety": ["Hydrate", {"nested": "skipped"}, "Warm up"]
+                }
+                ```
+                """;
+
+        GeminiResponseParser.Analysis analysis = parser.readAnalysis(text);
+
+        assertThat(analysis.hasAnalysis()).isTrue();
+        assertThat(analysis.recommendation()).isEqualTo(
+                "Overall:Solid run\n\nPace:Steady\n\nHeart Rate:In zone 2\n\nCalories:Good burn");
+        assertThat(analysis.improvements()).containsExactly("Cadence: Shorter steps");
+        assertThat(analysis.suggestions()).containsExactly("Intervals: 6x400m");
+        assertThat(analysis.safety()).containsExactly("Hydrate", "Warm up");
+    }
+
+    @Test
+    void missingSectionsFallBackToDefaults() throws IOException {
+        GeminiResponseParser.Analysis analysis = parser.readAnalysis("{\"unexpected\": [1, 2, 3]}");
+
+        assertThat(analysis.hasAnalysis()).isFalse();
+        assertThat(analysis.recommendation()).isEmpty();
+        assertThat(analysis.improvements()).containsExactly("No specific improvements provided");
+        assertThat(analysis.suggestions()).containsExactly("No specific suggestions provided");
+        assertThat(analysis.safety()).containsExactly("Follow general safety guidelines");
+    }
+
+    @Test
+    void readsEveryObjectOfABatchAndSkipsTheRest() throws IOException {
+        String text = """
+                [
+                  {"activityId": "a1", "analysis": {"overall": "First"}},
+                  "stray text",
+                  {"activityId": 7, "analysis": {"overall": "Bad id"}},
+                  {"activityId": "a2"}
+                ]
+                """;
+
+        List<GeminiResponseParser.Analysis> analyses = parser.readAnalyses(text);
+
+        assertThat(analyses).extracting(GeminiResponseParser.Analysis::activityId).containsExactly("a1", null, "a2");
+        assertThat(analyses).extracting(GeminiResponseParser.Analysis::hasAnalysis).containsExactly(true, true, false);
+        assertThat(analyses.get(0).recommendation()).isEqualTo("Overall:First");
+    }
+
+    @Test
+    void batchTextThatIsNotAnArrayIsRejected() {
+        assertThatThrownBy(() -> parser.readAnalyses("{\"activityId\": \"a1\"}")).isInstanceOf(JsonParseException.class);
+    }
+
+    @Test
+    void analysisTextThatIsNotJsonIsRejected() {
+        assertThatThrownBy(() -> parser.readAnalysis("Sorry, I cannot help with that.")).isInstanceOf(IOException.class);
+    }
+}
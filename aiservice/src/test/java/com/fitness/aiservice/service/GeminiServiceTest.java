@@ -0,0 +1,280 @@
+package com.fitness.aiservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fitness.aiservice.llm.LlmPriority;
+import com.fitness.aiservice.llm.LlmScheduler;
+import com.sun.net.httpserver.HttpServer;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// faults are injected below the WebClient: a stub ExchangeFunction answers with scripted
+// responses, and the timeout tests go through the real connector to a local server that stalls
+class GeminiServiceTest {
+
+    private static final String URL = "http://gemini.test/v1beta/models/gemini:generateContent";
+    private static final long MIN_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 2000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LlmScheduler llmScheduler = new LlmScheduler(meterRegistry, 1000, 1_000_000, 100, 8, 1, 32, 0.7, 3.0, 0.25);
+    private final Deque<ClientResponse> responses = new ArrayDeque<>();
+    private final List<Long> attempts = new ArrayList<>();
+    private final WebClient.Builder stubbed = WebClient.builder().exchangeFunction(request -> {
+        synchronized (attempts) {
+            attempts.add(System.nanoTime());
+            return Mono.just(responses.isEmpty() ? ok() : responses.poll());
+        }
+    });
+
+    @BeforeEach
+    void start() {
+        ReflectionTestUtils.invokeMethod(llmScheduler, "start");
+    }
+
+    @AfterEach
+    void stop() {
+        ReflectionTestUtils.invokeMethod(llmScheduler, "stop");
+    }
+
+    @Test
+    void transientFailuresAreRetriedUntilOneSucceeds() {
+        GeminiService service = service(stubbed, 30_000, 3, 20);
+        responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        responses.add(status(HttpStatus.BAD_GATEWAY));
+
+        assertThat(call(service)).isEqualTo("{\"ok\":true}");
+        assertThat(attempts).hasSize(3);
+        assertThat(meterRegistry.get("gemini.retries").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void retriesBackOffAtLeastTheMinimumBetweenAttempts() {
+        GeminiService service = service(stubbed, 30_000, 3, 20);
+        for (int i = 0; i < 3; i++) {
+            responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+
+        call(service);
+
+        assertThat(attempts).hasSize(4);
+        for (int i = 1; i < attempts.size(); i++) {
+            long gap = Duration.ofNanos(attempts.get(i) - attempts.get(i - 1)).toMillis();
+            assertThat(gap).isBetween(MIN_BACKOFF_MS, MAX_BACKOFF_MS + 500);
+        }
+    }
+
+    @Test
+    void theLastFailureSurfacesOnceTheRetriesAreSpent() {
+        GeminiService service = service(stubbed, 30_000, 2, 20);
+        for (int i = 0; i < 5; i++) {
+            responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+
+        assertThatThrownBy(() -> call(service))
+                .isInstanceOfSatisfying(WebClientResponseException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(attempts).hasSize(3);
+    }
+
+    @Test
+    void aClientErrorIsNotRetried() {
+        GeminiService service = service(stubbed, 30_000, 3, 20);
+        responses.add(status(HttpStatus.BAD_REQUEST));
+
+        assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientResponseException.BadRequest.class);
+        assertThat(attempts).hasSize(1);
+    }
+
+    @Test
+    void aRateLimitedCallWaitsForRetryAfter() {
+        GeminiService service = service(stubbed, 30_000, 3, 20);
+        responses.add(ClientResponse.create(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").build());
+
+        assertThat(call(service)).isEqualTo("{\"ok\":true}");
+        assertThat(attempts).hasSize(2);
+        assertThat(Duration.ofNanos(attempts.get(1) - attempts.get(0))).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void aRetryAfterBeyondTheMaximumBackoffFailsAtOnce() {
+        GeminiService service = service(stubbed, 30_000, 3, 20);
+        responses.add(ClientResponse.create(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "60").build());
+
+        assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientResponseException.TooManyRequests.class);
+        assertThat(attempts).hasSize(1);
+    }
+
+    @Test
+    void aTimedOutAttemptIsRetried() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = stallingServer(requests, 1);
+        try {
+            GeminiService service = service(WebClient.builder(), 200, 3, 20);
+            ReflectionTestUtils.setField(service, "geminiApiUrl", url(server));
+
+            assertThat(call(service)).isEqualTo("{\"ok\":true}");
+            assertThat(requests).hasValue(2);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void timeoutsCountAsTransientFailures() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = stallingServer(requests, Integer.MAX_VALUE);
+        try {
+            GeminiService service = service(WebClient.builder(), 200, 1, 20);
+            ReflectionTestUtils.setField(service, "geminiApiUrl", url(server));
+
+            assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientRequestException.class);
+            assertThat(requests).hasValue(2);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void enoughFailuresOpenTheCircuitAndLaterCallsFailFast() {
+        // window of 4: the rate is evaluated from the second call on
+        GeminiService service = service(stubbed, 30_000, 0, 4);
+        responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientResponseException.class);
+        }
+        assertThat(service.isAvailable()).isFalse();
+
+        assertThatThrownBy(() -> call(service)).isInstanceOf(CallNotPermittedException.class);
+        assertThat(attempts).hasSize(2);
+    }
+
+    @Test
+    void aHalfOpenCircuitClosesAfterSuccessfulTrialCalls() throws InterruptedException {
+        GeminiService service = openCircuit();
+
+        Thread.sleep(1100);
+        // the default of ten trial calls are let through once the open period is over
+        for (int i = 0; i < 10; i++) {
+            assertThat(call(service)).isEqualTo("{\"ok\":true}");
+        }
+
+        assertThat(service.isAvailable()).isTrue();
+        assertThat(state(service)).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void aHalfOpenCircuitReopensWhenTheTrialCallsFail() throws InterruptedException {
+        GeminiService service = openCircuit();
+        for (int i = 0; i < 10; i++) {
+            responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+
+        Thread.sleep(1100);
+        assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientResponseException.class);
+        assertThat(state(service)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        for (int i = 1; i < 10; i++) {
+            assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientResponseException.class);
+        }
+
+        assertThat(service.isAvailable()).isFalse();
+        assertThatThrownBy(() -> call(service)).isInstanceOf(CallNotPermittedException.class);
+        assertThat(attempts).hasSize(12);
+    }
+
+    private GeminiService openCircuit() {
+        GeminiService service = service(stubbed, 30_000, 0, 4);
+        responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        responses.add(status(HttpStatus.SERVICE_UNAVAILABLE));
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> call(service)).isInstanceOf(WebClientResponseException.class);
+        }
+        assertThat(state(service)).isEqualTo(CircuitBreaker.State.OPEN);
+        return service;
+    }
+
+    private GeminiService service(WebClient.Builder webClient, long responseTimeoutMillis, int maxRetries, int windowSize) {
+        GeminiService service = new GeminiService(webClient, new GeminiResponseParser(new ObjectMapper()), llmScheduler,
+                meterRegistry, 1000, responseTimeoutMillis, maxRetries, MIN_BACKOFF_MS, MAX_BACKOFF_MS,
+                50, 10_000, windowSize, 1);
+        ReflectionTestUtils.setField(service, "geminiApiUrl", URL);
+        ReflectionTestUtils.setField(service, "geminiApiKey", "test-key");
+        return service;
+    }
+
+    private static String call(GeminiService service) {
+        return service.getRecommendations("Analyze this run", LlmPriority.NEW_ACTIVITY).block(Duration.ofSeconds(10));
+    }
+
+    private static CircuitBreaker.State state(GeminiService service) {
+        return ((CircuitBreaker) ReflectionTestUtils.getField(service, "circuitBreaker")).getState();
+    }
+
+    private static ClientResponse ok() {
+        return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, "application/json")
+                .body("{\"ok\":true}")
+                .build();
+    }
+
+    private static ClientResponse status(HttpStatus status) {
+        return ClientResponse.create(status).build();
+    }
+
+    // the first stalledRequests requests get no answer before the client gives up on them
+    private static HttpServer stallingServer(AtomicInteger requests, int stalledRequests) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", exchange -> {
+            try {
+                if (requests.incrementAndGet() <= stalledRequests) {
+                    Thread.sleep(2000);
+                }
+                byte[] body = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add(HttpHeaders.CONTENT_TYPE, "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException | IOException e) {
+                // the client has already hung up
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1beta/models/gemini:generateContent";
+    }
+}
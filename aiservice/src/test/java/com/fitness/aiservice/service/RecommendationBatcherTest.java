@@ -0,0 +1,88 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.llm.LlmPriority;
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecommendationBatcherTest {
+
+    private final ActivityAIService activityAIService = mock(ActivityAIService.class);
+    private final RuleBasedRecommender ruleBasedRecommender = mock(RuleBasedRecommender.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RecommendationBatcher batcher = new RecommendationBatcher(activityAIService, ruleBasedRecommender,
+            new PipelineMetrics(meterRegistry), meterRegistry, 2, 60_000);
+
+    private final Activity first = Activity.builder().id("a1").userId("user-1").build();
+    private final Activity second = Activity.builder().id("a2").userId("user-2").build();
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void failedBatchFallsBackToRulesWithoutSinglePrompts() throws Exception {
+        when(activityAIService.generateBatchRecommendations(anyList(), any()))
+                .thenThrow(new RuntimeException("quota exhausted"));
+        when(ruleBasedRecommender.recommend(first)).thenReturn(recommendation("a1", "rules"));
+        when(ruleBasedRecommender.recommend(second)).thenReturn(recommendation("a2", "rules"));
+
+        CompletableFuture<Recommendation> firstResult = batcher.submit(first, LlmPriority.NEW_ACTIVITY);
+        CompletableFuture<Recommendation> secondResult = batcher.submit(second, LlmPriority.NEW_ACTIVITY);
+
+        assertThat(firstResult.get(5, TimeUnit.SECONDS).getRecommendation()).isEqualTo("rules");
+        assertThat(secondResult.get(5, TimeUnit.SECONDS).getRecommendation()).isEqualTo("rules");
+        verify(activityAIService, never()).generateRecommendation(any(), any());
+    }
+
+    @Test
+    void activitiesMissingFromABatchAreRetriedAlone() throws Exception {
+        when(activityAIService.generateBatchRecommendations(anyList(), any()))
+                .thenReturn(Map.of("a1", recommendation("a1", "batch")));
+        when(activityAIService.generateRecommendation(second, LlmPriority.NEW_ACTIVITY))
+                .thenReturn(recommendation("a2", "single"));
+
+        CompletableFuture<Recommendation> firstResult = batcher.submit(first, LlmPriority.NEW_ACTIVITY);
+        CompletableFuture<Recommendation> secondResult = batcher.submit(second, LlmPriority.NEW_ACTIVITY);
+
+        assertThat(firstResult.get(5, TimeUnit.SECONDS).getRecommendation()).isEqualTo("batch");
+        assertThat(secondResult.get(5, TimeUnit.SECONDS).getRecommendation()).isEqualTo("single");
+        verify(ruleBasedRecommender, never()).recommend(any());
+    }
+
+    @Test
+    void backfillActivitiesAreNeverBatchedWithLiveOnes() throws Exception {
+        Activity backfill = Activity.builder().id("b1").userId("user-3").build();
+        when(activityAIService.generateBatchRecommendations(anyList(), any()))
+                .thenReturn(Map.of("a1", recommendation("a1", "batch"), "a2", recommendation("a2", "batch")));
+
+        batcher.submit(backfill, LlmPriority.BACKFILL);
+        CompletableFuture<Recommendation> firstResult = batcher.submit(first, LlmPriority.NEW_ACTIVITY);
+        batcher.submit(second, LlmPriority.NEW_ACTIVITY);
+
+        assertThat(firstResult.get(5, TimeUnit.SECONDS).getRecommendation()).isEqualTo("batch");
+        verify(activityAIService).generateBatchRecommendations(List.of(first, second), LlmPriority.NEW_ACTIVITY);
+        verify(activityAIService, never()).generateBatchRecommendations(anyList(), eq(LlmPriority.BACKFILL));
+    }
+
+    private static Recommendation recommendation(String activityId, String text) {
+        return Recommendation.builder().activityId(activityId).recommendation(text).build();
+    }
+}
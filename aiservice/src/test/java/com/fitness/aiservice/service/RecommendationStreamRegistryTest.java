@@ -0,0 +1,97 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.respository.RecommendationRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class RecommendationStreamRegistryTest {
+
+    private final RecommendationRepository recommendationRepository = mock(RecommendationRepository.class);
+
+    @Test
+    void unknownActivitiesAreRejectedWithoutRegisteringASink() {
+        RecommendationStreamRegistry registry = registry(false);
+
+        assertThatThrownBy(() -> registry.watch("missing").blockLast(Duration.ofSeconds(5)))
+                .hasMessageContaining("Activity not found");
+        assertThat(registry.activeStreams()).isZero();
+    }
+
+    @Test
+    void aCancelledClientReleasesItsSink() throws InterruptedException {
+        RecommendationStreamRegistry registry = registry(true);
+
+        Disposable client = registry.watch("a1").subscribe();
+        awaitStreams(registry, 1);
+        client.dispose();
+
+        awaitStreams(registry, 0);
+        assertThat(registry.isWatched("a1")).isFalse();
+    }
+
+    @Test
+    void aLateClientGetsTheTextSoFar() {
+        RecommendationStreamRegistry registry = registry(true);
+        registry.emitChunk("a1", "Solid ");
+        registry.emitChunk("a1", "run");
+
+        ServerSentEvent<Object> first = registry.watch("a1").blockFirst(Duration.ofSeconds(5));
+
+        assertThat(first.event()).isEqualTo("chunk");
+        assertThat(first.data()).isEqualTo("Solid run");
+    }
+
+    @Test
+    void completionEndsTheStreamWithTheRecommendation() throws Exception {
+        RecommendationStreamRegistry registry = registry(true);
+        CompletableFuture<List<ServerSentEvent<Object>>> events = registry.watch("a1").collectList().toFuture();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!registry.isWatched("a1") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        registry.emitChunk("a1", "Solid run");
+        Recommendation recommendation = Recommendation.builder().activityId("a1").recommendation("Solid run").build();
+        registry.complete("a1", recommendation);
+
+        assertThat(events.get(5, TimeUnit.SECONDS))
+                .extracting(ServerSentEvent::event)
+                .containsExactly("chunk", "recommendation");
+        assertThat(registry.activeStreams()).isZero();
+    }
+
+    private RecommendationStreamRegistry registry(boolean activityExists) {
+        WebClient activityService = WebClient.builder()
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                        .body(String.valueOf(activityExists))
+                        .build()))
+                .build();
+        return new RecommendationStreamRegistry(recommendationRepository, activityService, 120, 60);
+    }
+
+    private static void awaitStreams(RecommendationStreamRegistry registry, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.activeStreams() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(registry.activeStreams()).isEqualTo(expected);
+    }
+}
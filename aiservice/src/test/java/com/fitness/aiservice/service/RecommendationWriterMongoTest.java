@@ -0,0 +1,117 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Races real findAndModify upserts on the unique activityId index: the atomicity these
+ * tests rely on is MongoDB's, not a stand-in for it.
+ */
+@DataMongoTest(properties = "spring.data.mongodb.auto-index-creation=true")
+@Testcontainers
+class RecommendationWriterMongoTest {
+
+    private static final int WRITERS = 16;
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:7.0");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private RecommendationWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.remove(new Query(), Recommendation.class);
+        writer = new RecommendationWriter(mongoTemplate, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void concurrentWritersEachSeeTheDocumentTheyReplaced() throws Exception {
+        List<Recommendation> previous = race(i -> () -> writer.upsert(recommendation("Overall:" + i)));
+
+        List<String> replaced = new ArrayList<>();
+        int inserts = 0;
+        for (Recommendation recommendation : previous) {
+            if (recommendation == null) {
+                inserts++;
+            } else {
+                replaced.add(recommendation.getRecommendation());
+            }
+        }
+        Recommendation last = mongoTemplate.findAll(Recommendation.class).get(0);
+
+        // exactly one insert, and every other write replaced a distinct earlier one, so no
+        // two writers apply their digest delta against the same previous analysis
+        assertThat(mongoTemplate.count(new Query(), Recommendation.class)).isEqualTo(1);
+        assertThat(inserts).isEqualTo(1);
+        assertThat(replaced).hasSize(WRITERS - 1).doesNotHaveDuplicates().doesNotContain(last.getRecommendation());
+    }
+
+    @Test
+    void concurrentInsertsLeaveTheFirstDocumentInPlace() throws Exception {
+        List<Recommendation> existing = race(i -> () -> writer.insertIfAbsent(recommendation("Overall:" + i)));
+
+        Recommendation stored = mongoTemplate.findAll(Recommendation.class).get(0);
+        assertThat(existing).filteredOn(recommendation -> recommendation == null).hasSize(1);
+        assertThat(existing).filteredOn(recommendation -> recommendation != null)
+                .hasSize(WRITERS - 1)
+                .allSatisfy(recommendation -> assertThat(recommendation.getRecommendation())
+                        .isEqualTo(stored.getRecommendation()));
+    }
+
+    private List<Recommendation> race(IntFunction<Callable<Recommendation>> writes) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Recommendation>> futures = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                Callable<Recommendation> write = writes.apply(i);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return write.call();
+                }));
+            }
+            start.countDown();
+
+            List<Recommendation> results = new ArrayList<>();
+            for (Future<Recommendation> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Recommendation recommendation(String text) {
+        return Recommendation.builder()
+                .activityId("a1").userId("user-1").type("RUNNING")
+                .recommendation(text)
+                .build();
+    }
+}
@@ -0,0 +1,73 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecommendationWriterTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final RecommendationWriter writer = new RecommendationWriter(mongoTemplate, new SimpleMeterRegistry());
+
+    @Test
+    void anInsertReturnsNoPreviousDocument() {
+        Recommendation recommendation = recommendation("Overall:First");
+
+        assertThat(writer.upsert(recommendation)).isNull();
+        assertThat(recommendation.getUpdatedAt()).isNotNull();
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), options.capture(), eq(Recommendation.class));
+        assertThat(options.getValue().isReturnNew()).isFalse();
+        assertThat(options.getValue().isUpsert()).isTrue();
+        assertThat(update.getValue().getUpdateObject().get("$setOnInsert", Document.class)).containsKey("createdAt");
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class)).doesNotContainKey("createdAt");
+    }
+
+    @Test
+    void anUpdateKeepsTheFirstCreationTime() {
+        LocalDateTime firstAnalysed = LocalDateTime.of(2024, 3, 1, 9, 0);
+        Recommendation stored = Recommendation.builder().id("r1").activityId("a1").createdAt(firstAnalysed).build();
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Recommendation.class)))
+                .thenReturn(stored);
+        Recommendation recommendation = recommendation("Overall:Second");
+
+        assertThat(writer.upsert(recommendation)).isSameAs(stored);
+        assertThat(recommendation.getId()).isEqualTo("r1");
+        assertThat(recommendation.getCreatedAt()).isEqualTo(firstAnalysed);
+    }
+
+    @Test
+    void theLoserOfAnInsertRaceGetsTheWinnersDocument() {
+        Recommendation winner = recommendation("Overall:Winner");
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Recommendation.class)))
+                .thenThrow(new DuplicateKeyException("activityId"))
+                .thenReturn(winner);
+
+        assertThat(writer.upsert(recommendation("Overall:Loser"))).isSameAs(winner);
+    }
+
+    private static Recommendation recommendation(String text) {
+        return Recommendation.builder()
+                .activityId("a1").userId("user-1").type("RUNNING")
+                .recommendation(text)
+                .build();
+    }
+}
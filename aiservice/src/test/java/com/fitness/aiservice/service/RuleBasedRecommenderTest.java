@@ -0,0 +1,138 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.config.RecommendationRulesProperties;
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import com.fitness.aiservice.model.Recommendation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RuleBasedRecommenderTest {
+
+    private final RuleBasedRecommender recommender = new RuleBasedRecommender(rules());
+
+    @Test
+    void onTargetRun() {
+        Recommendation recommendation = recommender.recommend(run(45, 500, Map.of("distance", 9.0, "averageHeartRate", 150)));
+
+        assertThat(recommendation.getRecommendation()).isEqualTo("""
+                Overall:A solid 45 minute running session.
+
+                Pace:Average speed of 12.0 km/h.
+
+                Heart Rate:Average heart rate of 150 bpm.
+
+                Calories:500 kcal burned, 11.1 kcal per minute.""");
+        assertThat(recommendation.getImprovements())
+                .containsExactly("Keep the current duration and intensity, they are on target");
+        assertThat(recommendation.getSuggestions()).containsExactly(
+                "Easy run: 30-40 minutes at a conversational pace",
+                "Intervals: 6 x 400m at 5K pace with 90 seconds of walking in between");
+        assertThat(recommendation.getSafety()).containsExactly(
+                "Increase weekly distance by no more than 10%",
+                "Replace running shoes every 600-800 km");
+        assertThat(recommendation.getType()).isEqualTo("RUNNING");
+        assertThat(recommendation.isRuleBased()).isTrue();
+        assertThat(recommendation.isProvisional()).isFalse();
+    }
+
+    @Test
+    void longFastHardRun() {
+        Recommendation recommendation = recommender.recommend(run(150, 900, Map.of("distance", 60, "heartRate", 190)));
+
+        assertThat(recommendation.getRecommendation()).isEqualTo("""
+                Overall:A long 150 minute running session.
+
+                Pace:Average speed of 24.0 km/h.
+
+                Heart Rate:Average heart rate of 190 bpm.
+
+                Calories:900 kcal burned, 6.0 kcal per minute.""");
+        assertThat(recommendation.getImprovements()).containsExactly(
+                "Recovery: Plan an easier day after sessions longer than 120 minutes",
+                "Pace: Double-check the recorded distance, the average speed is unusually high",
+                "Intensity: Increase the effort slightly to get more out of the same time");
+        assertThat(recommendation.getSafety()).containsExactly(
+                "Increase weekly distance by no more than 10%",
+                "Replace running shoes every 600-800 km",
+                "Refuel and rehydrate after sessions longer than 120 minutes",
+                "Your average heart rate exceeded 185 bpm; keep most sessions below it");
+    }
+
+    @Test
+    void shortRunWithMetricsRecordedAsText() {
+        Recommendation recommendation = recommender.recommend(run(15, 60, Map.of("distance", "2.5", "heartRate", "140")));
+
+        assertThat(recommendation.getRecommendation()).isEqualTo("""
+                Overall:A short 15 minute running session.
+
+                Pace:Average speed of 10.0 km/h.
+
+                Heart Rate:Average heart rate of 140 bpm.
+
+                Calories:60 kcal burned, 4.0 kcal per minute.""");
+        assertThat(recommendation.getImprovements()).containsExactly(
+                "Duration: Build up towards at least 20 minutes per session",
+                "Intensity: Increase the effort slightly to get more out of the same time");
+    }
+
+    @Test
+    void untypedActivityWithoutDataUsesTheDefaults() {
+        Recommendation recommendation = recommender.recommend(Activity.builder().id("a1").userId("user-1").build());
+
+        assertThat(recommendation.getRecommendation()).isEqualTo("Overall:No duration was recorded for this activity.");
+        assertThat(recommendation.getImprovements()).containsExactly(
+                "Data Tracking: Record the duration of every session so progress can be measured",
+                "Data Tracking: Record calories burned to follow your energy expenditure");
+        assertThat(recommendation.getSuggestions())
+                .containsExactly("Active recovery: 20-30 minutes of easy walking or mobility work the next day");
+        assertThat(recommendation.getSafety()).containsExactly(
+                "Always warm up before exercise", "Stay hydrated", "Listen to your body");
+        assertThat(recommendation.getType()).isNull();
+    }
+
+    @Test
+    void onlyThePlaceholderIsProvisional() {
+        Activity activity = run(45, 500, Map.of());
+
+        Recommendation placeholder = recommender.provisional(activity);
+
+        assertThat(placeholder.isProvisional()).isTrue();
+        assertThat(placeholder.isRuleBased()).isTrue();
+        assertThat(placeholder.getRecommendation()).isEqualTo(recommender.recommend(activity).getRecommendation());
+    }
+
+    private static Activity run(int minutes, int calories, Map<String, Object> metrics) {
+        return Activity.builder()
+                .id("a1").userId("user-1").type(ActivityType.RUNNING)
+                .duration(minutes).caloriesBurned(calories)
+                .additionalMetrics(metrics)
+                .build();
+    }
+
+    // the defaults and RUNNING entry of ai-service.yml
+    private static RecommendationRulesProperties rules() {
+        RecommendationRulesProperties properties = new RecommendationRulesProperties();
+        properties.getDefaults().setSuggestions(List.of(
+                "Active recovery: 20-30 minutes of easy walking or mobility work the next day"));
+        properties.getDefaults().setSafety(List.of("Always warm up before exercise", "Stay hydrated", "Listen to your body"));
+
+        RecommendationRulesProperties.TypeRules running = new RecommendationRulesProperties.TypeRules();
+        running.setMinMinutes(20);
+        running.setMaxMinutes(120);
+        running.setLowCaloriesPerMinute(8);
+        running.setHighCaloriesPerMinute(16);
+        running.setMinSpeed(7);
+        running.setMaxSpeed(22);
+        running.setSuggestions(List.of(
+                "Easy run: 30-40 minutes at a conversational pace",
+                "Intervals: 6 x 400m at 5K pace with 90 seconds of walking in between"));
+        running.setSafety(List.of("Increase weekly distance by no more than 10%", "Replace running shoes every 600-800 km"));
+        properties.getTypes().put(ActivityType.RUNNING, running);
+        return properties;
+    }
+}
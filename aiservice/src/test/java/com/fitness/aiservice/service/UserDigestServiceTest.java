@@ -0,0 +1,173 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Activity;
+import com.fitness.aiservice.model.ActivityType;
+import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.UserDigest;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserDigestServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final UserDigestService service = new UserDigestService(mongoTemplate, 20, 280, 500);
+
+    @BeforeEach
+    void digestExists() {
+        when(mongoTemplate.exists(any(Query.class), eq(UserDigest.class))).thenReturn(true);
+    }
+
+    @Test
+    void firstAnalysisCountsTheActivity() {
+        service.record(activity(ActivityType.RUNNING, 30, 300), recommendation(), null);
+
+        assertThat(increments()).isEqualTo(new Document()
+                .append("types.RUNNING.count", 1L)
+                .append("types.RUNNING.totalMinutes", 30L)
+                .append("types.RUNNING.totalCalories", 300L));
+    }
+
+    @Test
+    void reAnalysisOfTheSameTypeAppliesOnlyTheDifference() {
+        Recommendation previous = stored("RUNNING", 30, 300);
+
+        service.record(activity(ActivityType.RUNNING, 45, 280), recommendation(), previous);
+
+        assertThat(increments()).isEqualTo(new Document()
+                .append("types.RUNNING.totalMinutes", 15L)
+                .append("types.RUNNING.totalCalories", -20L));
+    }
+
+    @Test
+    void reAnalysisWithANewTypeMovesTheActivity() {
+        Recommendation previous = stored("RUNNING", 30, 300);
+
+        service.record(activity(ActivityType.CYCLING, 60, 500), recommendation(), previous);
+
+        assertThat(increments()).isEqualTo(new Document()
+                .append("types.RUNNING.count", -1L)
+                .append("types.RUNNING.totalMinutes", -30L)
+                .append("types.RUNNING.totalCalories", -300L)
+                .append("types.CYCLING.count", 1L)
+                .append("types.CYCLING.totalMinutes", 60L)
+                .append("types.CYCLING.totalCalories", 500L));
+    }
+
+    @Test
+    void aSeedCarriesTotalsForTheSameActivitiesItCounts() {
+        when(mongoTemplate.exists(any(Query.class), eq(UserDigest.class))).thenReturn(false);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Recommendation.class), eq(UserDigestService.TypeTotals.class)))
+                .thenReturn(new AggregationResults<>(List.of(new UserDigestService.TypeTotals("RUNNING", 3, 90, 900)), new Document()));
+
+        service.record(activity(ActivityType.RUNNING, 30, 300), recommendation(), null);
+
+        ArgumentCaptor<UserDigest> seed = ArgumentCaptor.forClass(UserDigest.class);
+        verify(mongoTemplate).insert(seed.capture());
+        UserDigest.TypeStats running = seed.getValue().getTypes().get("RUNNING");
+        assertThat(running.getCount()).isEqualTo(3);
+        assertThat(running.getTotalMinutes()).isEqualTo(90);
+        assertThat(running.getTotalCalories()).isEqualTo(900);
+        // this activity is already in the seed
+        assertThat(increments()).isNull();
+    }
+
+    @Test
+    void aSeedLeavesPlaceholdersOut() {
+        when(mongoTemplate.exists(any(Query.class), eq(UserDigest.class))).thenReturn(false);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Recommendation.class), eq(UserDigestService.TypeTotals.class)))
+                .thenReturn(new AggregationResults<>(List.of(new UserDigestService.TypeTotals("RUNNING", 1, 30, 300)), new Document()));
+
+        service.record(activity(ActivityType.RUNNING, 30, 300), recommendation(), null);
+
+        ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(aggregation.capture(), eq(Recommendation.class), eq(UserDigestService.TypeTotals.class));
+        Document match = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$match", Document.class);
+        assertThat(match.get("provisional")).isEqualTo(new Document("$ne", true));
+
+        ArgumentCaptor<Query> newest = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(newest.capture(), eq(Recommendation.class));
+        assertThat(newest.getValue().getQueryObject().get("provisional")).isEqualTo(new Document("$ne", true));
+    }
+
+    @Test
+    void removeTakesTheTotalsBackOut() {
+        service.remove(stored("RUNNING", 30, null));
+
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(any(Query.class), updates.capture(), eq(UserDigest.class));
+        assertThat(updates.getAllValues().get(1).getUpdateObject().get("$inc", Document.class)).isEqualTo(new Document()
+                .append("types.RUNNING.count", -1L)
+                .append("types.RUNNING.totalMinutes", -30L));
+    }
+
+    @Test
+    void removeSkipsAnActivityItAlreadyTookOut() {
+        service.remove(stored("RUNNING", 30, null));
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(queries.capture(), updates.capture(), eq(UserDigest.class));
+        assertThat(queries.getAllValues().get(1).getQueryObject().get("removedActivityIds"))
+                .isEqualTo(new Document("$ne", "a1"));
+        assertThat(updates.getAllValues().get(1).getUpdateObject().get("$push", Document.class))
+                .containsKey("removedActivityIds");
+    }
+
+    @Test
+    void removingAnUnreplacedPlaceholderChangesNothing() {
+        Recommendation placeholder = stored("RUNNING", 30, 300);
+        placeholder.setProvisional(true);
+
+        service.remove(placeholder);
+
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(UserDigest.class));
+    }
+
+    private Document increments() {
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), update.capture(), eq(UserDigest.class));
+        return update.getValue().getUpdateObject().get("$inc", Document.class);
+    }
+
+    private static Activity activity(ActivityType type, Integer minutes, Integer calories) {
+        return Activity.builder()
+                .id("a1").userId("user-1").type(type)
+                .duration(minutes).caloriesBurned(calories)
+                .startTime(LocalDateTime.of(2024, 3, 1, 7, 30))
+                .build();
+    }
+
+    private static Recommendation recommendation() {
+        return Recommendation.builder()
+                .recommendation("Overall:Good\n\nPace:Steady")
+                .improvements(List.of("Cadence: Shorter steps"))
+                .createdAt(LocalDateTime.of(2024, 3, 1, 9, 0))
+                .build();
+    }
+
+    private static Recommendation stored(String type, Integer minutes, Integer calories) {
+        return Recommendation.builder()
+                .activityId("a1").userId("user-1").type(type)
+                .duration(minutes).caloriesBurned(calories)
+                .build();
+    }
+}
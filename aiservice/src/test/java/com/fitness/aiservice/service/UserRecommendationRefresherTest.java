@@ -0,0 +1,70 @@
+package com.fitness.aiservice.service;
+
+import com.fitness.aiservice.model.Recommendation;
+import com.fitness.aiservice.model.UserDigest;
+import com.fitness.aiservice.model.UserRecommendation;
+import com.fitness.aiservice.respository.UserRecommendationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserRecommendationRefresherTest {
+
+    private final UserDigestService userDigestService = mock(UserDigestService.class);
+    private final ActivityAIService activityAIService = mock(ActivityAIService.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final UserRecommendationRefresher refresher = new UserRecommendationRefresher(userDigestService,
+            mock(UserRecommendationRepository.class), activityAIService, mongoTemplate, 30, 300, 1, 100);
+
+    @AfterEach
+    void tearDown() {
+        refresher.shutdown();
+    }
+
+    @Test
+    void failedGenerationKeepsThePreviousSummaryStale() {
+        UserDigest digest = digestWithOneActivity();
+        when(userDigestService.find("user-1")).thenReturn(Optional.of(digest));
+        when(activityAIService.generateUserCombinedRecommendation("user-1", digest)).thenReturn(Optional.empty());
+
+        refresher.refresh("user-1");
+
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(Update.class), eq(UserRecommendation.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(UserRecommendation.class));
+    }
+
+    @Test
+    void successfulGenerationIsStoredAndClearsStaleness() {
+        UserDigest digest = digestWithOneActivity();
+        when(userDigestService.find("user-1")).thenReturn(Optional.of(digest));
+        when(activityAIService.generateUserCombinedRecommendation("user-1", digest)).thenReturn(Optional.of(
+                Recommendation.builder().userId("user-1").type("USER_SUMMARY").recommendation("Keep going")
+                        .improvements(List.of()).suggestions(List.of()).safety(List.of()).build()));
+
+        refresher.refresh("user-1");
+
+        verify(mongoTemplate, times(1)).upsert(any(Query.class), any(Update.class), eq(UserRecommendation.class));
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(Update.class), eq(UserRecommendation.class));
+    }
+
+    private static UserDigest digestWithOneActivity() {
+        return UserDigest.builder()
+                .userId("user-1")
+                .types(Map.of("RUNNING", UserDigest.TypeStats.builder().count(1).build()))
+                .build();
+    }
+}
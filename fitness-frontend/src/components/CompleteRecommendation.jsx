@@ -9,35 +9,59 @@ const CompleteRecommendation = ({ userId, token }) => {
   const navigate = useNavigate();
 
   useEffect(() => {
-    fetchRecommendation();
-  }, [userId]);
-
-  const fetchRecommendation = async () => {
-    try {
-      setLoading(true);
-      const response = await fetch(
-        `http://localhost:8080/api/recommendations/user/${userId}`,
-        {
-          method: 'GET',
-          headers: {
-            'Authorization': `Bearer ${token}`,
-            'Accept': 'application/json'
+    // an unmount or a new user stops the 202 poll, including a fetch still in flight
+    let cancelled = false;
+    let pollTimer;
+
+    const fetchRecommendation = async () => {
+      try {
+        setLoading(true);
+        const response = await fetch(
+          `http://localhost:8080/api/recommendations/user/${userId}`,
+          {
+            method: 'GET',
+            headers: {
+              'Authorization': `Bearer ${token}`,
+              'Accept': 'application/json'
+            }
           }
+        );
+        if (cancelled) {
+          return;
         }
-      );
 
-      if (!response.ok) {
-        throw new Error('Failed to fetch recommendation');
+        if (!response.ok) {
+          throw new Error('Failed to fetch recommendation');
+        }
+
+        // the first summary of a user is generated in the background
+        if (response.status === 202) {
+          const retryAfter = Number(response.headers.get('Retry-After')) || 5;
+          pollTimer = setTimeout(fetchRecommendation, retryAfter * 1000);
+          return;
+        }
+
+        const data = await response.json();
+        if (cancelled) {
+          return;
+        }
+        setRecommendation(data);
+        setLoading(false);
+      } catch (err) {
+        if (cancelled) {
+          return;
+        }
+        setError(err.message);
+        setLoading(false);
       }
+    };
 
-      const data = await response.json();
-      setRecommendation(data);
-    } catch (err) {
-      setError(err.message);
-    } finally {
-      setLoading(false);
-    }
-  };
+    fetchRecommendation();
+    return () => {
+      cancelled = true;
+      clearTimeout(pollTimer);
+    };
+  }, [userId, token]);
 
   if (loading) {
     return (
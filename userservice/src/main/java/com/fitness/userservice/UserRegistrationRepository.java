@@ -0,0 +1,102 @@
+package com.fitness.userservice;
+
+import com.fitness.userservice.models.User;
+import com.fitness.userservice.models.UserRole;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Inserts that must not fail when the user already exists. The unique constraints on
+ * email and keycloak_id decide in the database, so concurrent first logins for the same
+ * user end with one row and no errors instead of racing on a check-then-insert.
+ */
+@Repository
+public class UserRegistrationRepository {
+
+    private static final String INSERT_INTO = """
+            INSERT INTO users (id, email, keycloak_id, password, first_name, last_name, role, created_at, updated_at)
+            VALUES\s""";
+    // timestamps are stored as UTC wall time, the same as Hibernate writes with hibernate.jdbc.time_zone=UTC
+    private static final String VALUES_ROW =
+            "(:id%1$d, :email%1$d, :keycloakId%1$d, :password%1$d, :firstName%1$d, :lastName%1$d, :role%1$d, "
+                    + "now() AT TIME ZONE 'UTC', now() AT TIME ZONE 'UTC')";
+    // no conflict target: a clash on either unique column means the user is already there, and
+    // RETURNING names exactly the rows that were inserted
+    private static final String ON_CONFLICT = " ON CONFLICT DO NOTHING RETURNING *";
+
+    // 7 parameters a row, well below PostgreSQL's 32767 bind parameter limit
+    private static final int INSERT_CHUNK_SIZE = 1_000;
+
+    private static final RowMapper<User> USER_ROW_MAPPER = (rs, rowNum) -> {
+        User user = new User();
+        user.setId(rs.getString("id"));
+        user.setEmail(rs.getString("email"));
+        user.setKeycloakId(rs.getString("keycloak_id"));
+        user.setPassword(rs.getString("password"));
+        user.setFirstName(rs.getString("first_name"));
+        user.setLastName(rs.getString("last_name"));
+        String role = rs.getString("role");
+        user.setRole(role == null ? null : UserRole.valueOf(role));
+        user.setCreatedAt(localTime(rs, "created_at"));
+        user.setUpdatedAt(localTime(rs, "updated_at"));
+        return user;
+    };
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public UserRegistrationRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // the inserted row, or empty when a user with the same email or keycloak id exists
+    public Optional<User> insertIfAbsent(User user) {
+        return insertAllIfAbsent(List.of(user)).stream().findFirst();
+    }
+
+    // multi-row inserts, one per chunk; returns only the users that were inserted, in no particular order
+    public List<User> insertAllIfAbsent(List<User> users) {
+        List<User> inserted = new ArrayList<>();
+        for (int from = 0; from < users.size(); from += INSERT_CHUNK_SIZE) {
+            List<User> chunk = users.subList(from, Math.min(users.size(), from + INSERT_CHUNK_SIZE));
+            MapSqlParameterSource parameters = new MapSqlParameterSource();
+            StringJoiner rows = new StringJoiner(", ");
+            for (int i = 0; i < chunk.size(); i++) {
+                addParameters(parameters, i, chunk.get(i));
+                rows.add(VALUES_ROW.formatted(i));
+            }
+            inserted.addAll(jdbcTemplate.query(INSERT_INTO + rows + ON_CONFLICT, parameters, USER_ROW_MAPPER));
+        }
+        return inserted;
+    }
+
+    private static void addParameters(MapSqlParameterSource parameters, int row, User user) {
+        parameters
+                .addValue("id" + row, user.getId() != null ? user.getId() : UUID.randomUUID().toString())
+                .addValue("email" + row, user.getEmail())
+                .addValue("keycloakId" + row, user.getKeycloakId())
+                .addValue("password" + row, user.getPassword())
+                .addValue("firstName" + row, user.getFirstName())
+                .addValue("lastName" + row, user.getLastName())
+                .addValue("role" + row, (user.getRole() == null ? UserRole.USER : user.getRole()).name());
+    }
+
+    // read back into the JVM's zone, as Hibernate does for the entities
+    private static LocalDateTime localTime(ResultSet rs, String column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column, Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+        return timestamp == null ? null : timestamp.toLocalDateTime();
+    }
+}
@@ -2,8 +2,13 @@ package com.fitness.userservice;
 
 import com.fitness.userservice.models.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -15,4 +20,15 @@ public interface UserRepository extends JpaRepository<User, String> {
     User findByEmail(String email);
 
     Optional<User> findByKeycloakId(String keycloakId);
+
+    List<User> findByEmailIn(Collection<String> emails);
+
+    List<User> findByEmailInOrKeycloakIdIn(Collection<String> emails, Collection<String> keycloakIds);
+
+    @Query("select u.keycloakId from User u where u.keycloakId in :keycloakIds")
+    List<String> findExistingKeycloakIds(@Param("keycloakIds") Collection<String> keycloakIds);
+
+    @Query("select u.keycloakId from User u where u.keycloakId in :keycloakIds and u.createdAt > :since")
+    List<String> findKeycloakIdsRegisteredSince(@Param("keycloakIds") Collection<String> keycloakIds,
+                                                @Param("since") LocalDateTime since);
 }
@@ -4,19 +4,42 @@ import com.fitness.userservice.dto.RegisterRequest;
 import com.fitness.userservice.dto.UserResponse;
 import com.fitness.userservice.services.UserService;
 import jakarta.validation.Valid;
-import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+
 @RestController
 @RequestMapping("/api/users")
-@AllArgsConstructor
 public class UserController {
     private UserService userService;
+    private Duration profileMaxAge;
+
+    public UserController(UserService userService,
+                          @Value("${user.profile.http-max-age-seconds:60}") long profileMaxAgeSeconds) {
+        this.userService = userService;
+        this.profileMaxAge = Duration.ofSeconds(profileMaxAgeSeconds);
+    }
 
+    // clients revalidate with If-None-Match and get a 304 while the profile is unchanged
     @GetMapping("/{userId}")
     public ResponseEntity<UserResponse> getUserProfile(@PathVariable String userId) {
-        return ResponseEntity.ok(userService.getUserProfile(userId));
+        UserResponse profile = userService.getUserProfile(userId);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(profileMaxAge).cachePrivate().mustRevalidate());
+        if (profile.getUpdatedAt() != null) {
+            Instant updatedAt = profile.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant();
+            response.eTag("\"" + profile.getId() + "-" + ChronoUnit.MICROS.between(Instant.EPOCH, updatedAt) + "\"")
+                    .lastModified(updatedAt);
+        }
+        return response.body(profile);
     }
 
     @PostMapping("/register")
@@ -24,6 +47,17 @@ public class UserController {
         return ResponseEntity.ok(userService.register(request));
     }
 
+    // returns the subset of the given keycloak ids that belong to a user
+    @PostMapping("/validate")
+    public ResponseEntity<Set<String>> validateUsers(@RequestBody List<String> userIds) {
+        return ResponseEntity.ok(userService.existingUserIds(userIds));
+    }
+
+    @PostMapping("/register/batch")
+    public ResponseEntity<List<UserResponse>> registerAll(@RequestBody List<@Valid RegisterRequest> requests) {
+        return ResponseEntity.ok(userService.registerAll(requests));
+    }
+
     @GetMapping("/{userId}/validate")
     public ResponseEntity<Boolean> validateUser(@PathVariable String userId) {
         return ResponseEntity.ok(userService.existByUserId(userId));
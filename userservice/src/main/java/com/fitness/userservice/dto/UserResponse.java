@@ -9,7 +9,6 @@ public class UserResponse {
     private String id;
     private String keycloakId;
     private String email;
-    private String password;
     private String firstName;
     private String lastName;
     private LocalDateTime createdAt;
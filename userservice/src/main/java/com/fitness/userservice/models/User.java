@@ -8,13 +8,15 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "users")
+// declared by name so Hibernate and schema.sql agree on one index
+@Table(name = "users", indexes = @Index(name = "users_keycloak_id_idx", columnList = "keycloak_id", unique = true))
 @Data
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.UUID)
     private String id;
 
+    // looked up on every validate call
     private String keycloakId;
 
     @Column(unique = true)
@@ -0,0 +1,153 @@
+package com.fitness.userservice.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * Broadcasts user changes to every userservice instance through PostgreSQL
+ * LISTEN/NOTIFY, so in-process caches stay coherent without another broker.
+ *
+ * Notifications are not durable: whatever is sent while an instance's listening
+ * connection is down is lost, so subscribers are told when it drops and asked to resync
+ * after a reconnect. The listening connection is opened outside the pool, so it neither
+ * holds a pool slot for the life of the instance nor gets recycled by the pool under it.
+ */
+@Component
+@Slf4j
+public class UserChangeNotifier {
+
+    public static final String REGISTERED = "registered";
+    public static final String UPDATED = "updated";
+
+    private static final String CHANNEL = "user_changes";
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final DataSource listenDataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    private final List<BiConsumer<String, String>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> disconnectListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> resyncListeners = new CopyOnWriteArrayList<>();
+
+    private Thread listenerThread;
+    private volatile boolean running = true;
+
+    public UserChangeNotifier(DataSourceProperties dataSourceProperties, JdbcTemplate jdbcTemplate) {
+        this.listenDataSource = dataSourceProperties.initializeDataSourceBuilder()
+                .type(SimpleDriverDataSource.class)
+                .build();
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // listener receives (event, keycloakId), including for changes made by this instance
+    public void subscribe(BiConsumer<String, String> listener) {
+        listeners.add(listener);
+    }
+
+    // called when the listening connection drops; notifications may be missed until the resync
+    public void onDisconnect(Runnable listener) {
+        disconnectListeners.add(listener);
+    }
+
+    public void onResync(Runnable listener) {
+        resyncListeners.add(listener);
+    }
+
+    // outside a transaction this is delivered right away; inside one, on commit
+    public void publish(String event, String keycloakId) {
+        try {
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, CHANNEL, event + ":" + keycloakId);
+        } catch (Exception e) {
+            log.warn("Failed to broadcast {} for user {}", event, keycloakId, e);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        listenerThread = Thread.ofPlatform().name("user-change-listener").daemon().start(this::listen);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        listenerThread.interrupt();
+    }
+
+    private void listen() {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection connection = listenDataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CHANNEL);
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                if (reconnect) {
+                    runCallbacks(resyncListeners, "resync");
+                }
+                reconnect = true;
+
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(1000);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification.getParameter());
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                // anything escaping here would end the thread and leave the caches silently stale
+                if (!running) {
+                    return;
+                }
+                log.warn("User change listener lost its connection, reconnecting: {}", e.toString());
+                runCallbacks(disconnectListeners, "disconnect");
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void runCallbacks(List<Runnable> callbacks, String what) {
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                log.warn("User change {} callback failed", what, e);
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0) {
+            return;
+        }
+        String event = payload.substring(0, separator);
+        String keycloakId = payload.substring(separator + 1);
+        for (BiConsumer<String, String> listener : listeners) {
+            try {
+                listener.accept(event, keycloakId);
+            } catch (Exception e) {
+                log.warn("User change listener failed for {} {}", event, keycloakId, e);
+            }
+        }
+    }
+}
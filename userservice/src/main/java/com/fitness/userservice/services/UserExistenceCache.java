@@ -0,0 +1,280 @@
+package com.fitness.userservice.services;
+
+import com.fitness.userservice.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers "does this keycloak id belong to a user" mostly from memory. A Bloom filter of
+ * every known id, loaded at startup and kept current through {@link UserChangeNotifier},
+ * rules out unknown ids without touching the database; ids it lets through are checked
+ * against a bounded cache of confirmed users before falling back to a query.
+ *
+ * The filter only knows registrations whose notification has arrived, so a miss is checked
+ * once against users registered in the last {@code recent-window-seconds}, or against all
+ * users while notifications may have been lost, and then remembered until the id registers.
+ *
+ * Until the first load completes every lookup goes to the database.
+ */
+@Component
+@Slf4j
+public class UserExistenceCache {
+
+    private static final int LOAD_FETCH_SIZE = 10_000;
+    // well below PostgreSQL's 32767 bind parameter limit
+    private static final int IN_CHUNK_SIZE = 1_000;
+
+    private final UserRepository repository;
+    private final JdbcTemplate loadJdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final long expectedUsers;
+    private final double falsePositiveRate;
+    private final int maxBatchSize;
+    private final Duration recentWindow;
+
+    private final Cache<String, Boolean> confirmed;
+    // filter misses the database confirmed to be absent
+    private final Cache<String, Boolean> unknown;
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile boolean reloadRequested;
+    // false while registrations may be missing from the filter for longer than the recent window
+    private volatile boolean inSync;
+    private final AtomicLong disconnects = new AtomicLong();
+    private volatile BloomFilter filter;
+    // ids registered while a load is in progress go into both filters
+    private volatile BloomFilter pending;
+
+    private final Counter bloomNegatives;
+    private final Counter cacheHits;
+    private final Counter recentLookups;
+    private final Counter databaseLookups;
+
+    public UserExistenceCache(UserRepository repository,
+                              DataSource dataSource,
+                              PlatformTransactionManager transactionManager,
+                              UserChangeNotifier userChangeNotifier,
+                              MeterRegistry meterRegistry,
+                              @Value("${user.existence.expected-users:10000000}") long expectedUsers,
+                              @Value("${user.existence.false-positive-rate:0.01}") double falsePositiveRate,
+                              @Value("${user.existence.cache-size:100000}") long cacheSize,
+                              @Value("${user.existence.cache-ttl-minutes:30}") long cacheTtlMinutes,
+                              @Value("${user.existence.max-batch-size:50000}") int maxBatchSize,
+                              @Value("${user.existence.recent-window-seconds:300}") long recentWindowSeconds) {
+        this.repository = repository;
+        // its own template, so the streaming fetch size does not leak into other queries
+        this.loadJdbcTemplate = new JdbcTemplate(dataSource);
+        this.loadJdbcTemplate.setFetchSize(LOAD_FETCH_SIZE);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBatchSize = maxBatchSize;
+        this.recentWindow = Duration.ofSeconds(recentWindowSeconds);
+
+        this.confirmed = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofMinutes(cacheTtlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, confirmed, "user-existence");
+        this.unknown = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(recentWindow)
+                .build();
+        this.bloomNegatives = Counter.builder("users.exists.lookups").tag("source", "bloom").register(meterRegistry);
+        this.cacheHits = Counter.builder("users.exists.lookups").tag("source", "cache").register(meterRegistry);
+        this.recentLookups = Counter.builder("users.exists.lookups").tag("source", "recent").register(meterRegistry);
+        this.databaseLookups = Counter.builder("users.exists.lookups").tag("source", "database").register(meterRegistry);
+
+        userChangeNotifier.subscribe((event, keycloakId) -> {
+            if (UserChangeNotifier.REGISTERED.equals(event)) {
+                add(keycloakId);
+            }
+        });
+        userChangeNotifier.onDisconnect(() -> {
+            disconnects.incrementAndGet();
+            inSync = false;
+            unknown.invalidateAll();
+        });
+        // registrations may have been missed while disconnected
+        userChangeNotifier.onResync(() -> Thread.ofVirtual().start(this::load));
+    }
+
+    public boolean exists(String keycloakId) {
+        if (keycloakId == null) {
+            return false;
+        }
+        BloomFilter current = filter;
+        if (current != null && !current.mightContain(keycloakId)) {
+            if (unknown.getIfPresent(keycloakId) != null) {
+                bloomNegatives.increment();
+                return false;
+            }
+            return !resolveMisses(List.of(keycloakId)).isEmpty();
+        }
+        if (confirmed.getIfPresent(keycloakId) != null) {
+            cacheHits.increment();
+            return true;
+        }
+
+        databaseLookups.increment();
+        boolean exists = repository.existsByKeycloakId(keycloakId);
+        if (exists) {
+            confirmed.put(keycloakId, Boolean.TRUE);
+        }
+        return exists;
+    }
+
+    // the same tiers as exists(), with whatever is left checked in chunked IN queries
+    public Set<String> existing(Collection<String> keycloakIds) {
+        Set<String> distinct = new LinkedHashSet<>(keycloakIds);
+        distinct.remove(null);
+        if (distinct.size() > maxBatchSize) {
+            throw new RuntimeException("At most " + maxBatchSize + " user ids can be validated at once");
+        }
+
+        Set<String> found = new LinkedHashSet<>();
+        List<String> unresolved = new ArrayList<>();
+        List<String> missed = new ArrayList<>();
+        BloomFilter current = filter;
+        long negatives = 0;
+        for (String keycloakId : distinct) {
+            if (current != null && !current.mightContain(keycloakId)) {
+                if (unknown.getIfPresent(keycloakId) != null) {
+                    negatives++;
+                } else {
+                    missed.add(keycloakId);
+                }
+            } else if (confirmed.getIfPresent(keycloakId) != null) {
+                found.add(keycloakId);
+            } else {
+                unresolved.add(keycloakId);
+            }
+        }
+        bloomNegatives.increment(negatives);
+        cacheHits.increment(found.size());
+        databaseLookups.increment(unresolved.size());
+
+        for (int from = 0; from < unresolved.size(); from += IN_CHUNK_SIZE) {
+            List<String> chunk = unresolved.subList(from, Math.min(unresolved.size(), from + IN_CHUNK_SIZE));
+            for (String keycloakId : repository.findExistingKeycloakIds(chunk)) {
+                confirmed.put(keycloakId, Boolean.TRUE);
+                found.add(keycloakId);
+            }
+        }
+        found.addAll(resolveMisses(missed));
+        return found;
+    }
+
+    // filter misses: only registrations the filter may not have heard of yet can be among them
+    private Set<String> resolveMisses(List<String> keycloakIds) {
+        Set<String> registered = new LinkedHashSet<>();
+        if (keycloakIds.isEmpty()) {
+            return registered;
+        }
+        boolean recentOnly = inSync;
+        LocalDateTime since = LocalDateTime.now().minus(recentWindow);
+        (recentOnly ? recentLookups : databaseLookups).increment(keycloakIds.size());
+        for (int from = 0; from < keycloakIds.size(); from += IN_CHUNK_SIZE) {
+            List<String> chunk = keycloakIds.subList(from, Math.min(keycloakIds.size(), from + IN_CHUNK_SIZE));
+            registered.addAll(recentOnly
+                    ? repository.findKeycloakIdsRegisteredSince(chunk, since)
+                    : repository.findExistingKeycloakIds(chunk));
+        }
+        for (String keycloakId : keycloakIds) {
+            if (registered.contains(keycloakId)) {
+                add(keycloakId);
+            } else {
+                unknown.put(keycloakId, Boolean.TRUE);
+            }
+        }
+        return registered;
+    }
+
+    public void add(String keycloakId) {
+        if (keycloakId == null) {
+            return;
+        }
+        BloomFilter current = filter;
+        if (current != null) {
+            current.put(keycloakId);
+        }
+        BloomFilter next = pending;
+        if (next != null) {
+            next.put(keycloakId);
+        }
+        confirmed.put(keycloakId, Boolean.TRUE);
+        unknown.invalidate(keycloakId);
+    }
+
+    // off the startup path: 10M ids take a while to stream, and lookups fall back to the database meanwhile
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        Thread.ofVirtual().name("user-existence-load").start(this::load);
+    }
+
+    // a request arriving during a load runs another one afterwards, as the running load may
+    // have started before the registrations the request is about
+    void load() {
+        reloadRequested = true;
+        while (reloadRequested && loading.compareAndSet(false, true)) {
+            try {
+                reloadRequested = false;
+                loadOnce();
+            } finally {
+                loading.set(false);
+            }
+        }
+    }
+
+    private void loadOnce() {
+        long disconnectsAtStart = disconnects.get();
+        try {
+            long start = System.currentTimeMillis();
+            Long count = loadJdbcTemplate.queryForObject("SELECT count(*) FROM users WHERE keycloak_id IS NOT NULL", Long.class);
+            // headroom for growth until the next restart
+            long capacity = Math.max(expectedUsers, (count == null ? 0 : count) * 2);
+            BloomFilter next = new BloomFilter(capacity, falsePositiveRate);
+            pending = next;
+
+            // PostgreSQL only streams with a fetch size inside a transaction
+            readOnlyTransaction.executeWithoutResult(status ->
+                    loadJdbcTemplate.query("SELECT keycloak_id FROM users WHERE keycloak_id IS NOT NULL",
+                            rs -> {
+                                next.put(rs.getString(1));
+                            }));
+
+            filter = next;
+            pending = null;
+            unknown.invalidateAll();
+            // after a disconnect during the load, the resync that follows loads again
+            inSync = disconnects.get() == disconnectsAtStart;
+            log.info("Loaded {} keycloak ids into the existence filter in {} ms", count, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            pending = null;
+            log.warn("Could not load the user existence filter, lookups keep using the database", e);
+        }
+    }
+}
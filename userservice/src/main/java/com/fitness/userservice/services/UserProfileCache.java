@@ -0,0 +1,57 @@
+package com.fitness.userservice.services;
+
+import com.fitness.userservice.dto.UserResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Bounded read-through cache of user profiles keyed by keycloak id. Any change broadcast
+ * through {@link UserChangeNotifier} evicts the profile on every instance; the TTL bounds
+ * how long an instance can serve a profile whose change notification it missed.
+ *
+ * Nothing in this service updates a profile after registration yet. Whatever adds that
+ * path must publish {@link UserChangeNotifier#UPDATED} for the user once its transaction
+ * has committed; until then only out-of-band edits can change a profile, and the TTL is
+ * all that bounds how long they stay unseen.
+ */
+@Component
+public class UserProfileCache {
+
+    private final Cache<String, UserResponse> profiles;
+    private final Counter databaseLoads;
+
+    public UserProfileCache(UserChangeNotifier userChangeNotifier,
+                            MeterRegistry meterRegistry,
+                            @Value("${user.profile.cache-size:50000}") long cacheSize,
+                            @Value("${user.profile.cache-ttl-minutes:10}") long cacheTtlMinutes) {
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofMinutes(cacheTtlMinutes))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles, "user-profiles");
+        Gauge.builder("users.profile.cache.hit.ratio", profiles, cache -> cache.stats().hitRate())
+                .register(meterRegistry);
+        this.databaseLoads = Counter.builder("users.profile.db.loads").register(meterRegistry);
+
+        userChangeNotifier.subscribe((event, keycloakId) -> profiles.invalidate(keycloakId));
+        userChangeNotifier.onResync(profiles::invalidateAll);
+    }
+
+    // a loader that throws (unknown user) caches nothing
+    public UserResponse get(String keycloakId, Function<String, UserResponse> loader) {
+        return profiles.get(keycloakId, id -> {
+            databaseLoads.increment();
+            return loader.apply(id);
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package com.fitness.userservice.services;
 
+import com.fitness.userservice.UserRegistrationRepository;
 import com.fitness.userservice.UserRepository;
 import com.fitness.userservice.dto.RegisterRequest;
 import com.fitness.userservice.dto.UserResponse;
@@ -8,65 +9,145 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 @Service
 @AllArgsConstructor
 @Slf4j
 public class UserService {
 
     private final UserRepository repository;
+    private final UserRegistrationRepository registrationRepository;
+    private final UserExistenceCache existenceCache;
+    private final UserChangeNotifier userChangeNotifier;
+    private final UserProfileCache profileCache;
 
+    // one INSERT ... ON CONFLICT DO NOTHING; only an existing user costs a second query
     public UserResponse register(RegisterRequest request) {
+        Optional<User> inserted = registrationRepository.insertIfAbsent(toUser(request));
+        if (inserted.isPresent()) {
+            onRegistered(inserted.get());
+            return mapToResponse(inserted.get());
+        }
+
+        // already registered, possibly by a concurrent first request for the same user
+        User byKeycloakId = request.getKeycloakId() == null
+                ? null
+                : repository.findByKeycloakId(request.getKeycloakId()).orElse(null);
+        User byEmail = byKeycloakId == null ? repository.findByEmail(request.getEmail()) : null;
+        return mapToResponse(matchExisting(request.getEmail(), request.getKeycloakId(), byKeycloakId, byEmail));
+    }
+
+    // bulk variant: multi-row inserts that return the new rows, then one query for the users
+    // that already existed, matched like register() does
+    public List<UserResponse> registerAll(List<RegisterRequest> requests) {
+        List<User> users = requests.stream().map(this::toUser).toList();
+        Map<String, User> inserted = new HashMap<>();
+        for (User user : registrationRepository.insertAllIfAbsent(users)) {
+            inserted.put(user.getEmail(), user);
+        }
 
-        if (repository.existsByEmail(request.getEmail())) {
-            User existingUser = repository.findByEmail(request.getEmail());
-            UserResponse userResponse = new UserResponse();
-            userResponse.setId(existingUser.getId());
-            userResponse.setPassword(existingUser.getPassword());
-            userResponse.setEmail(existingUser.getEmail());
-            userResponse.setFirstName(existingUser.getFirstName());
-            userResponse.setLastName(existingUser.getLastName());
-            userResponse.setCreatedAt(existingUser.getCreatedAt());
-            userResponse.setUpdatedAt(existingUser.getUpdatedAt());
-            return userResponse;
+        List<User> skipped = users.stream().filter(user -> !inserted.containsKey(user.getEmail())).toList();
+        Map<String, User> byEmail = new HashMap<>();
+        Map<String, User> byKeycloakId = new HashMap<>();
+        if (!skipped.isEmpty()) {
+            Set<String> emails = skipped.stream().map(User::getEmail).collect(Collectors.toSet());
+            Set<String> keycloakIds = skipped.stream().map(User::getKeycloakId).filter(Objects::nonNull).collect(Collectors.toSet());
+            List<User> existing = keycloakIds.isEmpty()
+                    ? repository.findByEmailIn(emails)
+                    : repository.findByEmailInOrKeycloakIdIn(emails, keycloakIds);
+            for (User user : existing) {
+                byEmail.put(user.getEmail(), user);
+                if (user.getKeycloakId() != null) {
+                    byKeycloakId.put(user.getKeycloakId(), user);
+                }
+            }
         }
 
+        List<UserResponse> responses = new ArrayList<>(requests.size());
+        Set<String> announced = new HashSet<>();
+        for (User requested : users) {
+            User user = inserted.get(requested.getEmail());
+            if (user != null) {
+                // the same email may appear twice in one request
+                if (announced.add(user.getEmail())) {
+                    onRegistered(user);
+                }
+            } else {
+                user = matchExisting(requested.getEmail(), requested.getKeycloakId(),
+                        requested.getKeycloakId() == null ? null : byKeycloakId.get(requested.getKeycloakId()),
+                        byEmail.get(requested.getEmail()));
+            }
+            responses.add(mapToResponse(user));
+        }
+        return responses;
+    }
+
+    // the keycloak id decides first; the email only stands in for requests without one. An
+    // email that belongs to a different keycloak user is a conflict, never that user
+    private static User matchExisting(String email, String keycloakId, User byKeycloakId, User byEmail) {
+        if (byKeycloakId != null) {
+            return byKeycloakId;
+        }
+        if (byEmail == null) {
+            throw new RuntimeException("User could not be registered: " + email);
+        }
+        if (keycloakId != null && !keycloakId.equals(byEmail.getKeycloakId())) {
+            throw new RuntimeException("Email " + email + " is already registered to another user");
+        }
+        return byEmail;
+    }
+
+    private User toUser(RegisterRequest request) {
         User user = new User();
         user.setEmail(request.getEmail());
         user.setFirstName(request.getFirstName());
         user.setKeycloakId(request.getKeycloakId());
         user.setLastName(request.getLastName());
         user.setPassword(request.getPassword());
+        return user;
+    }
 
-        User savedUser = repository.save(user);
-        UserResponse userResponse = new UserResponse();
-        userResponse.setId(savedUser.getId());
-        userResponse.setPassword(savedUser.getPassword());
-        userResponse.setKeycloakId(savedUser.getKeycloakId());
-        userResponse.setEmail(savedUser.getEmail());
-        userResponse.setFirstName(savedUser.getFirstName());
-        userResponse.setLastName(savedUser.getLastName());
-        userResponse.setCreatedAt(savedUser.getCreatedAt());
-        userResponse.setUpdatedAt(savedUser.getUpdatedAt());
-        return userResponse;
+    private void onRegistered(User user) {
+        if (user.getKeycloakId() != null) {
+            existenceCache.add(user.getKeycloakId());
+            userChangeNotifier.publish(UserChangeNotifier.REGISTERED, user.getKeycloakId());
+        }
     }
 
-    public UserResponse getUserProfile(String userId) {
-        User user = repository.findByKeycloakId(userId)
-                .orElseThrow(() -> new RuntimeException("User not found"));
+    private UserResponse mapToResponse(User user) {
         UserResponse userResponse = new UserResponse();
         userResponse.setId(user.getId());
-        userResponse.setPassword(user.getPassword());
+        userResponse.setKeycloakId(user.getKeycloakId());
         userResponse.setEmail(user.getEmail());
         userResponse.setFirstName(user.getFirstName());
         userResponse.setLastName(user.getLastName());
         userResponse.setCreatedAt(user.getCreatedAt());
         userResponse.setUpdatedAt(user.getUpdatedAt());
         return userResponse;
+    }
+
+    public UserResponse getUserProfile(String userId) {
+        return profileCache.get(userId, id -> repository.findByKeycloakId(id)
+                .map(this::mapToResponse)
+                .orElseThrow(() -> new RuntimeException("User not found")));
+    }
 
+    public Set<String> existingUserIds(List<String> userIds) {
+        log.info("Validating {} users", userIds.size());
+        return existenceCache.existing(userIds);
     }
 
     public Boolean existByUserId(String userId) {
         log.info("Calling User Service for {}", userId);
-        return repository.existsByKeycloakId(userId);
+        return existenceCache.exists(userId);
     }
 }
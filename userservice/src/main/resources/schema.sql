@@ -0,0 +1,3 @@
+-- registration and the existence checks rely on keycloak_id being unique, so the index is
+-- created explicitly rather than left to ddl-auto. Startup fails if duplicates exist.
+CREATE UNIQUE INDEX IF NOT EXISTS users_keycloak_id_idx ON users (keycloak_id);
@@ -0,0 +1,62 @@
+package com.fitness.userservice.controller;
+
+import com.fitness.userservice.dto.UserResponse;
+import com.fitness.userservice.services.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserControllerTest {
+
+    private final UserService userService = mock(UserService.class);
+    private final UserController controller = new UserController(userService, 60);
+
+    @Test
+    void theProfileCarriesAStrongETagAndAUtcLastModified() {
+        LocalDateTime updatedAt = LocalDateTime.of(2024, 3, 1, 9, 30, 15, 123_456_000);
+        when(userService.getUserProfile("kc-1")).thenReturn(profile(updatedAt));
+
+        ResponseEntity<UserResponse> response = controller.getUserProfile("kc-1");
+
+        long micros = updatedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() * 1000 + 456;
+        assertThat(response.getHeaders().getETag()).isEqualTo("\"u1-" + micros + "\"");
+        assertThat(response.getHeaders().getLastModified())
+                .isEqualTo(updatedAt.withNano(0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        assertThat(response.getHeaders().getCacheControl()).contains("max-age=60", "private", "must-revalidate");
+    }
+
+    @Test
+    void theETagChangesWithEveryUpdate() {
+        LocalDateTime updatedAt = LocalDateTime.of(2024, 3, 1, 9, 30, 15, 123_456_000);
+        when(userService.getUserProfile("kc-1")).thenReturn(profile(updatedAt), profile(updatedAt.plusNanos(1_000)));
+
+        String first = controller.getUserProfile("kc-1").getHeaders().getETag();
+        String second = controller.getUserProfile("kc-1").getHeaders().getETag();
+
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    void aProfileWithoutUpdatedAtHasNoValidators() {
+        when(userService.getUserProfile("kc-1")).thenReturn(profile(null));
+
+        ResponseEntity<UserResponse> response = controller.getUserProfile("kc-1");
+
+        assertThat(response.getHeaders().getETag()).isNull();
+        assertThat(response.getHeaders().getLastModified()).isEqualTo(-1);
+    }
+
+    private static UserResponse profile(LocalDateTime updatedAt) {
+        UserResponse profile = new UserResponse();
+        profile.setId("u1");
+        profile.setKeycloakId("kc-1");
+        profile.setUpdatedAt(updatedAt);
+        return profile;
+    }
+}
@@ -0,0 +1,90 @@
+package com.fitness.userservice.services;
+
+import com.fitness.userservice.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserExistenceCacheTest {
+
+    private final UserRepository repository = mock(UserRepository.class);
+    private final UserChangeNotifier notifier = mock(UserChangeNotifier.class);
+    private UserExistenceCache cache;
+    private Runnable disconnect;
+
+    @BeforeEach
+    void loadedFilter() {
+        cache = new UserExistenceCache(repository, mock(DataSource.class), mock(PlatformTransactionManager.class),
+                notifier, new SimpleMeterRegistry(), 1000, 0.01, 1000, 30, 1000, 300);
+        ArgumentCaptor<Runnable> onDisconnect = ArgumentCaptor.forClass(Runnable.class);
+        verify(notifier).onDisconnect(onDisconnect.capture());
+        disconnect = onDisconnect.getValue();
+        installFilter("known");
+    }
+
+    @Test
+    void aFilterMissForARecentRegistrationIsFoundInTheDatabase() {
+        when(repository.findKeycloakIdsRegisteredSince(anyCollection(), any(LocalDateTime.class))).thenReturn(List.of("new"));
+
+        assertThat(cache.exists("new")).isTrue();
+        assertThat(cache.exists("new")).isTrue();
+        verify(repository, times(1)).findKeycloakIdsRegisteredSince(anyCollection(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void anUnknownIdIsCheckedOnce() {
+        when(repository.findKeycloakIdsRegisteredSince(anyCollection(), any(LocalDateTime.class))).thenReturn(List.of());
+
+        assertThat(cache.exists("bogus")).isFalse();
+        assertThat(cache.exists("bogus")).isFalse();
+        verify(repository, times(1)).findKeycloakIdsRegisteredSince(anyCollection(), any(LocalDateTime.class));
+    }
+
+    @Test
+    void aRegistrationClearsTheRememberedMiss() {
+        when(repository.findKeycloakIdsRegisteredSince(anyCollection(), any(LocalDateTime.class))).thenReturn(List.of());
+        assertThat(cache.exists("later")).isFalse();
+
+        cache.add("later");
+
+        assertThat(cache.exists("later")).isTrue();
+    }
+
+    @Test
+    void afterADisconnectMissesAreCheckedAgainstAllUsers() {
+        disconnect.run();
+        when(repository.findExistingKeycloakIds(anyCollection())).thenReturn(List.of("missed"));
+
+        assertThat(cache.existing(List.of("known", "missed"))).containsExactlyInAnyOrder("known", "missed");
+        verify(repository, never()).findKeycloakIdsRegisteredSince(anyCollection(), any(LocalDateTime.class));
+    }
+
+    // stands in for load(), which streams the ids from PostgreSQL
+    private void installFilter(String... keycloakIds) {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (String keycloakId : keycloakIds) {
+            filter.put(keycloakId);
+        }
+        ReflectionTestUtils.setField(cache, "filter", filter);
+        ReflectionTestUtils.setField(cache, "inSync", true);
+        for (String keycloakId : keycloakIds) {
+            cache.add(keycloakId);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.fitness.userservice.services;
+
+import com.fitness.userservice.dto.UserResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class UserProfileCacheTest {
+
+    private static final int USERS = 5_000;
+
+    private final UserChangeNotifier notifier = mock(UserChangeNotifier.class);
+    private final AtomicLong databaseQueries = new AtomicLong();
+    private final Function<String, UserResponse> database = keycloakId -> {
+        databaseQueries.incrementAndGet();
+        UserResponse profile = new UserResponse();
+        profile.setKeycloakId(keycloakId);
+        return profile;
+    };
+
+    private UserProfileCache cache;
+    private BiConsumer<String, String> changes;
+
+    @BeforeEach
+    void setUp() {
+        cache = new UserProfileCache(notifier, new SimpleMeterRegistry(), 50_000, 10);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<BiConsumer<String, String>> listener = ArgumentCaptor.forClass(BiConsumer.class);
+        verify(notifier).subscribe(listener.capture());
+        changes = listener.getValue();
+    }
+
+    @Test
+    void aChangeNotificationReloadsTheProfileOnce() {
+        cache.get("kc-1", database);
+        cache.get("kc-1", database);
+
+        changes.accept(UserChangeNotifier.UPDATED, "kc-1");
+        cache.get("kc-1", database);
+        cache.get("kc-1", database);
+
+        assertThat(databaseQueries).hasValue(2);
+    }
+
+    @Test
+    void aFailedLoadIsNotCached() {
+        Function<String, UserResponse> unknown = keycloakId -> {
+            throw new RuntimeException("User not found");
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("kc-404", unknown);
+            } catch (RuntimeException expected) {
+                // each call goes to the database again
+            }
+        }
+        cache.get("kc-404", database);
+
+        assertThat(databaseQueries).hasValue(1);
+    }
+
+    /**
+     * Steady state: 16 readers over 5,000 warm profiles while 200 profiles a second change.
+     * Database queries per second then follow the change rate, not the read rate.
+     */
+    @Test
+    void steadyStateDatabaseQueriesFollowChangesNotReads() throws Exception {
+        for (int user = 0; user < USERS; user++) {
+            cache.get("kc-" + user, database);
+        }
+        databaseQueries.set(0);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        ExecutorService readers = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(readers.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    cache.get("kc-" + random.nextInt(USERS), database);
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+
+        long changed = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1)) {
+            for (int i = 0; i < 20; i++) {
+                changes.accept(UserChangeNotifier.UPDATED, "kc-" + ThreadLocalRandom.current().nextInt(USERS));
+                changed++;
+            }
+            Thread.sleep(100);
+        }
+        running.set(false);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        readers.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        double queriesPerSecond = databaseQueries.get() / seconds;
+        double readsPerSecond = reads.get() / seconds;
+        // every change costs at most one reload, however many readers ask for that profile
+        assertThat(databaseQueries.get()).isLessThanOrEqualTo(changed);
+        assertThat(queriesPerSecond).isLessThan(readsPerSecond / 100);
+    }
+}
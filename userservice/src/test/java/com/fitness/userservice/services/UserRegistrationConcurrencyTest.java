@@ -0,0 +1,119 @@
+package com.fitness.userservice.services;
+
+import com.fitness.userservice.UserRegistrationRepository;
+import com.fitness.userservice.UserRepository;
+import com.fitness.userservice.dto.RegisterRequest;
+import com.fitness.userservice.dto.UserResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * First logins race on the real unique constraints: every request for the same user must
+ * end with that one row, and exactly one of them announces it.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(UserRegistrationRepository.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Testcontainers
+class UserRegistrationConcurrencyTest {
+
+    private static final int LOGINS = 100;
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private UserRepository repository;
+
+    @Autowired
+    private UserRegistrationRepository registrationRepository;
+
+    private final UserChangeNotifier notifier = mock(UserChangeNotifier.class);
+    private UserService service;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        service = new UserService(repository, registrationRepository, mock(UserExistenceCache.class), notifier,
+                mock(UserProfileCache.class));
+    }
+
+    @Test
+    void concurrentFirstLoginsOfOneUserCreateOneRow() throws Exception {
+        List<UserResponse> responses = registerConcurrently(i -> request("runner@x.io", "kc-1"));
+
+        assertThat(repository.count()).isEqualTo(1);
+        assertThat(responses).extracting(UserResponse::getId).containsOnly(repository.findAll().get(0).getId());
+        verify(notifier, times(1)).publish(UserChangeNotifier.REGISTERED, "kc-1");
+    }
+
+    @Test
+    void concurrentFirstLoginsOfManyUsersEachGetTheirOwnRow() throws Exception {
+        List<UserResponse> responses = registerConcurrently(i -> request("runner" + i % 10 + "@x.io", "kc-" + i % 10));
+
+        assertThat(repository.count()).isEqualTo(10);
+        for (UserResponse response : responses) {
+            assertThat(response.getEmail()).isEqualTo("runner" + response.getKeycloakId().substring(3) + "@x.io");
+        }
+        for (int user = 0; user < 10; user++) {
+            verify(notifier, times(1)).publish(UserChangeNotifier.REGISTERED, "kc-" + user);
+        }
+    }
+
+    private List<UserResponse> registerConcurrently(IntFunction<RegisterRequest> requests) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(LOGINS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<UserResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < LOGINS; i++) {
+                RegisterRequest request = requests.apply(i);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return service.register(request);
+                }));
+            }
+            start.countDown();
+
+            List<UserResponse> responses = new ArrayList<>();
+            for (Future<UserResponse> future : futures) {
+                responses.add(future.get());
+            }
+            return responses;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static RegisterRequest request(String email, String keycloakId) {
+        RegisterRequest request = new RegisterRequest();
+        request.setEmail(email);
+        request.setKeycloakId(keycloakId);
+        request.setPassword("secret1");
+        return request;
+    }
+}
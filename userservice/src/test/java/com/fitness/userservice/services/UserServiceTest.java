@@ -0,0 +1,126 @@
+package com.fitness.userservice.services;
+
+import com.fitness.userservice.UserRegistrationRepository;
+import com.fitness.userservice.UserRepository;
+import com.fitness.userservice.dto.RegisterRequest;
+import com.fitness.userservice.dto.UserResponse;
+import com.fitness.userservice.models.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserServiceTest {
+
+    private final UserRepository repository = mock(UserRepository.class);
+    private final UserRegistrationRepository registrationRepository = mock(UserRegistrationRepository.class);
+    private final UserExistenceCache existenceCache = mock(UserExistenceCache.class);
+    private final UserChangeNotifier notifier = mock(UserChangeNotifier.class);
+    private final UserService service = new UserService(repository, registrationRepository, existenceCache, notifier,
+            mock(UserProfileCache.class));
+
+    @Test
+    void onlyInsertedUsersAreAnnounced() {
+        when(registrationRepository.insertAllIfAbsent(anyList())).thenReturn(List.of(user("u1", "new@x.io", "kc-new")));
+        when(repository.findByEmailInOrKeycloakIdIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(user("u2", "old@x.io", "kc-old")));
+
+        List<UserResponse> responses = service.registerAll(List.of(
+                request("new@x.io", "kc-new"), request("old@x.io", "kc-old")));
+
+        assertThat(responses).extracting(UserResponse::getId).containsExactly("u1", "u2");
+        verify(notifier).publish(UserChangeNotifier.REGISTERED, "kc-new");
+        verify(notifier, never()).publish(UserChangeNotifier.REGISTERED, "kc-old");
+        verify(existenceCache, never()).add("kc-old");
+    }
+
+    @Test
+    void aRequestClashingOnlyOnTheKeycloakIdGetsTheExistingUser() {
+        when(registrationRepository.insertAllIfAbsent(anyList())).thenReturn(List.of());
+        when(repository.findByEmailInOrKeycloakIdIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(user("u1", "first@x.io", "kc-1")));
+
+        List<UserResponse> responses = service.registerAll(List.of(request("second@x.io", "kc-1")));
+
+        assertThat(responses).extracting(UserResponse::getId).containsExactly("u1");
+        verify(notifier, never()).publish(UserChangeNotifier.REGISTERED, "kc-1");
+    }
+
+    @Test
+    void aDuplicatedRequestIsAnnouncedOnce() {
+        when(registrationRepository.insertAllIfAbsent(anyList())).thenReturn(List.of(user("u1", "new@x.io", "kc-new")));
+
+        List<UserResponse> responses = service.registerAll(List.of(
+                request("new@x.io", "kc-new"), request("new@x.io", "kc-new")));
+
+        assertThat(responses).extracting(UserResponse::getId).containsExactly("u1", "u1");
+        verify(notifier).publish(UserChangeNotifier.REGISTERED, "kc-new");
+        verify(repository, never()).findByEmailInOrKeycloakIdIn(anyCollection(), anyCollection());
+    }
+
+    @Test
+    void anExistingUserIsFoundByKeycloakIdBeforeEmail() {
+        when(registrationRepository.insertIfAbsent(any())).thenReturn(Optional.empty());
+        when(repository.findByKeycloakId("kc-1")).thenReturn(Optional.of(user("u1", "first@x.io", "kc-1")));
+
+        UserResponse response = service.register(request("first@x.io", "kc-1"));
+
+        assertThat(response.getId()).isEqualTo("u1");
+        verify(repository, never()).findByEmail(any());
+    }
+
+    @Test
+    void anEmailRegisteredToAnotherKeycloakUserIsRejected() {
+        when(registrationRepository.insertIfAbsent(any())).thenReturn(Optional.empty());
+        when(repository.findByKeycloakId("kc-2")).thenReturn(Optional.empty());
+        when(repository.findByEmail("first@x.io")).thenReturn(user("u1", "first@x.io", "kc-1"));
+
+        assertThatThrownBy(() -> service.register(request("first@x.io", "kc-2")))
+                .hasMessageContaining("already registered to another user");
+    }
+
+    @Test
+    void aBulkRequestWithAnEmailOfAnotherKeycloakUserIsRejected() {
+        when(registrationRepository.insertAllIfAbsent(anyList())).thenReturn(List.of());
+        when(repository.findByEmailInOrKeycloakIdIn(anyCollection(), anyCollection()))
+                .thenReturn(List.of(user("u1", "first@x.io", "kc-1")));
+
+        assertThatThrownBy(() -> service.registerAll(List.of(request("first@x.io", "kc-2"))))
+                .hasMessageContaining("already registered to another user");
+    }
+
+    @Test
+    void aUserThatWasNeitherInsertedNorFoundIsAnError() {
+        when(registrationRepository.insertAllIfAbsent(anyList())).thenReturn(List.of());
+        when(repository.findByEmailIn(anyCollection())).thenReturn(List.of());
+
+        assertThatThrownBy(() -> service.registerAll(List.of(request("gone@x.io", null))))
+                .hasMessageContaining("gone@x.io");
+    }
+
+    private static RegisterRequest request(String email, String keycloakId) {
+        RegisterRequest request = new RegisterRequest();
+        request.setEmail(email);
+        request.setKeycloakId(keycloakId);
+        request.setPassword("secret1");
+        return request;
+    }
+
+    private static User user(String id, String email, String keycloakId) {
+        User user = new User();
+        user.setId(id);
+        user.setEmail(email);
+        user.setKeycloakId(keycloakId);
+        return user;
+    }
+}